@@ -0,0 +1,90 @@
+package com.github.danielwegener.logback.kafka;
+
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+
+import java.util.Map;
+
+/**
+ * Live backpressure state of a {@link KafkaAppender}. It is sampled by the appender's housekeeping thread and can be
+ * read cheaply (a few volatile reads) from any thread, e.g. by the {@link BackpressureTurboFilter}.
+ * <p>
+ * Each appender publishes its state in the logback context under {@link #contextKey(String)}.
+ * @since 0.1.2
+ */
+public class Backpressure {
+
+    private static final String CONTEXT_KEY_PREFIX = Backpressure.class.getName() + ".";
+    private static final String PRODUCER_METRICS_GROUP = "producer-metrics";
+    private static final String BUFFER_AVAILABLE_BYTES = "buffer-available-bytes";
+    private static final String BUFFER_TOTAL_BYTES = "buffer-total-bytes";
+
+    private volatile double bufferFill = 0d;
+    private volatile int queueDepth = 0;
+    private volatile boolean deliveryFailing = false;
+    private volatile long lastDeliveryFailure = 0L;
+
+    /**
+     * @param appenderName the name of a kafka appender.
+     * @return the key under which the appender publishes its backpressure state in the logback context.
+     */
+    public static String contextKey(String appenderName) {
+        return CONTEXT_KEY_PREFIX + appenderName;
+    }
+
+    /**
+     * @return the fill ratio ({@code 0..1}) of the fullest producer send buffer.
+     */
+    public double getBufferFill() {
+        return bufferFill;
+    }
+
+    /**
+     * @return the number of events waiting in the appender's deferred queue.
+     */
+    public int getQueueDepth() {
+        return queueDepth;
+    }
+
+    /**
+     * @return {@code true} if deliveries failed recently.
+     */
+    public boolean isDeliveryFailing() {
+        return deliveryFailing;
+    }
+
+    void recordDeliveryFailure() {
+        lastDeliveryFailure = System.currentTimeMillis();
+    }
+
+    void update(double bufferFill, int queueDepth, long failureWindow) {
+        this.bufferFill = bufferFill;
+        this.queueDepth = queueDepth;
+        this.deliveryFailing = System.currentTimeMillis() - lastDeliveryFailure < failureWindow;
+    }
+
+    void reset() {
+        this.bufferFill = 0d;
+        this.queueDepth = 0;
+        this.deliveryFailing = false;
+    }
+
+    /**
+     * @param producer a kafka producer
+     * @return the fill ratio ({@code 0..1}) of the producer's send buffer.
+     */
+    static double bufferFill(Producer<?, ?> producer) {
+        double available = -1d;
+        double total = -1d;
+        for (Map.Entry<MetricName, ? extends Metric> metric : producer.metrics().entrySet()) {
+            if (!PRODUCER_METRICS_GROUP.equals(metric.getKey().group())) continue;
+            if (BUFFER_AVAILABLE_BYTES.equals(metric.getKey().name())) available = metric.getValue().value();
+            else if (BUFFER_TOTAL_BYTES.equals(metric.getKey().name())) total = metric.getValue().value();
+        }
+        if (available < 0 || total <= 0) {
+            return 0d;
+        }
+        return 1d - available / total;
+    }
+}
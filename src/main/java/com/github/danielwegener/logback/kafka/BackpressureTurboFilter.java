@@ -0,0 +1,151 @@
+package com.github.danielwegener.logback.kafka;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.turbo.TurboFilter;
+import ch.qos.logback.core.spi.FilterReply;
+import com.github.danielwegener.logback.kafka.message.ConfigurationSupport;
+import org.slf4j.Marker;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A {@link TurboFilter} that denies low-priority events at the logger call site while a {@link KafkaAppender} is
+ * backed up (its send buffer is filling up, its deferred queue grows or deliveries fail).
+ * Since turbo filters are evaluated before logback creates a logging event, shedding events here is nearly free.
+ * <p>
+ * The filter is neutral as long as the referenced appender is not (yet) started.
+ * @since 0.1.2
+ */
+public class BackpressureTurboFilter extends TurboFilter {
+
+    private String appenderName;
+    private Level level = Level.INFO;
+    private String[] loggerPrefixes = null;
+    private double bufferFillThreshold = 0.8d;
+    private int queueDepthThreshold = 1000;
+    private boolean shedOnDeliveryFailure = true;
+
+    private volatile Backpressure backpressure = null;
+    private final LongAdder denied = new LongAdder();
+
+    @Override
+    public void start() {
+        if (appenderName == null) {
+            addError("No appenderName set for the turbo filter named [\"" + getName() + "\"].");
+            return;
+        }
+        super.start();
+    }
+
+    @Override
+    public FilterReply decide(Marker marker, Logger logger, Level level, String format, Object[] params, Throwable t) {
+        if (!isStarted() || level == null || level.toInt() > this.level.toInt()) {
+            return FilterReply.NEUTRAL;
+        }
+        final Backpressure state = resolveBackpressure();
+        if (state == null || !isBackedUp(state) || !matchesLogger(logger)) {
+            return FilterReply.NEUTRAL;
+        }
+        denied.increment();
+        return FilterReply.DENY;
+    }
+
+    private Backpressure resolveBackpressure() {
+        Backpressure result = backpressure;
+        if (result == null) {
+            result = (Backpressure) getContext().getObject(Backpressure.contextKey(appenderName));
+            backpressure = result;
+        }
+        return result;
+    }
+
+    private boolean isBackedUp(Backpressure state) {
+        return state.getBufferFill() >= bufferFillThreshold
+                || state.getQueueDepth() >= queueDepthThreshold
+                || (shedOnDeliveryFailure && state.isDeliveryFailing());
+    }
+
+    private boolean matchesLogger(Logger logger) {
+        if (loggerPrefixes == null) {
+            return true;
+        }
+        final String loggerName = logger.getName();
+        for (String prefix : loggerPrefixes) {
+            if (loggerName.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return the number of events this filter denied so far.
+     */
+    public long getDeniedCount() {
+        return denied.sum();
+    }
+
+    public String getAppenderName() {
+        return appenderName;
+    }
+
+    /**
+     * @param appenderName the name of the {@link KafkaAppender} whose backpressure state should be observed.
+     */
+    public void setAppenderName(String appenderName) {
+        this.appenderName = appenderName;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    /**
+     * @param level the maximum level of events that are denied while the appender is backed up (default: {@code INFO}).
+     */
+    public void setLevel(String level) {
+        this.level = Level.toLevel(level, Level.INFO);
+    }
+
+    /**
+     * @param loggers comma separated logger name prefixes. If set, only events of matching loggers are denied.
+     */
+    public void setLoggers(String loggers) {
+        final String[] prefixes = ConfigurationSupport.splitValues(loggers);
+        this.loggerPrefixes = prefixes.length > 0 ? prefixes : null;
+    }
+
+    public double getBufferFillThreshold() {
+        return bufferFillThreshold;
+    }
+
+    /**
+     * @param bufferFillThreshold the send buffer fill ratio ({@code 0..1}) from which the appender is considered backed up.
+     */
+    public void setBufferFillThreshold(double bufferFillThreshold) {
+        this.bufferFillThreshold = bufferFillThreshold;
+    }
+
+    public int getQueueDepthThreshold() {
+        return queueDepthThreshold;
+    }
+
+    /**
+     * @param queueDepthThreshold the deferred queue depth from which the appender is considered backed up.
+     */
+    public void setQueueDepthThreshold(int queueDepthThreshold) {
+        this.queueDepthThreshold = queueDepthThreshold;
+    }
+
+    public boolean isShedOnDeliveryFailure() {
+        return shedOnDeliveryFailure;
+    }
+
+    /**
+     * @param shedOnDeliveryFailure whether recently failed deliveries mark the appender as backed up.
+     */
+    public void setShedOnDeliveryFailure(boolean shedOnDeliveryFailure) {
+        this.shedOnDeliveryFailure = shedOnDeliveryFailure;
+    }
+}
@@ -0,0 +1,128 @@
+package com.github.danielwegener.logback.kafka;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.BiConsumer;
+
+/**
+ * Counts dropped events per partition key, so a {@link KafkaAppender} can inject a gap record into the stream of each
+ * key once delivery recovers. Consumers can then tell a quiet stream from a lossy one.
+ * <p>
+ * At most {@code maxKeys} keys are tracked separately. Drops of further keys (and of unkeyed events) are counted in
+ * one gap without a key.
+ * @since 0.1.2
+ */
+public class GapTracker {
+
+    public static final String FIELD_GAP_COUNT = "gap_count";
+    public static final String FIELD_GAP_START = "gap_start";
+    public static final String FIELD_GAP_END = "gap_end";
+
+    private static final ByteBuffer NO_KEY = ByteBuffer.allocate(0);
+
+    private final ConcurrentMap<ByteBuffer, Gap> gaps = new ConcurrentHashMap<ByteBuffer, Gap>();
+    private final int maxKeys;
+
+    /**
+     * @param maxKeys the maximum number of keys that are tracked separately.
+     */
+    public GapTracker(int maxKeys) {
+        this.maxKeys = maxKeys;
+    }
+
+    /**
+     * Counts a dropped event.
+     *
+     * @param key the partition key of the event or {@code null}
+     * @param timestamp the timestamp of the event in epoch milliseconds
+     */
+    public void record(byte[] key, long timestamp) {
+        ByteBuffer gapKey = key != null && key.length > 0 ? ByteBuffer.wrap(key) : NO_KEY;
+        if (gapKey != NO_KEY && gaps.size() >= maxKeys && !gaps.containsKey(gapKey)) {
+            gapKey = NO_KEY;
+        }
+        while (true) {
+            Gap gap = gaps.get(gapKey);
+            if (gap == null) {
+                final Gap created = new Gap();
+                gap = gaps.putIfAbsent(gapKey, created);
+                if (gap == null) gap = created;
+            }
+            if (gap.record(timestamp)) {
+                return;
+            }
+            // the gap was drained concurrently
+            gaps.remove(gapKey, gap);
+        }
+    }
+
+    /**
+     * @return {@code true} if no events were dropped since the last {@link #drain(BiConsumer)}.
+     */
+    public boolean isEmpty() {
+        return gaps.isEmpty();
+    }
+
+    /**
+     * Removes all gaps.
+     *
+     * @param consumer receives the key ({@code null} for unkeyed events) and the gap of every key.
+     */
+    public void drain(BiConsumer<byte[], Gap> consumer) {
+        for (Map.Entry<ByteBuffer, Gap> entry : gaps.entrySet()) {
+            final Gap gap = entry.getValue();
+            gap.close();
+            gaps.remove(entry.getKey(), gap);
+            if (gap.getCount() > 0) {
+                consumer.accept(entry.getKey() == NO_KEY ? null : entry.getKey().array(), gap);
+            }
+        }
+    }
+
+    /**
+     * The dropped events of one key.
+     */
+    public static final class Gap {
+        private long count = 0L;
+        private long start = Long.MAX_VALUE;
+        private long end = Long.MIN_VALUE;
+        private boolean closed = false;
+
+        synchronized boolean record(long timestamp) {
+            if (closed) {
+                return false;
+            }
+            count++;
+            start = Math.min(start, timestamp);
+            end = Math.max(end, timestamp);
+            return true;
+        }
+
+        synchronized void close() {
+            closed = true;
+        }
+
+        /**
+         * @return the number of dropped events.
+         */
+        public synchronized long getCount() {
+            return count;
+        }
+
+        /**
+         * @return the timestamp of the first dropped event in epoch milliseconds.
+         */
+        public synchronized long getStart() {
+            return start;
+        }
+
+        /**
+         * @return the timestamp of the last dropped event in epoch milliseconds.
+         */
+        public synchronized long getEnd() {
+            return end;
+        }
+    }
+}
@@ -1,10 +1,26 @@
 package com.github.danielwegener.logback.kafka;
 
+import ch.qos.logback.classic.Level;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.core.Appender;
 import ch.qos.logback.core.spi.AppenderAttachableImpl;
+import ch.qos.logback.core.spi.LifeCycle;
+import com.github.danielwegener.logback.kafka.delivery.DeliveryStrategy;
 import com.github.danielwegener.logback.kafka.delivery.FailedDeliveryCallback;
 import com.github.danielwegener.logback.kafka.message.*;
+import com.github.danielwegener.logback.kafka.metrics.DropReason;
+import com.github.danielwegener.logback.kafka.metrics.FlightRecorderEvents;
+import com.github.danielwegener.logback.kafka.metrics.InstrumentedProducer;
+import com.github.danielwegener.logback.kafka.metrics.KafkaAppenderMonitor;
+import com.github.danielwegener.logback.kafka.metrics.MetricsReporter;
+import com.github.danielwegener.logback.kafka.metrics.PipelineStep;
+import com.github.danielwegener.logback.kafka.metrics.ProducerMetrics;
+import com.github.danielwegener.logback.kafka.metrics.SpaceSavingSketch;
+import com.github.danielwegener.logback.kafka.metrics.StatsRecords;
+import com.github.danielwegener.logback.kafka.pipeline.AppendContext;
+import com.github.danielwegener.logback.kafka.pipeline.AppendStage;
+import com.github.danielwegener.logback.kafka.pipeline.StageSink;
+import org.apache.kafka.clients.producer.BufferExhaustedException;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.Producer;
 import org.apache.kafka.clients.producer.ProducerConfig;
@@ -12,9 +28,18 @@ import org.apache.kafka.clients.producer.ProducerRecord;
 import org.apache.kafka.common.KafkaException;
 import org.apache.kafka.common.serialization.ByteArraySerializer;
 
+
+import javax.management.JMException;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @since 0.0.1
@@ -28,9 +53,37 @@ public class KafkaAppender<E> extends KafkaAppenderConfig<E> {
     private static final String KAFKA_LOGGER_PREFIX = "org.apache.kafka.clients";
 
     private LazyProducer lazyProducer = null;
+    private LazyProducer[] laneProducers = new KafkaAppender.LazyProducer[0];
     private final AppenderAttachableImpl<E> aai = new AppenderAttachableImpl<E>();
     private final ConcurrentLinkedQueue<E> queue = new ConcurrentLinkedQueue<E>();
-    private final FailedDeliveryCallback<E> failedDeliveryCallback = (evt, throwable) -> aai.appendLoopOnAppenders(evt);
+    private final Backpressure backpressure = new Backpressure();
+    private final KafkaAppenderMonitor monitor = new KafkaAppenderMonitor(backpressure);
+    private FlightRecorderEvents flightRecorder = FlightRecorderEvents.DISABLED;
+    private long slowAppendThresholdNanos = Long.MAX_VALUE;
+    private final FailedDeliveryCallback<E> failedDeliveryCallback = (evt, throwable) -> {
+        backpressure.recordDeliveryFailure();
+        monitor.onError("Delivery failed", throwable);
+        if (aai.iteratorForAppenders().hasNext()) {
+            monitor.onFallback();
+            flightRecorder.fallbackDispatch(getName(), throwable);
+        } else {
+            onDropped(evt, throwable);
+        }
+        aai.appendLoopOnAppenders(evt);
+    };
+    private final FailedDeliveryCallback<E> droppingDeliveryCallback = (evt, throwable) -> {
+        backpressure.recordDeliveryFailure();
+        monitor.onError("Delivery failed", throwable);
+        onDropped(evt, throwable);
+    };
+    private final StageSink stageSink = new AppenderStageSink();
+    private AppendStage[] activeStages = new AppendStage[0];
+    private ScheduledExecutorService housekeeper = null;
+    private long lastMetricsSample = 0L;
+    private long lastTemplateQuotaWindow = 0L;
+    private GapTracker gapTracker = null;
+    private SourceSequence sourceSequence = null;
+    private KafkaAppenderSettings settings = null;
     protected MdcKafkaMessageAssembler kafkaMessageAssembler;
 
     public KafkaAppender() {
@@ -51,7 +104,8 @@ public class KafkaAppender<E> extends KafkaAppenderConfig<E> {
     }
 
     private KafkaLogMessage createKafkaMessage(ILoggingEvent loggingEvent) {
-        return kafkaMessageAssembler.createGelfMessage(new LogbackLogEvent(loggingEvent));
+        final MdcKafkaMessageAssembler assembler = kafkaMessageAssembler;
+        return assembler.createGelfMessage(new LogbackLogEvent(loggingEvent), assembler.getSettings().forLogger(loggingEvent.getLoggerName()));
     }
 
     @Override
@@ -59,7 +113,32 @@ public class KafkaAppender<E> extends KafkaAppenderConfig<E> {
         // only error free appenders should be activated
         if (!checkPrerequisites()) return;
 
-        lazyProducer = new LazyProducer();
+        flightRecorder = flightRecorderEvents ? FlightRecorderEvents.get() : FlightRecorderEvents.DISABLED;
+        slowAppendThresholdNanos = TimeUnit.MILLISECONDS.toNanos(slowAppendThreshold);
+        lazyProducer = new LazyProducer("default", producerConfig);
+        laneProducers = new KafkaAppender.LazyProducer[lanes.size()];
+        for (int i = 0; i < laneProducers.length; i++) {
+            laneProducers[i] = new LazyProducer(laneName(i), lanes.get(i).mergeProducerConfig(producerConfig));
+        }
+        activeStages = stages.toArray(new AppendStage[stages.size()]);
+        gapTracker = gapRecords ? new GapTracker(maxGapKeys) : null;
+        sourceSequence = sequenceNumbers ? new SourceSequence(sourceId) : null;
+        monitor.trackTopLoggers(topLoggers);
+        monitor.trackTopTemplates(topTemplates);
+        kafkaMessageAssembler.setFieldSchema(typedSchema ? new FieldSchema() : null);
+        kafkaMessageAssembler.setEnvironmentFields(environmentFields ? StaticEnvelope.environmentFields() : Collections.<String, String>emptyMap());
+        kafkaMessageAssembler.setStackTraceTimer(timingSampleRate > 0d ? nanos -> monitor.recordStep(PipelineStep.STACK_TRACE, nanos) : null);
+        context.putObject(Backpressure.contextKey(getName()), backpressure);
+        settings = new KafkaAppenderSettings(kafkaMessageAssembler);
+        if (registerMBean) {
+            try {
+                monitor.register(getName());
+                settings.register(getName());
+            } catch (JMException e) {
+                addWarn("Failed to register the MBean of appender [\"" + getName() + "\"]: " + e.getMessage(), e);
+            }
+        }
+        startHousekeeping();
 
         super.start();
     }
@@ -67,13 +146,43 @@ public class KafkaAppender<E> extends KafkaAppenderConfig<E> {
     @Override
     public void stop() {
         super.stop();
-        if (lazyProducer != null && lazyProducer.isInitialized()) {
+        stopHousekeeping();
+        for (AppendStage stage : activeStages) {
+            if (stage instanceof LifeCycle) {
+                ((LifeCycle) stage).stop();
+            }
+            stage.flush(stageSink);
+        }
+        activeStages = new AppendStage[0];
+        closeProducer(lazyProducer);
+        lazyProducer = null;
+        for (LazyProducer laneProducer : laneProducers) {
+            closeProducer(laneProducer);
+        }
+        laneProducers = new KafkaAppender.LazyProducer[0];
+        backpressure.reset();
+        // logback 1.1 has no Context#removeObject, so the entry is cleared unless another appender replaced it
+        final String backpressureKey = Backpressure.contextKey(getName());
+        if (context.getObject(backpressureKey) == backpressure) {
+            context.putObject(backpressureKey, null);
+        }
+        try {
+            monitor.unregister();
+            if (settings != null) {
+                settings.unregister();
+            }
+        } catch (JMException e) {
+            addWarn("Failed to unregister the MBean of appender [\"" + getName() + "\"]: " + e.getMessage(), e);
+        }
+    }
+
+    private void closeProducer(LazyProducer producer) {
+        if (producer != null && producer.isInitialized()) {
             try {
-                lazyProducer.get().close();
+                producer.get().close();
             } catch (KafkaException e) {
                 this.addWarn("Failed to shut down kafka producer: " + e.getMessage(), e);
             }
-            lazyProducer = null;
         }
     }
 
@@ -120,6 +229,13 @@ public class KafkaAppender<E> extends KafkaAppenderConfig<E> {
         return kafkaMessageAssembler.getFacility();
     }
 
+    /**
+     * @param spec static fields, like {@code environment=production,service=orders}
+     */
+    public void setAdditionalFields(String spec) {
+        ConfigurationSupport.setAdditionalFields(spec, kafkaMessageAssembler);
+    }
+
     public void setMdcFields(String spec) {
         ConfigurationSupport.setMdcFields(spec, kafkaMessageAssembler);
     }
@@ -128,6 +244,13 @@ public class KafkaAppender<E> extends KafkaAppenderConfig<E> {
         ConfigurationSupport.setDynamicMdcFields(spec, kafkaMessageAssembler);
     }
 
+    /**
+     * @param spec the declared field types, like {@code userId=String,durationMs=long}
+     */
+    public void setAdditionalFieldTypes(String spec) {
+        ConfigurationSupport.setAdditionalFieldTypes(spec, kafkaMessageAssembler);
+    }
+
     public boolean isIncludeFullMdc() {
         return kafkaMessageAssembler.isIncludeFullMdc();
     }
@@ -160,6 +283,14 @@ public class KafkaAppender<E> extends KafkaAppenderConfig<E> {
         kafkaMessageAssembler.setFilterStackTrace(filterStackTrace);
     }
 
+    public boolean isCallerData() {
+        return kafkaMessageAssembler.isCallerData();
+    }
+
+    public void setCallerData(boolean callerData) {
+        kafkaMessageAssembler.setCallerData(callerData);
+    }
+
     public String getTimestampPattern() {
         return kafkaMessageAssembler.getTimestampPattern();
     }
@@ -170,17 +301,164 @@ public class KafkaAppender<E> extends KafkaAppenderConfig<E> {
 
     @Override
     protected void append(E e) {
+        final long appendStart = System.nanoTime();
         ILoggingEvent event = (ILoggingEvent) e;
+        monitor.onAppended(event.getLoggerName(), event.getLevel());
+        final AppendStage[] stages = activeStages;
+        final AppendContext context = new AppendContext(stageSink);
+        for (AppendStage stage : stages) {
+            if (!stage.process(event, context)) {
+                // held back or aggregated events are not dropped
+                final DropReason reason = context.getDropReason();
+                if (reason != null) {
+                    monitor.onDropped(reason);
+                    // sampling drops on purpose, a sampled stream is quiet and not lossy
+                    if (reason == DropReason.RATE_LIMITED) {
+                        recordGap(e);
+                    }
+                }
+                return;
+            }
+        }
+        final SpaceSavingSketch.Counter template = monitor.onTemplateAppended(event.getMessage());
+        if (template != null && templateByteQuota > 0 && template.getWindowWeight() >= templateByteQuota) {
+            monitor.onDropped(DropReason.QUOTA_EXCEEDED);
+            recordGap(e);
+            return;
+        }
+
+        final boolean timed = timingSampleRate > 0d && (timingSampleRate >= 1d || ThreadLocalRandom.current().nextDouble() < timingSampleRate);
+        final long assemblyStart = timed ? System.nanoTime() : 0L;
         KafkaLogMessage message = createKafkaMessage(event);
+        if (timed) monitor.lap(PipelineStep.ASSEMBLY, assemblyStart);
+        context.applyTo(message);
+        final int payloadSize = send(message, e, null, topic, appendStart, timed);
+        monitor.onLoggerBytes(event.getLoggerName(), payloadSize);
+        if (template != null) {
+            template.addWeight(payloadSize);
+        }
+
+        for (AppendStage stage : stages) {
+            stage.onEncoded(event, payloadSize);
+        }
+        if (flightRecorder != FlightRecorderEvents.DISABLED) {
+            final long appendDuration = System.nanoTime() - appendStart;
+            if (appendDuration >= slowAppendThresholdNanos) {
+                flightRecorder.slowAppend(getName(), event.getLoggerName(), event.getLevel().toString(), appendDuration);
+            }
+        }
+    }
 
-        final byte[] payload = encoder.doEncode((E) message.toJson(""));
-        final byte[] key = keyingStrategy.createKey(e);
+    /**
+     * Encodes and sends a message.
+     *
+     * @param message the message to send
+     * @param e the originating event or {@code null} for synthetic messages
+     * @param key the key of a synthetic message or {@code null} to create the key from the originating event
+     * @param topic the topic to send to
+     * @param appendStart the {@link System#nanoTime()} when the append started
+     * @param timed whether the pipeline steps are timed for this message
+     * @return the size of the encoded payload.
+     */
+    private int send(KafkaLogMessage message, E e, byte[] key, String topic, long appendStart, boolean timed) {
+        long mark = timed ? System.nanoTime() : 0L;
+        final SourceSequence sequence = sourceSequence;
+        if (sequence != null) {
+            sequence.stamp(message);
+        }
+        final String json = message.toJson("");
+        if (timed) mark = monitor.lap(PipelineStep.SERIALIZATION, mark);
+        final byte[] payload = encoder.doEncode((E) json);
+        if (timed) mark = monitor.lap(PipelineStep.ENCODING, mark);
+        monitor.onEncoded(payload.length);
+        if (key == null && e != null) key = keyingStrategy.createKey(e);
+        if (timed) mark = monitor.lap(PipelineStep.KEYING, mark);
         final ProducerRecord<byte[], byte[]> record = new ProducerRecord<>(topic, key, payload);
-        deliveryStrategy.send(lazyProducer.get(), record, e, failedDeliveryCallback);
+
+        final int laneIndex = e != null ? selectLane((ILoggingEvent) e) : -1;
+        final boolean sent;
+        monitor.onSending(appendStart);
+        if (timed) mark = System.nanoTime();
+        if (laneIndex < 0) {
+            sent = deliveryStrategy.send(lazyProducer.get(), record, e, e != null ? failedDeliveryCallback : droppingDeliveryCallback);
+        } else {
+            final PriorityLane lane = lanes.get(laneIndex);
+            final DeliveryStrategy laneDeliveryStrategy = lane.getDeliveryStrategy() != null ? lane.getDeliveryStrategy() : deliveryStrategy;
+            sent = laneDeliveryStrategy.send(laneProducers[laneIndex].get(), record, e,
+                    lane.isDroppable() ? droppingDeliveryCallback : failedDeliveryCallback);
+        }
+        if (timed) monitor.lap(PipelineStep.DELIVERY, mark);
+        if (sent) {
+            monitor.onSent(System.nanoTime() - appendStart);
+        }
+        return payload.length;
+    }
+
+    private void startHousekeeping() {
+        housekeeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "kafka-appender-housekeeping-" + getName());
+            thread.setDaemon(true);
+            return thread;
+        });
+        housekeeper.scheduleWithFixedDelay(this::housekeep, housekeepingInterval, housekeepingInterval, TimeUnit.MILLISECONDS);
+    }
+
+    private void stopHousekeeping() {
+        if (housekeeper != null) {
+            housekeeper.shutdown();
+            try {
+                housekeeper.awaitTermination(housekeepingInterval, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            housekeeper = null;
+        }
+    }
+
+    private void housekeep() {
+        try {
+            flightRecorder.refresh();
+            updateBackpressure();
+            if (gapTracker != null && !backpressure.isDeliveryFailing() && !gapTracker.isEmpty()) {
+                sendGapRecords();
+            }
+            for (AppendStage stage : activeStages) {
+                stage.flush(stageSink);
+            }
+            final long now = System.currentTimeMillis();
+            if (now - lastMetricsSample >= metricsInterval) {
+                lastMetricsSample = now;
+                sampleMetrics();
+            }
+            if (now - lastTemplateQuotaWindow >= templateQuotaInterval) {
+                lastTemplateQuotaWindow = now;
+                monitor.resetTemplateQuotaWindows();
+            }
+        } catch (RuntimeException e) {
+            monitor.onError("Housekeeping failed", e);
+            addWarn("Housekeeping of appender [\"" + getName() + "\"] failed: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * @return the index of the first lane that matches the given event or {@code -1} if the event should be sent
+     * through the appenders own producer.
+     */
+    private int selectLane(ILoggingEvent event) {
+        for (int i = 0; i < laneProducers.length; i++) {
+            if (lanes.get(i).matches(event)) {
+                return i;
+            }
+        }
+        return -1;
     }
 
     protected Producer<byte[], byte[]> createProducer() {
-        return new KafkaProducer<>(new HashMap<>(producerConfig));
+        return createProducer(producerConfig);
+    }
+
+    protected Producer<byte[], byte[]> createProducer(Map<String, Object> config) {
+        return new KafkaProducer<>(new HashMap<>(config));
     }
 
     private void deferAppend(E event) {
@@ -196,6 +474,142 @@ public class KafkaAppender<E> extends KafkaAppenderConfig<E> {
         }
     }
 
+    private void updateBackpressure() {
+        double bufferFill = 0d;
+        final LazyProducer defaultProducer = lazyProducer;
+        if (defaultProducer != null && defaultProducer.isInitialized()) {
+            bufferFill = Backpressure.bufferFill(defaultProducer.get());
+        }
+        for (LazyProducer laneProducer : laneProducers) {
+            if (laneProducer.isInitialized()) {
+                bufferFill = Math.max(bufferFill, Backpressure.bufferFill(laneProducer.get()));
+            }
+        }
+        final boolean wasDeliveryFailing = backpressure.isDeliveryFailing();
+        backpressure.update(bufferFill, queue.size(), deliveryFailureWindow);
+        if (backpressure.isDeliveryFailing() != wasDeliveryFailing) {
+            flightRecorder.deliveryTransition(getName(), !wasDeliveryFailing);
+        }
+    }
+
+    private void sampleMetrics() {
+        final Map<String, Double> producerMetrics = new TreeMap<String, Double>();
+        final LazyProducer defaultProducer = lazyProducer;
+        if (defaultProducer != null && defaultProducer.isInitialized()) {
+            ProducerMetrics.collect("default", defaultProducer.get().metrics(), producerMetrics);
+        }
+        final LazyProducer[] currentLaneProducers = laneProducers;
+        for (int i = 0; i < currentLaneProducers.length; i++) {
+            if (currentLaneProducers[i].isInitialized()) {
+                ProducerMetrics.collect(laneName(i), currentLaneProducers[i].get().metrics(), producerMetrics);
+            }
+        }
+        monitor.setProducerMetrics(producerMetrics);
+        monitor.sampleLatencies();
+        if (statsTopic != null) {
+            stageSink.emit(StatsRecords.create(getName(), statsHost(), monitor, System.currentTimeMillis()), null, statsTopic);
+        }
+
+        for (MetricsReporter metricsReporter : metricsReporters) {
+            try {
+                metricsReporter.report(getName(), monitor);
+            } catch (RuntimeException e) {
+                addWarn("Metrics reporter of appender [\"" + getName() + "\"] failed: " + e.getMessage(), e);
+            }
+        }
+    }
+
+    private String statsHost() {
+        final String host = StaticEnvelope.localHostName();
+        return host != null ? host : "unknown";
+    }
+
+    private String laneName(int index) {
+        return lanes.get(index).getName() != null ? lanes.get(index).getName() : "lane" + index;
+    }
+
+    private void onDropped(E evt, Throwable throwable) {
+        if (throwable instanceof BufferExhaustedException) {
+            monitor.onDropped(DropReason.BUFFER_EXHAUSTED);
+            flightRecorder.bufferExhausted(getName(), throwable);
+        } else {
+            monitor.onDropped(DropReason.DELIVERY_FAILED);
+        }
+        recordGap(evt);
+    }
+
+    private void recordGap(E evt) {
+        final GapTracker tracker = gapTracker;
+        if (tracker != null && evt != null) {
+            final long timestamp = evt instanceof ILoggingEvent ? ((ILoggingEvent) evt).getTimeStamp() : System.currentTimeMillis();
+            tracker.record(keyingStrategy.createKey(evt), timestamp);
+        }
+    }
+
+    /**
+     * Sends one gap record per key with dropped events into the key's stream.
+     */
+    private void sendGapRecords() {
+        gapTracker.drain((key, gap) -> {
+            final KafkaLogMessage gapRecord = KafkaLogMessageBuilder.newInstance()
+                    .withFullMessage(gap.getCount() + " events were dropped")
+                    .withJavaTimestamp(System.currentTimeMillis())
+                    .withLevel("" + LogbackLogEvent.levelToSyslogLevel(Level.WARN))
+                    .withFacility(kafkaMessageAssembler.getFacility())
+                    .withField(GapTracker.FIELD_GAP_COUNT, Long.toString(gap.getCount()))
+                    .withField(GapTracker.FIELD_GAP_START, Long.toString(gap.getStart()))
+                    .withField(GapTracker.FIELD_GAP_END, Long.toString(gap.getEnd()))
+                    .build();
+            send(gapRecord, null, key, topic, System.nanoTime(), false);
+        });
+    }
+
+    /**
+     * @return the throughput, drop and buffer counters of this appender.
+     */
+    public KafkaAppenderMonitor getMonitor() {
+        return monitor;
+    }
+
+    /**
+     * @return the runtime switches of the message assembly ({@code null} before the appender was started).
+     */
+    public KafkaAppenderSettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * @return the live backpressure state of this appender.
+     */
+    public Backpressure getBackpressure() {
+        return backpressure;
+    }
+
+    /**
+     * Lets stages assemble and send records through this appender.
+     */
+    private class AppenderStageSink implements StageSink {
+
+        @Override
+        public KafkaLogMessage assemble(ILoggingEvent event) {
+            return createKafkaMessage(event);
+        }
+
+        @Override
+        public void emit(KafkaLogMessage message, ILoggingEvent origin) {
+            emit(message, origin, null);
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public void emit(KafkaLogMessage message, ILoggingEvent origin, String topic) {
+            if (origin == null && kafkaMessageAssembler.getFacility() != null) {
+                message.setFacility(kafkaMessageAssembler.getFacility());
+            }
+            send(message, (E) origin, null, topic != null ? topic : KafkaAppender.this.topic, System.nanoTime(), false);
+        }
+    }
+
     /**
      * Lazy initializer for producer, patterned after commons-lang.
      *
@@ -203,8 +617,15 @@ public class KafkaAppender<E> extends KafkaAppenderConfig<E> {
      */
     private class LazyProducer {
 
+        private final String name;
+        private final Map<String, Object> config;
         private volatile Producer<byte[], byte[]> producer;
 
+        LazyProducer(String name, Map<String, Object> config) {
+            this.name = name;
+            this.config = config;
+        }
+
         public Producer<byte[], byte[]> get() {
             Producer<byte[], byte[]> result = this.producer;
             if (result == null) {
@@ -221,11 +642,16 @@ public class KafkaAppender<E> extends KafkaAppenderConfig<E> {
 
         protected Producer<byte[], byte[]> initialize() {
             Producer<byte[], byte[]> producer = null;
+            final long start = System.nanoTime();
             try {
-                producer = createProducer();
+                producer = config == producerConfig ? createProducer() : createProducer(config);
+                if (producer != null) {
+                    producer = new InstrumentedProducer<>(producer, monitor);
+                }
             } catch (Exception e) {
                 addError("error creating producer", e);
             }
+            flightRecorder.producerCreated(getName(), name, producer != null, System.nanoTime() - start);
             return producer;
         }
 
@@ -7,10 +7,14 @@ import com.github.danielwegener.logback.kafka.delivery.DeliveryStrategy;
 import com.github.danielwegener.logback.kafka.encoding.KafkaMessageEncoder;
 import com.github.danielwegener.logback.kafka.keying.KeyingStrategy;
 import com.github.danielwegener.logback.kafka.keying.RoundRobinKeyingStrategy;
+import com.github.danielwegener.logback.kafka.metrics.MetricsReporter;
+import com.github.danielwegener.logback.kafka.pipeline.AppendStage;
 import static org.apache.kafka.clients.producer.ProducerConfig.*;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -24,6 +28,27 @@ public abstract class KafkaAppenderConfig<E> extends UnsynchronizedAppenderBase<
     protected KafkaMessageEncoder<E> encoder = null;
     protected KeyingStrategy<? super E> keyingStrategy = null;
     protected DeliveryStrategy deliveryStrategy;
+    protected final List<PriorityLane> lanes = new ArrayList<PriorityLane>();
+    protected final List<AppendStage> stages = new ArrayList<AppendStage>();
+    protected long housekeepingInterval = 1000L;
+    protected long deliveryFailureWindow = 5000L;
+    protected boolean registerMBean = true;
+    protected long metricsInterval = 10000L;
+    protected double timingSampleRate = 0d;
+    protected int topLoggers = 20;
+    protected int topTemplates = 20;
+    protected long templateByteQuota = 0L;
+    protected long templateQuotaInterval = 60000L;
+    protected boolean flightRecorderEvents = true;
+    protected long slowAppendThreshold = 10L;
+    protected String statsTopic = null;
+    protected boolean gapRecords = false;
+    protected int maxGapKeys = 1024;
+    protected boolean sequenceNumbers = false;
+    protected String sourceId = null;
+    protected boolean typedSchema = false;
+    protected boolean environmentFields = false;
+    protected final List<MetricsReporter> metricsReporters = new ArrayList<MetricsReporter>();
 
     public static final Set<String> KNOWN_PRODUCER_CONFIG_KEYS = new HashSet<String>();
     public static final Map<String,String> DEPRECATED_PRODUCER_CONFIG_KEYS = new HashMap<String, String>();
@@ -95,6 +120,13 @@ public abstract class KafkaAppenderConfig<E> extends UnsynchronizedAppenderBase<
             deliveryStrategy = new AsynchronousDeliveryStrategy();
         }
 
+        for (PriorityLane lane : lanes) {
+            for (String key : lane.getProducerConfig().keySet()) {
+                if (!KNOWN_PRODUCER_CONFIG_KEYS.contains(key))
+                    addWarn("The key \""+key+"\" of lane \""+lane.getName()+"\" is not a known kafka producer config key.");
+            }
+        }
+
         return errorFree;
     }
 
@@ -141,6 +173,249 @@ public abstract class KafkaAppenderConfig<E> extends UnsynchronizedAppenderBase<
         this.deliveryStrategy = deliveryStrategy;
     }
 
+    public void addLane(PriorityLane lane) {
+        this.lanes.add(lane);
+    }
+
+    public List<PriorityLane> getLanes() {
+        return lanes;
+    }
+
+    public void addStage(AppendStage stage) {
+        this.stages.add(stage);
+    }
+
+    public List<AppendStage> getStages() {
+        return stages;
+    }
+
+    public long getHousekeepingInterval() {
+        return housekeepingInterval;
+    }
+
+    /**
+     * Sets the interval in which periodic work (like flushing stage summaries) is done.
+     * @param housekeepingInterval an interval in {@link java.util.concurrent.TimeUnit#MILLISECONDS}.
+     */
+    public void setHousekeepingInterval(long housekeepingInterval) {
+        this.housekeepingInterval = housekeepingInterval;
+    }
+
+    public long getDeliveryFailureWindow() {
+        return deliveryFailureWindow;
+    }
+
+    /**
+     * Sets how long a failed delivery marks this appender as backed up (see {@link Backpressure}).
+     * @param deliveryFailureWindow a duration in {@link java.util.concurrent.TimeUnit#MILLISECONDS}.
+     */
+    public void setDeliveryFailureWindow(long deliveryFailureWindow) {
+        this.deliveryFailureWindow = deliveryFailureWindow;
+    }
+
+    public long getMetricsInterval() {
+        return metricsInterval;
+    }
+
+    /**
+     * Sets the interval in which producer metrics are sampled and the metrics reporters are invoked.
+     * @param metricsInterval an interval in {@link java.util.concurrent.TimeUnit#MILLISECONDS}.
+     */
+    public void setMetricsInterval(long metricsInterval) {
+        this.metricsInterval = metricsInterval;
+    }
+
+    public double getTimingSampleRate() {
+        return timingSampleRate;
+    }
+
+    /**
+     * Sets the share of appended events whose pipeline steps (assembly, serialization, encoding, keying and delivery)
+     * are timed. Stack trace rendering is timed for every rendered stack trace as soon as the rate is positive.
+     * @param timingSampleRate a rate from {@code 0} (default, no timing) to {@code 1} (every event).
+     */
+    public void setTimingSampleRate(double timingSampleRate) {
+        this.timingSampleRate = timingSampleRate;
+    }
+
+    public int getTopLoggers() {
+        return topLoggers;
+    }
+
+    /**
+     * Sets the number of loggers with the most events and bytes that are tracked (with constant memory).
+     * @param topLoggers the number of tracked loggers (default: {@code 20}, {@code 0} disables the tracking).
+     */
+    public void setTopLoggers(int topLoggers) {
+        this.topLoggers = topLoggers;
+    }
+
+    public int getTopTemplates() {
+        return topTemplates;
+    }
+
+    /**
+     * Sets the number of message templates with the most events and bytes that are tracked (with constant memory).
+     * @param topTemplates the number of tracked templates (default: {@code 20}, {@code 0} disables the tracking).
+     */
+    public void setTopTemplates(int topTemplates) {
+        this.topTemplates = topTemplates;
+    }
+
+    public long getTemplateByteQuota() {
+        return templateByteQuota;
+    }
+
+    /**
+     * Limits the encoded bytes per tracked message template and {@code templateQuotaInterval}. Further events of the
+     * template are dropped until the interval ends.
+     * @param templateByteQuota the quota in bytes (default: {@code 0}, no quota).
+     */
+    public void setTemplateByteQuota(long templateByteQuota) {
+        this.templateByteQuota = templateByteQuota;
+    }
+
+    public long getTemplateQuotaInterval() {
+        return templateQuotaInterval;
+    }
+
+    /**
+     * @param templateQuotaInterval the interval in milliseconds of the {@code templateByteQuota} (default: {@code 60000}).
+     */
+    public void setTemplateQuotaInterval(long templateQuotaInterval) {
+        this.templateQuotaInterval = templateQuotaInterval;
+    }
+
+    public boolean isFlightRecorderEvents() {
+        return flightRecorderEvents;
+    }
+
+    /**
+     * Emits Java Flight Recorder events for slow appends, exhausted buffers, producer creations, delivery state
+     * transitions and fallback dispatches (if the JVM supports JFR).
+     * @param flightRecorderEvents whether JFR events are emitted (default: {@code true}).
+     */
+    public void setFlightRecorderEvents(boolean flightRecorderEvents) {
+        this.flightRecorderEvents = flightRecorderEvents;
+    }
+
+    public long getSlowAppendThreshold() {
+        return slowAppendThreshold;
+    }
+
+    /**
+     * @param slowAppendThreshold the duration in {@link java.util.concurrent.TimeUnit#MILLISECONDS} from which an append
+     *                            is recorded as a {@code SlowAppend} JFR event (default: {@code 10}).
+     */
+    public void setSlowAppendThreshold(long slowAppendThreshold) {
+        this.slowAppendThreshold = slowAppendThreshold;
+    }
+
+    public String getStatsTopic() {
+        return statsTopic;
+    }
+
+    /**
+     * Publishes a self-stats record of the appender to the given topic every {@code metricsInterval} milliseconds.
+     * @param statsTopic the topic of the stats records (default: {@code null}, no stats records).
+     */
+    public void setStatsTopic(String statsTopic) {
+        this.statsTopic = statsTopic;
+    }
+
+    public boolean isGapRecords() {
+        return gapRecords;
+    }
+
+    /**
+     * Counts dropped events per partition key and sends a gap record with the count and time range into the stream
+     * of each key once delivery recovers (see {@link GapTracker}).
+     * @param gapRecords whether gap records are sent (default: {@code false}).
+     */
+    public void setGapRecords(boolean gapRecords) {
+        this.gapRecords = gapRecords;
+    }
+
+    public int getMaxGapKeys() {
+        return maxGapKeys;
+    }
+
+    /**
+     * @param maxGapKeys the maximum number of keys whose drops are counted separately (default: {@code 1024}).
+     */
+    public void setMaxGapKeys(int maxGapKeys) {
+        this.maxGapKeys = maxGapKeys;
+    }
+
+    public boolean isSequenceNumbers() {
+        return sequenceNumbers;
+    }
+
+    /**
+     * Stamps every record with a {@code source_id} and a monotonically increasing {@code seq} (see {@link SourceSequence}).
+     * @param sequenceNumbers whether records are stamped (default: {@code false}).
+     */
+    public void setSequenceNumbers(boolean sequenceNumbers) {
+        this.sequenceNumbers = sequenceNumbers;
+    }
+
+    public String getSourceId() {
+        return sourceId;
+    }
+
+    /**
+     * @param sourceId the source id of the records (default: a random id, generated whenever the appender starts).
+     */
+    public void setSourceId(String sourceId) {
+        this.sourceId = sourceId;
+    }
+
+    public boolean isTypedSchema() {
+        return typedSchema;
+    }
+
+    /**
+     * Writes additional fields with declared or learned types instead of discovering the type of every value
+     * (see {@link com.github.danielwegener.logback.kafka.message.FieldSchema}).
+     * @param typedSchema whether field types are declared or learned once per field name (default: {@code false}).
+     */
+    public void setTypedSchema(boolean typedSchema) {
+        this.typedSchema = typedSchema;
+    }
+
+    public boolean isEnvironmentFields() {
+        return environmentFields;
+    }
+
+    /**
+     * Adds the {@code host} and (in a container) the {@code container_id} to every record. Both are resolved once.
+     * @param environmentFields whether the environment fields are added (default: {@code false}).
+     */
+    public void setEnvironmentFields(boolean environmentFields) {
+        this.environmentFields = environmentFields;
+    }
+
+    public void addMetricsReporter(MetricsReporter metricsReporter) {
+        this.metricsReporters.add(metricsReporter);
+    }
+
+    public List<MetricsReporter> getMetricsReporters() {
+        return metricsReporters;
+    }
+
+    public boolean isRegisterMBean() {
+        return registerMBean;
+    }
+
+    /**
+     * Sets whether the appender registers its {@link com.github.danielwegener.logback.kafka.metrics.KafkaAppenderMonitor}
+     * in the platform MBean server (default: {@code true}).
+     * @param registerMBean {@code false} to disable the registration.
+     */
+    public void setRegisterMBean(boolean registerMBean) {
+        this.registerMBean = registerMBean;
+    }
+
 
 
 }
@@ -0,0 +1,141 @@
+package com.github.danielwegener.logback.kafka;
+
+import com.github.danielwegener.logback.kafka.message.AssemblySettings;
+import com.github.danielwegener.logback.kafka.message.MdcKafkaMessageAssembler;
+import com.github.danielwegener.logback.kafka.metrics.KafkaAppenderMonitor;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Switches the expensive parts of a {@link KafkaAppender}'s message assembly at runtime, e.g. to turn off stack traces
+ * during an incident or to turn on the full MDC for one logger. Every change swaps the assembler's immutable
+ * {@link AssemblySettings} snapshot.
+ * <p>
+ * The settings are registered in the platform MBean server as
+ * {@code com.github.danielwegener.logback.kafka:type=KafkaAppenderSettings,name=<appender name>}.
+ * @since 0.1.2
+ */
+public class KafkaAppenderSettings implements KafkaAppenderSettingsMXBean {
+
+    public static final String OBJECT_NAME_TYPE = "KafkaAppenderSettings";
+
+    private final MdcKafkaMessageAssembler assembler;
+    private ObjectName objectName = null;
+
+    public KafkaAppenderSettings(MdcKafkaMessageAssembler assembler) {
+        this.assembler = assembler;
+    }
+
+    /**
+     * Registers the settings in the platform MBean server.
+     *
+     * @param appenderName the name of the appender
+     * @throws JMException if the settings could not be registered.
+     */
+    public synchronized void register(String appenderName) throws JMException {
+        final ObjectName name = KafkaAppenderMonitor.objectName(OBJECT_NAME_TYPE, appenderName);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        objectName = name;
+    }
+
+    /**
+     * Unregisters the settings from the platform MBean server if they are registered.
+     *
+     * @throws JMException if the settings could not be unregistered.
+     */
+    public synchronized void unregister() throws JMException {
+        if (objectName != null) {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = objectName;
+            objectName = null;
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        }
+    }
+
+    @Override
+    public boolean isExtractStackTrace() {
+        return assembler.isExtractStackTrace();
+    }
+
+    @Override
+    public void setExtractStackTrace(boolean extractStackTrace) {
+        assembler.setExtractStackTrace(extractStackTrace);
+    }
+
+    @Override
+    public boolean isFilterStackTrace() {
+        return assembler.isFilterStackTrace();
+    }
+
+    @Override
+    public void setFilterStackTrace(boolean filterStackTrace) {
+        assembler.setFilterStackTrace(filterStackTrace);
+    }
+
+    @Override
+    public boolean isIncludeFullMdc() {
+        return assembler.isIncludeFullMdc();
+    }
+
+    @Override
+    public void setIncludeFullMdc(boolean includeFullMdc) {
+        assembler.setIncludeFullMdc(includeFullMdc);
+    }
+
+    @Override
+    public boolean isMdcProfiling() {
+        return assembler.isMdcProfiling();
+    }
+
+    @Override
+    public void setMdcProfiling(boolean mdcProfiling) {
+        assembler.setMdcProfiling(mdcProfiling);
+    }
+
+    @Override
+    public boolean isCallerData() {
+        return assembler.isCallerData();
+    }
+
+    @Override
+    public void setCallerData(boolean callerData) {
+        assembler.setCallerData(callerData);
+    }
+
+    @Override
+    public Map<String, String> getLoggerOverrides() {
+        final Map<String, String> overrides = new LinkedHashMap<String, String>();
+        for (Map.Entry<String, AssemblySettings> override : assembler.getSettings().getLoggerOverrides().entrySet()) {
+            overrides.put(override.getKey(), override.getValue().toString());
+        }
+        return overrides;
+    }
+
+    @Override
+    public void overrideLogger(String loggerName, boolean extractStackTrace, boolean filterStackTrace, boolean includeFullMdc,
+                               boolean mdcProfiling, boolean callerData) {
+        final AssemblySettings override = AssemblySettings.DEFAULT
+                .withExtractStackTrace(extractStackTrace)
+                .withFilterStackTrace(filterStackTrace)
+                .withIncludeFullMdc(includeFullMdc)
+                .withMdcProfiling(mdcProfiling)
+                .withCallerData(callerData);
+        synchronized (assembler) {
+            assembler.setSettings(assembler.getSettings().withLoggerOverride(loggerName, override));
+        }
+    }
+
+    @Override
+    public void removeLoggerOverride(String loggerName) {
+        synchronized (assembler) {
+            assembler.setSettings(assembler.getSettings().withLoggerOverride(loggerName, null));
+        }
+    }
+}
@@ -0,0 +1,51 @@
+package com.github.danielwegener.logback.kafka;
+
+import java.util.Map;
+
+/**
+ * Management interface of the runtime switches of a {@link KafkaAppender}'s message assembly. Changes apply to the
+ * next assembled message.
+ * @since 0.1.2
+ */
+public interface KafkaAppenderSettingsMXBean {
+
+    boolean isExtractStackTrace();
+
+    void setExtractStackTrace(boolean extractStackTrace);
+
+    boolean isFilterStackTrace();
+
+    void setFilterStackTrace(boolean filterStackTrace);
+
+    boolean isIncludeFullMdc();
+
+    void setIncludeFullMdc(boolean includeFullMdc);
+
+    boolean isMdcProfiling();
+
+    void setMdcProfiling(boolean mdcProfiling);
+
+    /**
+     * @return {@code true} if caller data fields (like {@code SourceClassName}) are assembled.
+     */
+    boolean isCallerData();
+
+    void setCallerData(boolean callerData);
+
+    /**
+     * @return the overridden settings by logger name.
+     */
+    Map<String, String> getLoggerOverrides();
+
+    /**
+     * Overrides the settings for a logger and its descendants.
+     */
+    void overrideLogger(String loggerName, boolean extractStackTrace, boolean filterStackTrace, boolean includeFullMdc,
+                        boolean mdcProfiling, boolean callerData);
+
+    /**
+     * Removes the override of a logger.
+     */
+    void removeLoggerOverride(String loggerName);
+
+}
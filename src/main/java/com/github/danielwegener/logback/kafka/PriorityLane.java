@@ -0,0 +1,122 @@
+package com.github.danielwegener.logback.kafka;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import com.github.danielwegener.logback.kafka.delivery.DeliveryStrategy;
+import org.apache.kafka.clients.producer.ProducerConfig;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A priority lane routes a subset of logging events (selected by level and optionally by marker) through its own
+ * kafka producer. Each lane has a dedicated send buffer and may override any producer config of the appender, so that
+ * critical events keep a low latency and are never shed in favor of noisy ones.
+ * <p>
+ * Lanes are evaluated in their configuration order, the first matching lane wins. Events that match no lane are sent
+ * through the appender's own producer.
+ * @since 0.1.2
+ */
+public class PriorityLane {
+
+    private String name;
+    private Level level = Level.ALL;
+    private String marker = null;
+    private boolean droppable = false;
+    private DeliveryStrategy deliveryStrategy = null;
+    private final Map<String, Object> producerConfig = new HashMap<String, Object>();
+
+    /**
+     * @param event the logging event
+     * @return {@code true} if the event should be routed through this lane.
+     */
+    public boolean matches(ILoggingEvent event) {
+        if (!event.getLevel().isGreaterOrEqual(level)) {
+            return false;
+        }
+        return marker == null || (event.getMarker() != null && event.getMarker().contains(marker));
+    }
+
+    /**
+     * Creates the effective producer config of this lane.
+     * @param appenderProducerConfig the producer config of the owning appender.
+     * @return the appender config overridden with the config of this lane.
+     */
+    Map<String, Object> mergeProducerConfig(Map<String, Object> appenderProducerConfig) {
+        final Map<String, Object> merged = new HashMap<String, Object>(appenderProducerConfig);
+        if (droppable && !producerConfig.containsKey(ProducerConfig.BLOCK_ON_BUFFER_FULL_CONFIG)) {
+            // a droppable lane must never block the application when its buffer runs full
+            merged.put(ProducerConfig.BLOCK_ON_BUFFER_FULL_CONFIG, "false");
+        }
+        merged.putAll(producerConfig);
+        return merged;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    /**
+     * Sets the minimum level of events this lane accepts.
+     * @param level a logback level name (e.g. {@code WARN}).
+     */
+    public void setLevel(String level) {
+        this.level = Level.toLevel(level, Level.ALL);
+    }
+
+    public String getMarker() {
+        return marker;
+    }
+
+    /**
+     * Restricts this lane to events that carry (or reference) the marker with the given name.
+     * @param marker the marker name.
+     */
+    public void setMarker(String marker) {
+        this.marker = marker;
+    }
+
+    public boolean isDroppable() {
+        return droppable;
+    }
+
+    /**
+     * A droppable lane does not block if its send buffer is full and silently drops events that could not be
+     * delivered instead of passing them to the fallback appenders.
+     * @param droppable whether events in this lane may be dropped.
+     */
+    public void setDroppable(boolean droppable) {
+        this.droppable = droppable;
+    }
+
+    public DeliveryStrategy getDeliveryStrategy() {
+        return deliveryStrategy;
+    }
+
+    public void setDeliveryStrategy(DeliveryStrategy deliveryStrategy) {
+        this.deliveryStrategy = deliveryStrategy;
+    }
+
+    public void addProducerConfig(String keyValue) {
+        String[] split = keyValue.split("=", 2);
+        if (split.length == 2)
+            producerConfig.put(split[0], split[1]);
+    }
+
+    public Map<String, Object> getProducerConfig() {
+        return producerConfig;
+    }
+
+    @Override
+    public String toString() {
+        return "PriorityLane [name='" + name + "', level=" + level + ", marker=" + marker + ", droppable=" + droppable + "]";
+    }
+}
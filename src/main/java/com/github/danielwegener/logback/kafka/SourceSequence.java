@@ -0,0 +1,56 @@
+package com.github.danielwegener.logback.kafka;
+
+import com.github.danielwegener.logback.kafka.message.KafkaLogMessage;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stamps every record of an appender with a source id and a monotonically increasing sequence number, so consumers can
+ * detect duplicates (retries), restore the order (multiple in-flight requests) and spot lost records per source.
+ * The sequence is a single {@link AtomicLong} increment per record.
+ * @since 0.1.2
+ */
+public class SourceSequence {
+
+    public static final String FIELD_SOURCE_ID = "source_id";
+    public static final String FIELD_SEQUENCE = "seq";
+
+    private final String sourceId;
+    private final AtomicLong sequence = new AtomicLong();
+
+    /**
+     * @param sourceId the id of the source or {@code null} to generate a random one.
+     */
+    public SourceSequence(String sourceId) {
+        this.sourceId = sourceId != null ? sourceId : generateSourceId();
+    }
+
+    /**
+     * @return a random, compact (up to 13 characters) source id.
+     */
+    public static String generateSourceId() {
+        return Long.toString(ThreadLocalRandom.current().nextLong() & Long.MAX_VALUE, Character.MAX_RADIX);
+    }
+
+    /**
+     * Adds the source id and the next sequence number to a record.
+     *
+     * @param message the record
+     */
+    public void stamp(KafkaLogMessage message) {
+        message.addField(FIELD_SOURCE_ID, sourceId);
+        message.addField(FIELD_SEQUENCE, Long.toString(sequence.incrementAndGet()));
+    }
+
+    public String getSourceId() {
+        return sourceId;
+    }
+
+    /**
+     * @return the sequence number of the last stamped record ({@code 0} if none).
+     */
+    public long getSequence() {
+        return sequence.get();
+    }
+}
@@ -0,0 +1,139 @@
+package com.github.danielwegener.logback.kafka.message;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * An immutable snapshot of the switches of a {@link KafkaMessageAssembler} that control the expensive parts of the
+ * message assembly: stack traces, the full MDC, MDC profiling and caller data fields (like {@code SourceClassName}).
+ * Changes create a new snapshot that the assembler swaps in atomically, so assembling a message never reads mutable
+ * shared state.
+ * <p>
+ * A snapshot may carry overrides for loggers. The override of the closest logger in the hierarchy
+ * ({@code com.example.Foo}, then {@code com.example}, then {@code com}) applies to an event.
+ * @since 0.1.2
+ */
+public final class AssemblySettings {
+
+    public static final AssemblySettings DEFAULT = new AssemblySettings(false, false, false, false, true,
+            Collections.<String, AssemblySettings>emptyMap());
+
+    private final boolean extractStackTrace;
+    private final boolean filterStackTrace;
+    private final boolean includeFullMdc;
+    private final boolean mdcProfiling;
+    private final boolean callerData;
+    private final Map<String, AssemblySettings> loggerOverrides;
+
+    private AssemblySettings(boolean extractStackTrace, boolean filterStackTrace, boolean includeFullMdc,
+                             boolean mdcProfiling, boolean callerData, Map<String, AssemblySettings> loggerOverrides) {
+        this.extractStackTrace = extractStackTrace;
+        this.filterStackTrace = filterStackTrace;
+        this.includeFullMdc = includeFullMdc;
+        this.mdcProfiling = mdcProfiling;
+        this.callerData = callerData;
+        this.loggerOverrides = loggerOverrides;
+    }
+
+    /**
+     * @param loggerName the name of the logger of an event
+     * @return the settings that apply to events of the given logger.
+     */
+    public AssemblySettings forLogger(String loggerName) {
+        if (loggerOverrides.isEmpty() || loggerName == null) {
+            return this;
+        }
+        String name = loggerName;
+        while (true) {
+            final AssemblySettings override = loggerOverrides.get(name);
+            if (override != null) {
+                return override;
+            }
+            final int dot = name.lastIndexOf('.');
+            if (dot < 0) {
+                return this;
+            }
+            name = name.substring(0, dot);
+        }
+    }
+
+    public AssemblySettings withExtractStackTrace(boolean extractStackTrace) {
+        return new AssemblySettings(extractStackTrace, filterStackTrace, includeFullMdc, mdcProfiling, callerData, loggerOverrides);
+    }
+
+    public AssemblySettings withFilterStackTrace(boolean filterStackTrace) {
+        return new AssemblySettings(extractStackTrace, filterStackTrace, includeFullMdc, mdcProfiling, callerData, loggerOverrides);
+    }
+
+    public AssemblySettings withIncludeFullMdc(boolean includeFullMdc) {
+        return new AssemblySettings(extractStackTrace, filterStackTrace, includeFullMdc, mdcProfiling, callerData, loggerOverrides);
+    }
+
+    public AssemblySettings withMdcProfiling(boolean mdcProfiling) {
+        return new AssemblySettings(extractStackTrace, filterStackTrace, includeFullMdc, mdcProfiling, callerData, loggerOverrides);
+    }
+
+    public AssemblySettings withCallerData(boolean callerData) {
+        return new AssemblySettings(extractStackTrace, filterStackTrace, includeFullMdc, mdcProfiling, callerData, loggerOverrides);
+    }
+
+    /**
+     * @param loggerName a logger name
+     * @param override the settings for the logger and its descendants (its own overrides are ignored) or {@code null}
+     *                 to remove the override
+     * @return a copy of these settings with the given override.
+     */
+    public AssemblySettings withLoggerOverride(String loggerName, AssemblySettings override) {
+        final Map<String, AssemblySettings> overrides = new LinkedHashMap<String, AssemblySettings>(loggerOverrides);
+        if (override != null) {
+            overrides.put(loggerName, override.withoutLoggerOverrides());
+        } else {
+            overrides.remove(loggerName);
+        }
+        return new AssemblySettings(extractStackTrace, filterStackTrace, includeFullMdc, mdcProfiling, callerData,
+                Collections.unmodifiableMap(overrides));
+    }
+
+    private AssemblySettings withoutLoggerOverrides() {
+        return loggerOverrides.isEmpty() ? this : new AssemblySettings(extractStackTrace, filterStackTrace, includeFullMdc,
+                mdcProfiling, callerData, Collections.<String, AssemblySettings>emptyMap());
+    }
+
+    public boolean isExtractStackTrace() {
+        return extractStackTrace;
+    }
+
+    public boolean isFilterStackTrace() {
+        return filterStackTrace;
+    }
+
+    public boolean isIncludeFullMdc() {
+        return includeFullMdc;
+    }
+
+    public boolean isMdcProfiling() {
+        return mdcProfiling;
+    }
+
+    /**
+     * @return {@code true} if caller data fields ({@code SourceClassName}, {@code SourceSimpleClassName},
+     * {@code SourceMethodName}, {@code SourceLineNumber}) are assembled.
+     */
+    public boolean isCallerData() {
+        return callerData;
+    }
+
+    /**
+     * @return the settings by logger name.
+     */
+    public Map<String, AssemblySettings> getLoggerOverrides() {
+        return loggerOverrides;
+    }
+
+    @Override
+    public String toString() {
+        return "extractStackTrace=" + extractStackTrace + ",filterStackTrace=" + filterStackTrace
+                + ",includeFullMdc=" + includeFullMdc + ",mdcProfiling=" + mdcProfiling + ",callerData=" + callerData;
+    }
+}
@@ -1,5 +1,8 @@
 package com.github.danielwegener.logback.kafka.message;
 
+import java.util.ArrayList;
+import java.util.List;
+
 public class ConfigurationSupport {
     public static final String MULTI_VALUE_DELIMITTER = ",";
     public static final char EQ = '=';
@@ -8,6 +11,25 @@ public class ConfigurationSupport {
 
     }
 
+    /**
+     * Splits a multi-value spec into its trimmed, non-empty values.
+     *
+     * @param spec value, value1, ... (may be {@code null})
+     * @return the values (never {@code null}).
+     */
+    public static String[] splitValues(String spec) {
+        if (null == spec) {
+            return new String[0];
+        }
+        final List<String> values = new ArrayList<String>();
+        for (String value : spec.split(MULTI_VALUE_DELIMITTER)) {
+            if (!value.trim().isEmpty()) {
+                values.add(value.trim());
+            }
+        }
+        return values.toArray(new String[values.size()]);
+    }
+
     /**
      * Set the additional (static) fields.
      *
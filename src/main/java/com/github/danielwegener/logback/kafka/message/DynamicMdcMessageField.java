@@ -1,5 +1,7 @@
 package com.github.danielwegener.logback.kafka.message;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Pattern;
 
 /**
@@ -7,12 +9,60 @@ import java.util.regex.Pattern;
  * @since 28.02.14 09:56
  */
 public class DynamicMdcMessageField implements MessageField {
+
+    private static final int MAX_CACHED_MATCHES = 1024;
+    private static final String REGEX_METACHARACTERS = "\\.[]{}()<>*+-=!?^$|";
+
     private String regex;
     private Pattern pattern;
+    /**
+     * The literal text of a regex like {@code foo.*} (prefix), {@code .*foo} (suffix) or {@code foo} (exact match),
+     * which is matched with plain string checks, or {@code null}.
+     */
+    private String literal;
+    private boolean prefix;
+    private boolean suffix;
+    /**
+     * Match results by MDC name. The MDC names of an application are few and stable, so results of up to
+     * {@value #MAX_CACHED_MATCHES} names are kept.
+     */
+    private final ConcurrentMap<String, Boolean> matches = new ConcurrentHashMap<String, Boolean>();
 
     public DynamicMdcMessageField(String regex) {
         this.regex = regex;
         this.pattern = Pattern.compile(regex);
+        String text = regex;
+        if (text.endsWith(".*") && !text.endsWith("\\.*")) {
+            prefix = true;
+            text = text.substring(0, text.length() - 2);
+        }
+        if (text.startsWith(".*")) {
+            suffix = true;
+            text = text.substring(2);
+        }
+        this.literal = unescapeLiteral(text);
+    }
+
+    /**
+     * @return the text matched by the given regex if it only consists of literal characters (and escaped
+     * metacharacters) or {@code null}.
+     */
+    private static String unescapeLiteral(String regex) {
+        final StringBuilder literal = new StringBuilder(regex.length());
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                if (++i == regex.length() || Character.isLetterOrDigit(regex.charAt(i))) {
+                    // a trailing backslash or a character class like \d
+                    return null;
+                }
+                c = regex.charAt(i);
+            } else if (REGEX_METACHARACTERS.indexOf(c) >= 0) {
+                return null;
+            }
+            literal.append(c);
+        }
+        return literal.toString();
     }
 
     public String getRegex() {
@@ -23,6 +73,34 @@ public class DynamicMdcMessageField implements MessageField {
         return pattern;
     }
 
+    /**
+     * @param mdcName an MDC name
+     * @return {@code true} if the regex matches the entire MDC name.
+     */
+    public boolean matches(String mdcName) {
+        Boolean match = matches.get(mdcName);
+        if (match == null) {
+            match = literal != null ? matchesLiteral(mdcName) : pattern.matcher(mdcName).matches();
+            if (matches.size() < MAX_CACHED_MATCHES) {
+                matches.putIfAbsent(mdcName, match);
+            }
+        }
+        return match;
+    }
+
+    private boolean matchesLiteral(String mdcName) {
+        if (prefix && suffix) {
+            return mdcName.contains(literal);
+        }
+        if (prefix) {
+            return mdcName.startsWith(literal);
+        }
+        if (suffix) {
+            return mdcName.endsWith(literal);
+        }
+        return mdcName.equals(literal);
+    }
+
     @Override
     public String toString() {
         final StringBuffer sb = new StringBuffer();
@@ -36,4 +114,4 @@ public class DynamicMdcMessageField implements MessageField {
     public String getName() {
         return null;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,225 @@
+package com.github.danielwegener.logback.kafka.message;
+
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The JSON types of additional fields. Fields with a declared type (see {@link KafkaLogMessage#FIELD_TYPE_LONG} etc.)
+ * are written as that type. The type of every other field is learned from its first value and written as such from
+ * then on, so the type of a field is stable across events. A learned type is only ever widened: a {@code long} field
+ * becomes a {@code double} field when a decimal value shows up, and any field becomes a string field when a non-numeric
+ * value shows up.
+ * <p>
+ * Numbers are recognized by a scanner that neither allocates nor throws, and are written as primitives. Only plain
+ * decimal numbers (optionally signed, with a fraction and an exponent) are recognized, so values like {@code NaN},
+ * {@code 0x10} or {@code 1d} are strings. The types of up to {@value #MAX_LEARNED_FIELDS} fields are learned; the
+ * values of further fields are scanned every time.
+ * @since 0.1.2
+ */
+public class FieldSchema {
+
+    private static final int MAX_LEARNED_FIELDS = 4096;
+
+    /**
+     * The learned type of a field, from the narrowest to the widest.
+     */
+    public enum Type {
+        LONG, DOUBLE, STRING
+    }
+
+    private final ConcurrentMap<String, Type> learnedTypes = new ConcurrentHashMap<String, Type>();
+
+    /**
+     * @param value the value of a field
+     * @param declaredType the declared type of the field or {@code null}
+     * @return {@code true} if the field is written, {@code false} if it is omitted because the value cannot be
+     * converted to the declared type.
+     */
+    public boolean hasValue(String value, String declaredType) {
+        if (declaredType == null || declaredType.equalsIgnoreCase(KafkaLogMessage.FIELD_TYPE_DISCOVER)
+                || declaredType.equalsIgnoreCase(KafkaLogMessage.FIELD_TYPE_STRING)
+                || declaredType.equals(KafkaLogMessage.FIELD_TYPE_LONG)
+                || declaredType.equals(KafkaLogMessage.FIELD_TYPE_DOUBLE)) {
+            return true;
+        }
+        if (declaredType.equalsIgnoreCase(KafkaLogMessage.FIELD_TYPE_LONG2)
+                || declaredType.equalsIgnoreCase(KafkaLogMessage.FIELD_TYPE_DOUBLE2)) {
+            return scan(value) != Type.STRING;
+        }
+        return false;
+    }
+
+    /**
+     * Writes the value of a field that {@link #hasValue(String, String) has a value}.
+     *
+     * @param writer the writer, positioned after the name of the field
+     * @param name the name of the field
+     * @param value the value
+     * @param declaredType the declared type of the field or {@code null} to use the learned type
+     * @throws IOException if the writer fails
+     */
+    public void write(JsonWriter writer, String name, String value, String declaredType) throws IOException {
+        if (declaredType == null || declaredType.equalsIgnoreCase(KafkaLogMessage.FIELD_TYPE_DISCOVER)) {
+            write(writer, value, learn(name, value));
+        } else if (declaredType.equalsIgnoreCase(KafkaLogMessage.FIELD_TYPE_STRING)) {
+            writer.value(value);
+        } else if (declaredType.equalsIgnoreCase(KafkaLogMessage.FIELD_TYPE_LONG2)) {
+            final Type scanned = scan(value);
+            if (scanned == Type.LONG) {
+                writer.value(parseLong(value));
+            } else {
+                writer.value(scanned == Type.DOUBLE ? (long) Double.parseDouble(value) : 0L);
+            }
+        } else {
+            final Type scanned = scan(value);
+            writeDouble(writer, value, scanned != Type.STRING ? Double.parseDouble(value) : 0d);
+        }
+    }
+
+    private static void write(JsonWriter writer, String value, Type type) throws IOException {
+        if (type == Type.LONG) {
+            writer.value(parseLong(value));
+        } else if (type == Type.DOUBLE) {
+            writeDouble(writer, value, Double.parseDouble(value));
+        } else {
+            writer.value(value);
+        }
+    }
+
+    private static void writeDouble(JsonWriter writer, String value, double number) throws IOException {
+        if (Double.isInfinite(number)) {
+            // out of the range of a double (e.g. 1e999), which is not a valid JSON number
+            writer.value(value);
+        } else {
+            writer.value(number);
+        }
+    }
+
+    /**
+     * @return the type the value is written as, after widening the learned type of the field if necessary.
+     */
+    Type learn(String name, String value) {
+        Type learned = learnedTypes.get(name);
+        if (learned == Type.STRING) {
+            return learned;
+        }
+        final Type scanned = scan(value);
+        while (true) {
+            if (learned == null) {
+                if (learnedTypes.size() >= MAX_LEARNED_FIELDS) {
+                    return scanned;
+                }
+                learned = learnedTypes.putIfAbsent(name, scanned);
+                if (learned == null) {
+                    return scanned;
+                }
+            }
+            if (scanned.compareTo(learned) <= 0) {
+                return learned;
+            }
+            if (learnedTypes.replace(name, learned, scanned)) {
+                return scanned;
+            }
+            learned = learnedTypes.get(name);
+        }
+    }
+
+    /**
+     * @return the learned types by field name.
+     */
+    public Map<String, Type> getLearnedTypes() {
+        return Collections.unmodifiableMap(learnedTypes);
+    }
+
+    /**
+     * @param value a field value
+     * @return {@link Type#LONG} for integers that fit into a {@code long}, {@link Type#DOUBLE} for other finite decimal
+     * numbers and {@link Type#STRING} for everything else.
+     */
+    static Type scan(String value) {
+        final int length = value.length();
+        int i = 0;
+        if (i < length && (value.charAt(i) == '-' || value.charAt(i) == '+')) {
+            i++;
+        }
+        final int integerStart = i;
+        while (i < length && isDigit(value.charAt(i))) {
+            i++;
+        }
+        final int integerDigits = i - integerStart;
+        if (i == length) {
+            if (integerDigits == 0) {
+                return Type.STRING;
+            }
+            return fitsLong(value, integerStart) ? Type.LONG : Type.DOUBLE;
+        }
+        int fractionDigits = 0;
+        if (value.charAt(i) == '.') {
+            i++;
+            final int fractionStart = i;
+            while (i < length && isDigit(value.charAt(i))) {
+                i++;
+            }
+            fractionDigits = i - fractionStart;
+        }
+        if (integerDigits == 0 && fractionDigits == 0) {
+            return Type.STRING;
+        }
+        if (i < length && (value.charAt(i) == 'e' || value.charAt(i) == 'E')) {
+            i++;
+            if (i < length && (value.charAt(i) == '-' || value.charAt(i) == '+')) {
+                i++;
+            }
+            final int exponentStart = i;
+            while (i < length && isDigit(value.charAt(i))) {
+                i++;
+            }
+            if (i == exponentStart) {
+                return Type.STRING;
+            }
+        }
+        return i == length ? Type.DOUBLE : Type.STRING;
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    private static boolean fitsLong(String value, int digitsStart) {
+        final int digits = value.length() - digitsStart;
+        if (digits < 19) {
+            return true;
+        }
+        if (digits > 19) {
+            return false;
+        }
+        final String limit = value.charAt(0) == '-' ? "9223372036854775808" : "9223372036854775807";
+        for (int i = 0; i < digits; i++) {
+            final char c = value.charAt(digitsStart + i);
+            if (c != limit.charAt(i)) {
+                return c < limit.charAt(i);
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @param value a value {@link #scan(String) scanned} as {@link Type#LONG}
+     * @return the value.
+     */
+    static long parseLong(String value) {
+        final boolean negative = value.charAt(0) == '-';
+        int i = negative || value.charAt(0) == '+' ? 1 : 0;
+        long result = 0L;
+        for (; i < value.length(); i++) {
+            // accumulate negatively so Long.MIN_VALUE does not overflow
+            result = result * 10 - (value.charAt(i) - '0');
+        }
+        return negative ? result : -result;
+    }
+}
@@ -1,12 +1,15 @@
 package com.github.danielwegener.logback.kafka.message;
 
 import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.math.BigDecimal;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.zip.GZIPOutputStream;
 
@@ -70,6 +73,10 @@ public class KafkaLogMessage {
     private String facility = DEFAULT_FACILITY;
     private Map<String, String> additonalFields = new HashMap<String, String>();
     private Map<String, String> additionalFieldTypes = new HashMap<String, String>();
+    private Map<String, Object> structuredFields = null;
+    private MdcFragment mdcFragment = null;
+    private FieldSchema fieldSchema = null;
+    private StaticEnvelope staticEnvelope = null;
     Gson gson = new Gson();
 
 
@@ -85,43 +92,232 @@ public class KafkaLogMessage {
 
 
     public String toJson(String additionalFieldPrefix) {
+        if (fieldSchema != null) {
+            return toTypedJson(additionalFieldPrefix);
+        }
         Map<String, Object> map = new HashMap<String, Object>();
+        // the pre-rendered MDC fragment is spliced in as is unless the field names need a prefix
+        final boolean spliceMdc = mdcFragment != null && additionalFieldPrefix.isEmpty();
 
         if (!isEmpty(shortMessage)) {
-            map.put(FIELD_SHORT_MESSAGE, getShortMessage());
+            putStandardField(map, spliceMdc, FIELD_SHORT_MESSAGE, getShortMessage());
         }
 
         if (!isEmpty(getFullMessage())) {
-            map.put(FIELD_FULL_MESSAGE, getFullMessage());
+            putStandardField(map, spliceMdc, FIELD_FULL_MESSAGE, getFullMessage());
         }
 
         if (getJavaTimestamp() != 0) {
-            map.put(FIELD_TIMESTAMP, getTimestamp());
+            putStandardField(map, spliceMdc, FIELD_TIMESTAMP, getTimestamp());
         }
 
         if (!isEmpty(getLevel())) {
-            map.put(FIELD_LEVEL, getLevel());
+            putStandardField(map, spliceMdc, FIELD_LEVEL, getLevel());
+        }
+
+        final boolean spliceEnvelope = canSpliceEnvelope(additionalFieldPrefix);
+        if (!spliceEnvelope && !isEmpty(getFacility())) {
+            putStandardField(map, spliceMdc, FIELD_FACILITY, getFacility());
         }
 
-        if (!isEmpty(getFacility())) {
-            map.put(FIELD_FACILITY, getFacility());
+        if (staticEnvelope != null && !spliceEnvelope) {
+            for (Map.Entry<String, String> staticField : staticEnvelope.getFields().entrySet()) {
+                if (!spliceMdc || !isMdcField(staticField.getKey())) {
+                    putAdditionalField(map, additionalFieldPrefix, staticField.getKey(), staticField.getValue());
+                }
+            }
+        }
+        if (mdcFragment != null && !spliceMdc) {
+            for (Map.Entry<String, String> mdcField : mdcFragment.getFields().entrySet()) {
+                putAdditionalField(map, additionalFieldPrefix, mdcField.getKey(), mdcField.getValue());
+            }
         }
 
         for (Map.Entry<String, String> additionalField : additonalFields.entrySet()) {
-            if (!ID_NAME.equals(additionalField.getKey()) && additionalField.getValue() != null) {
-                String value = additionalField.getValue();
-                String fieldType = additionalFieldTypes.get(additionalField.getKey());
-                if (fieldType == null) {
-                    fieldType = FIELD_TYPE_DEFAULT;
+            if (isMdcField(additionalField.getKey())) {
+                continue;
+            }
+            putAdditionalField(map, additionalFieldPrefix, additionalField.getKey(), additionalField.getValue());
+        }
+
+        if (structuredFields != null) {
+            for (Map.Entry<String, Object> structuredField : structuredFields.entrySet()) {
+                if (isMdcField(structuredField.getKey())) {
+                    continue;
                 }
-                Object result = getAdditionalFieldValue(value, fieldType);
-                if (result != null) {
-                    map.put(additionalFieldPrefix + additionalField.getKey(), result);
+                map.put(additionalFieldPrefix + structuredField.getKey(), structuredField.getValue());
+            }
+        }
+
+        return splice(gson.toJson(map), spliceMdc, spliceEnvelope);
+    }
+
+    /**
+     * Writes the message with a {@link JsonWriter}, typing additional fields by the {@link FieldSchema}.
+     */
+    private String toTypedJson(String additionalFieldPrefix) {
+        final boolean spliceEnvelope = canSpliceEnvelope(additionalFieldPrefix);
+        final boolean spliceMdc = mdcFragment != null && additionalFieldPrefix.isEmpty();
+        final StringWriter out = new StringWriter();
+        try {
+            final JsonWriter writer = gson.newJsonWriter(out);
+            // like Gson#toJson
+            writer.setHtmlSafe(true);
+            writer.beginObject();
+
+            if (!isEmpty(shortMessage)) {
+                writeStandardField(writer, additionalFieldPrefix, FIELD_SHORT_MESSAGE, getShortMessage());
+            }
+            if (!isEmpty(getFullMessage())) {
+                writeStandardField(writer, additionalFieldPrefix, FIELD_FULL_MESSAGE, getFullMessage());
+            }
+            if (getJavaTimestamp() != 0) {
+                writeStandardField(writer, additionalFieldPrefix, FIELD_TIMESTAMP, getTimestamp());
+            }
+            if (!isEmpty(getLevel())) {
+                writeStandardField(writer, additionalFieldPrefix, FIELD_LEVEL, getLevel());
+            }
+            if (!spliceEnvelope && !isEmpty(getFacility())) {
+                writeStandardField(writer, additionalFieldPrefix, FIELD_FACILITY, getFacility());
+            }
+
+            if (staticEnvelope != null && !spliceEnvelope) {
+                for (Map.Entry<String, String> staticField : staticEnvelope.getFields().entrySet()) {
+                    if (!additonalFields.containsKey(staticField.getKey()) && !isMdcField(staticField.getKey())
+                            && (structuredFields == null || !structuredFields.containsKey(staticField.getKey()))) {
+                        writeAdditionalField(writer, additionalFieldPrefix, staticField.getKey(), staticField.getValue());
+                    }
+                }
+            }
+            if (mdcFragment != null && !spliceMdc) {
+                for (Map.Entry<String, String> mdcField : mdcFragment.getFields().entrySet()) {
+                    writeAdditionalField(writer, additionalFieldPrefix, mdcField.getKey(), mdcField.getValue());
                 }
             }
+
+            for (Map.Entry<String, String> additionalField : additonalFields.entrySet()) {
+                if (isMdcField(additionalField.getKey())
+                        || (structuredFields != null && structuredFields.containsKey(additionalField.getKey()))) {
+                    continue;
+                }
+                writeAdditionalField(writer, additionalFieldPrefix, additionalField.getKey(), additionalField.getValue());
+            }
+
+            if (structuredFields != null) {
+                for (Map.Entry<String, Object> structuredField : structuredFields.entrySet()) {
+                    if (isMdcField(structuredField.getKey())) {
+                        continue;
+                    }
+                    final Object value = structuredField.getValue();
+                    writer.name(additionalFieldPrefix + structuredField.getKey());
+                    if (value == null) {
+                        writer.nullValue();
+                    } else {
+                        gson.toJson(value, value.getClass(), writer);
+                    }
+                }
+            }
+
+            writer.endObject();
+            writer.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot write message", e);
+        }
+        return splice(out.toString(), spliceMdc, spliceEnvelope);
+    }
+
+    private void writeStandardField(JsonWriter writer, String additionalFieldPrefix, String name, String value) throws IOException {
+        // additional fields of the same name replace standard fields
+        if (additionalFieldPrefix.isEmpty() && (additonalFields.containsKey(name) || isMdcField(name)
+                || (structuredFields != null && structuredFields.containsKey(name))
+                || (staticEnvelope != null && staticEnvelope.getFields().containsKey(name)))) {
+            return;
+        }
+        writer.name(name).value(value);
+    }
+
+    private void writeAdditionalField(JsonWriter writer, String additionalFieldPrefix, String key, String value) throws IOException {
+        if (!ID_NAME.equals(key) && value != null) {
+            final String fieldType = additionalFieldTypes.get(key);
+            if (fieldSchema.hasValue(value, fieldType)) {
+                writer.name(additionalFieldPrefix + key);
+                fieldSchema.write(writer, key, value, fieldType);
+            }
+        }
+    }
+
+    private boolean isMdcField(String key) {
+        return mdcFragment != null && mdcFragment.getFields().containsKey(key);
+    }
+
+    /**
+     * @return {@code true} if the static envelope can be spliced in as is, i.e. no field of the message replaces one
+     * of its fields or the facility and the message has the facility of the envelope.
+     */
+    private boolean canSpliceEnvelope(String additionalFieldPrefix) {
+        if (staticEnvelope == null || !additionalFieldPrefix.isEmpty() || staticEnvelope.isOverridesStandardFields()
+                || !staticEnvelope.getFacility().equals(facility) || isMessageField(FIELD_FACILITY)) {
+            return false;
+        }
+        for (String name : staticEnvelope.getFields().keySet()) {
+            if (isMessageField(name)) {
+                return false;
+            }
         }
+        return true;
+    }
 
-        return gson.toJson(map);
+    /**
+     * @return {@code true} if an additional, structured or MDC field of this message has the given name.
+     */
+    private boolean isMessageField(String name) {
+        return additonalFields.containsKey(name) || isMdcField(name)
+                || (structuredFields != null && structuredFields.containsKey(name));
+    }
+
+    /**
+     * @param json a JSON object
+     * @return the object with the members of the MDC fragment and the static envelope.
+     */
+    private String splice(String json, boolean spliceMdc, boolean spliceEnvelope) {
+        final String mdcMembers = spliceMdc ? mdcFragment.getJson() : "";
+        final String envelopeMembers = spliceEnvelope ? staticEnvelope.getJson() : "";
+        if (mdcMembers.isEmpty() && envelopeMembers.isEmpty()) {
+            return json;
+        }
+        final StringBuilder spliced = new StringBuilder(json.length() + mdcMembers.length() + envelopeMembers.length() + 2);
+        spliced.append(json, 0, json.length() - 1);
+        boolean empty = json.length() == 2;
+        for (String members : new String[]{mdcMembers, envelopeMembers}) {
+            if (!members.isEmpty()) {
+                if (!empty) {
+                    spliced.append(',');
+                }
+                spliced.append(members);
+                empty = false;
+            }
+        }
+        return spliced.append('}').toString();
+    }
+
+    private void putStandardField(Map<String, Object> map, boolean spliceMdc, String name, Object value) {
+        // MDC fields of the same name replace standard fields
+        if (!spliceMdc || !isMdcField(name)) {
+            map.put(name, value);
+        }
+    }
+
+    private void putAdditionalField(Map<String, Object> map, String additionalFieldPrefix, String key, String value) {
+        if (!ID_NAME.equals(key) && value != null) {
+            String fieldType = additionalFieldTypes.get(key);
+            if (fieldType == null) {
+                fieldType = FIELD_TYPE_DEFAULT;
+            }
+            Object result = getAdditionalFieldValue(value, fieldType);
+            if (result != null) {
+                map.put(additionalFieldPrefix + key, result);
+            }
+        }
     }
 
     /**
@@ -132,6 +328,10 @@ public class KafkaLogMessage {
      * @return the field value in the appropriate data type or {@literal null}.
      */
     protected Object getAdditionalFieldValue(String value, String fieldType) {
+        return typedValue(value, fieldType);
+    }
+
+    static Object typedValue(String value, String fieldType) {
 
         Object result = null;
         if (fieldType.equalsIgnoreCase(FIELD_TYPE_DISCOVER)) {
@@ -289,6 +489,25 @@ public class KafkaLogMessage {
         return this;
     }
 
+    /**
+     * Add a field that is serialized as a JSON structure (e.g. a list of maps) instead of a typed string value.
+     *
+     * @param key   the key
+     * @param value the value (collections, maps, strings, numbers and booleans)
+     * @return the current KafkaLogMessage.
+     */
+    public KafkaLogMessage addStructuredField(String key, Object value) {
+        if (structuredFields == null) {
+            structuredFields = new LinkedHashMap<String, Object>();
+        }
+        structuredFields.put(key, value);
+        return this;
+    }
+
+    public Object getStructuredField(String fieldName) {
+        return structuredFields != null ? structuredFields.get(fieldName) : null;
+    }
+
     public Map<String, String> getAdditonalFields() {
         return additonalFields;
     }
@@ -311,7 +530,60 @@ public class KafkaLogMessage {
         return result;
     }
 
+    /**
+     * @return the MDC fields of this message that are rendered once per MDC map or {@code null}.
+     */
+    public MdcFragment getMdcFragment() {
+        return mdcFragment;
+    }
+
+    /**
+     * Sets the MDC fields of this message. MDC fields take precedence over additional fields of the same name.
+     *
+     * @param mdcFragment the MDC fields or {@code null}
+     */
+    public void setMdcFragment(MdcFragment mdcFragment) {
+        this.mdcFragment = mdcFragment;
+    }
+
+    /**
+     * @return the schema that types additional fields or {@code null} if the type of every value is discovered.
+     */
+    public FieldSchema getFieldSchema() {
+        return fieldSchema;
+    }
+
+    /**
+     * @param fieldSchema the schema that types additional fields or {@code null} to discover the type of every value
+     */
+    public void setFieldSchema(FieldSchema fieldSchema) {
+        this.fieldSchema = fieldSchema;
+    }
+
+    /**
+     * @return the facility, static fields and environment fields of this message that are rendered once or
+     * {@code null}.
+     */
+    public StaticEnvelope getStaticEnvelope() {
+        return staticEnvelope;
+    }
+
+    /**
+     * Sets the static fields of this message. Other fields of the same name take precedence over static fields.
+     *
+     * @param staticEnvelope the static fields or {@code null}
+     */
+    public void setStaticEnvelope(StaticEnvelope staticEnvelope) {
+        this.staticEnvelope = staticEnvelope;
+    }
+
     public String getField(String fieldName) {
+        if (mdcFragment != null && mdcFragment.getFields().containsKey(fieldName)) {
+            return mdcFragment.getFields().get(fieldName);
+        }
+        if (staticEnvelope != null && !getAdditonalFields().containsKey(fieldName)) {
+            return staticEnvelope.getFields().get(fieldName);
+        }
         return getAdditonalFields().get(fieldName);
     }
 
@@ -332,6 +604,10 @@ public class KafkaLogMessage {
         if (additonalFields != null ? !additonalFields.equals(that.additonalFields) : that.additonalFields != null) {
             return false;
         }
+        if (mdcFragment != null ? that.mdcFragment == null || !mdcFragment.getFields().equals(that.mdcFragment.getFields())
+                : that.mdcFragment != null) {
+            return false;
+        }
         if (facility != null ? !facility.equals(that.facility) : that.facility != null) {
             return false;
         }
@@ -360,6 +636,7 @@ public class KafkaLogMessage {
         result = 31 * result + (level != null ? level.hashCode() : 0);
         result = 31 * result + (facility != null ? facility.hashCode() : 0);
         result = 31 * result + (additonalFields != null ? additonalFields.hashCode() : 0);
+        result = 31 * result + (mdcFragment != null ? mdcFragment.getFields().hashCode() : 0);
         return result;
     }
 }
@@ -15,6 +15,7 @@ public class KafkaLogMessageBuilder {
     private String facility = KafkaLogMessage.DEFAULT_FACILITY;
     private Map<String, String> additonalFields = new HashMap<String, String>();
     private Map<String, String> additionalFieldTypes = new HashMap<String, String>();
+    private FieldSchema fieldSchema = null;
 
     private KafkaLogMessageBuilder() {
 
@@ -118,6 +119,17 @@ public class KafkaLogMessageBuilder {
         return this;
     }
 
+    /**
+     * Set the schema that types additional fields
+     *
+     * @param fieldSchema the schema or {@code null} to discover the type of every value
+     * @return KafkaMessageBuilder
+     */
+    public KafkaLogMessageBuilder withFieldSchema(FieldSchema fieldSchema) {
+        this.fieldSchema = fieldSchema;
+        return this;
+    }
+
     /**
      * Build a new Gelf message based on the builder settings.
      *
@@ -131,6 +143,7 @@ public class KafkaLogMessageBuilder {
         gelfMessage.setFacility(facility);
         gelfMessage.setFacility(facility);
         gelfMessage.setAdditionalFieldTypes(additionalFieldTypes);
+        gelfMessage.setFieldSchema(fieldSchema);
 
         return gelfMessage;
     }
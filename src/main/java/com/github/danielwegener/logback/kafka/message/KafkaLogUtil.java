@@ -1,8 +1,10 @@
 package com.github.danielwegener.logback.kafka.message;
 
-import java.util.Date;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * @author Mark Paluch
@@ -26,62 +28,122 @@ public class KafkaLogUtil {
 
     public static final String MDC_REQUEST_DURATION_MILLIS = "profiling.requestDuration.millis";
 
+    private static final int MAX_CACHED_CLASS_NAMES = 4096;
+    private static final ConcurrentMap<String, String> SIMPLE_CLASS_NAMES = new ConcurrentHashMap<String, String>();
+
     private KafkaLogUtil() {
     }
 
+    /**
+     * Adds the request duration up to the given event (by the event timestamp) and the request end (epoch
+     * milliseconds) if the event carries a request start in its MDC.
+     *
+     * @param logEvent        the log event
+     * @param kafkaLogMessage the message to add the profiling fields to
+     */
     public static void addMdcProfiling(LogEvent logEvent, KafkaLogMessage kafkaLogMessage) {
 
-        String requestStartMs = logEvent.getMdcValue(MDC_REQUEST_START_MS);
-        long timestamp;
-
-        if (requestStartMs != null && !requestStartMs.isEmpty()) {
-            timestamp = Long.parseLong(requestStartMs);
-        } else {
+        long durationMs = getRequestDuration(logEvent.getMdcValue(MDC_REQUEST_START_MS), logEvent.getLogTimestamp());
+        if (durationMs < 0) {
             return;
         }
 
-        if (timestamp > 0) {
-            long now = System.currentTimeMillis();
-            long durationMs = now - timestamp;
+        String durationText;
 
-            String durationText;
+        if (durationMs > 10000) {
+            long durationSec = durationMs / 1000;
+            durationText = durationSec + "sec";
+        } else {
+            durationText = durationMs + "ms";
+        }
+        kafkaLogMessage.addField(MDC_REQUEST_DURATION, durationText);
+        kafkaLogMessage.addField(MDC_REQUEST_DURATION_MILLIS, Long.toString(durationMs));
+        kafkaLogMessage.addField(MDC_REQUEST_END, Long.toString(logEvent.getLogTimestamp()));
+    }
 
-            if (durationMs > 10000) {
-                long durationSec = durationMs / 1000;
-                durationText = durationSec + "sec";
-            } else {
-                durationText = durationMs + "ms";
+    /**
+     * @param requestStartMs the request start (epoch milliseconds) as found in the MDC or {@code null}
+     * @param timestamp      the timestamp of the log event
+     * @return the request duration in milliseconds or {@code -1} if there is no valid request start.
+     */
+    public static long getRequestDuration(String requestStartMs, long timestamp) {
+        long requestStart = parseLong(requestStartMs, 0L);
+        if (requestStart <= 0) {
+            return -1L;
+        }
+        return Math.max(0L, timestamp - requestStart);
+    }
+
+    /**
+     * Parses a decimal number without throwing. A fractional part is truncated.
+     *
+     * @param value        the value, e.g. {@code 42}, {@code -7} or {@code 12.5}
+     * @param defaultValue the value to return if {@code value} is not a number
+     * @return the parsed value or {@code defaultValue}.
+     */
+    public static long parseLong(String value, long defaultValue) {
+        if (value == null || value.isEmpty()) {
+            return defaultValue;
+        }
+        final int length = value.length();
+        final boolean negative = value.charAt(0) == '-';
+        int i = negative || value.charAt(0) == '+' ? 1 : 0;
+        if (i == length) {
+            return defaultValue;
+        }
+        long result = 0;
+        for (; i < length; i++) {
+            final char c = value.charAt(i);
+            if (c == '.' && i + 1 < length) {
+                for (int j = i + 1; j < length; j++) {
+                    if (value.charAt(j) < '0' || value.charAt(j) > '9') {
+                        return defaultValue;
+                    }
+                }
+                break;
+            }
+            if (c < '0' || c > '9' || result > (Long.MAX_VALUE - (c - '0')) / 10) {
+                return defaultValue;
             }
-            kafkaLogMessage.addField(MDC_REQUEST_DURATION, durationText);
-            kafkaLogMessage.addField(MDC_REQUEST_DURATION_MILLIS, "" + durationMs);
-            kafkaLogMessage.addField(MDC_REQUEST_END, new Date(now).toString());
+            result = result * 10 + (c - '0');
         }
+        return negative ? -result : result;
     }
 
+    /**
+     * @param className a fully qualified class name or {@code null}
+     * @return the class name without its package. The simple names of up to {@value #MAX_CACHED_CLASS_NAMES} classes
+     * are cached.
+     */
     public static String getSimpleClassName(String className) {
 
         if (className == null) {
             return null;
         }
 
-        int index = className.lastIndexOf('.');
-        if (index != -1) {
-            return className.substring(index + 1);
+        String simpleClassName = SIMPLE_CLASS_NAMES.get(className);
+        if (simpleClassName == null) {
+            int index = className.lastIndexOf('.');
+            simpleClassName = index != -1 ? className.substring(index + 1) : className;
+            if (SIMPLE_CLASS_NAMES.size() < MAX_CACHED_CLASS_NAMES) {
+                SIMPLE_CLASS_NAMES.putIfAbsent(className, simpleClassName);
+            }
         }
-        return className;
+        return simpleClassName;
     }
 
     public static Set<String> getMatchingMdcNames(DynamicMdcMessageField field, Set<String> mdcNames) {
-        Set<String> matchingMdcNames = new HashSet<String>();
+        Set<String> matchingMdcNames = null;
 
         for (String mdcName : mdcNames) {
-            if (field.getPattern().matcher(mdcName).matches()) {
-
+            if (mdcName != null && field.matches(mdcName)) {
+                if (matchingMdcNames == null) {
+                    matchingMdcNames = new HashSet<String>();
+                }
                 matchingMdcNames.add(mdcName);
-
             }
         }
-        return matchingMdcNames;
+        return matchingMdcNames != null ? matchingMdcNames : Collections.<String>emptySet();
     }
 
 }
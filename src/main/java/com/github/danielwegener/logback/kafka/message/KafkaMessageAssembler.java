@@ -4,6 +4,7 @@ import java.io.PrintWriter;
 import java.io.StringWriter;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.function.LongConsumer;
 
 /**
  * Created by opetridean on 11/10/16.
@@ -13,19 +14,27 @@ public class KafkaMessageAssembler {
     public static final String FIELD_STACK_TRACE = "StackTrace";
 
     private String facility;
-    private boolean extractStackTrace;
-    private boolean filterStackTrace;
+    private volatile AssemblySettings settings = AssemblySettings.DEFAULT;
 
     private List<MessageField> fields = new ArrayList<MessageField>();
     private Map<String, String> additionalFieldTypes = new HashMap<String, String>();
+    /**
+     * Incremented whenever the fields or field types change, which invalidates the cached MDC fragments.
+     */
+    private volatile int fieldsVersion = 0;
+    private FieldSchema fieldSchema = null;
+    private Map<String, String> environmentFields = Collections.emptyMap();
+    private volatile StaticEnvelope staticEnvelope = null;
+    private final ThreadLocal<MdcFragment> mdcFragments = new ThreadLocal<MdcFragment>();
 
     private String timestampPattern = "yyyy-MM-dd HH:mm:ss,SSSS";
+    private LongConsumer stackTraceTimer = null;
 
 
     public void initialize(PropertyProvider propertyProvider) {
 
-        extractStackTrace = "true".equalsIgnoreCase(propertyProvider.getProperty(PropertyProvider.PROPERTY_EXTRACT_STACKTRACE));
-        filterStackTrace = "true".equalsIgnoreCase(propertyProvider.getProperty(PropertyProvider.PROPERTY_FILTER_STACK_TRACE));
+        setExtractStackTrace("true".equalsIgnoreCase(propertyProvider.getProperty(PropertyProvider.PROPERTY_EXTRACT_STACKTRACE)));
+        setFilterStackTrace("true".equalsIgnoreCase(propertyProvider.getProperty(PropertyProvider.PROPERTY_FILTER_STACK_TRACE)));
 
         setupStaticFields(propertyProvider);
         setupAdditionalFieldTypes(propertyProvider);
@@ -33,6 +42,15 @@ public class KafkaMessageAssembler {
     }
 
     public KafkaLogMessage createGelfMessage(LogEvent logEvent) {
+        return createGelfMessage(logEvent, settings);
+    }
+
+    /**
+     * @param logEvent the event
+     * @param settings the settings that apply to the event (see {@link AssemblySettings#forLogger(String)})
+     * @return the assembled message.
+     */
+    public KafkaLogMessage createGelfMessage(LogEvent logEvent, AssemblySettings settings) {
 
         KafkaLogMessageBuilder builder = KafkaLogMessageBuilder.newInstance();
 
@@ -46,8 +64,22 @@ public class KafkaMessageAssembler {
         builder.withFullMessage(message).withJavaTimestamp(logEvent.getLogTimestamp());
         builder.withLevel(logEvent.getSyslogLevel());
         builder.withAdditionalFieldTypes(additionalFieldTypes);
+        builder.withFieldSchema(fieldSchema);
+
+        final MdcFragment mdcFragment = getMdcFragment(logEvent, settings);
+        final StaticEnvelope envelope = getStaticEnvelope();
 
         for (MessageField field : fields) {
+            if (!settings.isCallerData() && field instanceof LogMessageField && ((LogMessageField) field).isCallerData()) {
+                continue;
+            }
+            if (mdcFragment != null && (field instanceof MdcMessageField || field instanceof DynamicMdcMessageField)) {
+                continue;
+            }
+            if (field instanceof StaticMessageField) {
+                // part of the static envelope
+                continue;
+            }
             Values values = getValues(logEvent, field);
             if (values == null || !values.hasValues()) {
                 continue;
@@ -63,8 +95,13 @@ public class KafkaMessageAssembler {
             }
         }
 
-        if (extractStackTrace && throwable != null) {
-            addStackTrace(throwable, builder);
+        if (settings.isExtractStackTrace() && throwable != null) {
+            final LongConsumer timer = stackTraceTimer;
+            final long start = timer != null ? System.nanoTime() : 0L;
+            addStackTrace(throwable, settings.isFilterStackTrace(), builder);
+            if (timer != null) {
+                timer.accept(System.nanoTime() - start);
+            }
         }
 
         if (logEvent.getParameters() != null) {
@@ -74,18 +111,46 @@ public class KafkaMessageAssembler {
             }
         }
 
-        if (null != facility) {
-            builder.withFacility(facility);
-        }
+        builder.withFacility(envelope.getFacility());
 
-        return builder.build();
+        final KafkaLogMessage gelfMessage = builder.build();
+        gelfMessage.setMdcFragment(mdcFragment);
+        gelfMessage.setStaticEnvelope(envelope);
+        return gelfMessage;
     }
 
-    private Values getValues(LogEvent logEvent, MessageField field) {
+    /**
+     * @return the static fields, rendered once per configuration.
+     */
+    private StaticEnvelope getStaticEnvelope() {
+        final int version = fieldsVersion;
+        StaticEnvelope envelope = staticEnvelope;
+        if (envelope == null || envelope.getFieldsVersion() != version) {
+            envelope = StaticEnvelope.create(facility, fields, environmentFields, additionalFieldTypes, fieldSchema, version);
+            staticEnvelope = envelope;
+        }
+        return envelope;
+    }
 
-        if (field instanceof StaticMessageField) {
-            return new Values(field.getName(), getValue((StaticMessageField) field));
+    /**
+     * @return the MDC fields of the event, reused from the previous event of the current thread if it had the same
+     * MDC map, or {@code null} if the event does not expose its MDC map.
+     */
+    private MdcFragment getMdcFragment(LogEvent logEvent, AssemblySettings settings) {
+        final Map<String, String> mdc = logEvent.getMdcMap();
+        if (mdc == null) {
+            return null;
+        }
+        final int version = fieldsVersion;
+        MdcFragment mdcFragment = mdcFragments.get();
+        if (mdcFragment == null || !mdcFragment.isFor(mdc, settings, version)) {
+            mdcFragment = MdcFragment.create(mdc, settings, fields, additionalFieldTypes, fieldSchema, version);
+            mdcFragments.set(mdcFragment);
         }
+        return mdcFragment;
+    }
+
+    private Values getValues(LogEvent logEvent, MessageField field) {
 
         if (field instanceof LogMessageField) {
             LogMessageField logMessageField = (LogMessageField) field;
@@ -98,11 +163,7 @@ public class KafkaMessageAssembler {
         return logEvent.getValues(field);
     }
 
-    private String getValue(StaticMessageField field) {
-        return field.getValue();
-    }
-
-    private void addStackTrace(Throwable thrown, KafkaLogMessageBuilder builder) {
+    private void addStackTrace(Throwable thrown, boolean filterStackTrace, KafkaLogMessageBuilder builder) {
         if (filterStackTrace) {
             builder.withField(FIELD_STACK_TRACE, StackTraceFilter.getFilteredStackTrace(thrown));
         } else {
@@ -151,16 +212,32 @@ public class KafkaMessageAssembler {
 
     public void setAdditionalFieldType(String field, String type) {
         additionalFieldTypes.put(field, type);
+        fieldsVersion++;
     }
 
     public void addField(MessageField field) {
         if (!fields.contains(field)) {
             this.fields.add(field);
+            fieldsVersion++;
         }
     }
 
     public void addFields(Collection<? extends MessageField> fields) {
         this.fields.addAll(fields);
+        fieldsVersion++;
+    }
+
+    public FieldSchema getFieldSchema() {
+        return fieldSchema;
+    }
+
+    /**
+     * @param fieldSchema the schema that types additional fields or {@code null} to discover the type of every value
+     *                    (default).
+     */
+    public void setFieldSchema(FieldSchema fieldSchema) {
+        this.fieldSchema = fieldSchema;
+        fieldsVersion++;
     }
 
     public String getFacility() {
@@ -169,22 +246,70 @@ public class KafkaMessageAssembler {
 
     public void setFacility(String facility) {
         this.facility = facility;
+        fieldsVersion++;
+    }
+
+    public Map<String, String> getEnvironmentFields() {
+        return environmentFields;
+    }
+
+    /**
+     * @param environmentFields fields that describe the environment (see {@link StaticEnvelope#environmentFields()}),
+     *                          overridden by static fields of the same name.
+     */
+    public void setEnvironmentFields(Map<String, String> environmentFields) {
+        this.environmentFields = environmentFields;
+        fieldsVersion++;
+    }
+
+    /**
+     * @param stackTraceTimer receives the time in nanoseconds it took to render a stack trace or {@code null}.
+     */
+    public void setStackTraceTimer(LongConsumer stackTraceTimer) {
+        this.stackTraceTimer = stackTraceTimer;
+    }
+
+    /**
+     * @return the current settings snapshot.
+     */
+    public AssemblySettings getSettings() {
+        return settings;
+    }
+
+    /**
+     * Atomically replaces the settings snapshot. Messages that are being assembled keep using the previous snapshot.
+     *
+     * @param settings the new settings.
+     */
+    public void setSettings(AssemblySettings settings) {
+        this.settings = settings;
     }
 
     public boolean isExtractStackTrace() {
-        return extractStackTrace;
+        return settings.isExtractStackTrace();
     }
 
-    public void setExtractStackTrace(boolean extractStackTrace) {
-        this.extractStackTrace = extractStackTrace;
+    public synchronized void setExtractStackTrace(boolean extractStackTrace) {
+        this.settings = settings.withExtractStackTrace(extractStackTrace);
     }
 
     public boolean isFilterStackTrace() {
-        return filterStackTrace;
+        return settings.isFilterStackTrace();
+    }
+
+    public synchronized void setFilterStackTrace(boolean filterStackTrace) {
+        this.settings = settings.withFilterStackTrace(filterStackTrace);
+    }
+
+    public boolean isCallerData() {
+        return settings.isCallerData();
     }
 
-    public void setFilterStackTrace(boolean filterStackTrace) {
-        this.filterStackTrace = filterStackTrace;
+    /**
+     * @param callerData whether caller data fields (like {@code SourceClassName}) are assembled (default: {@code true}).
+     */
+    public synchronized void setCallerData(boolean callerData) {
+        this.settings = settings.withCallerData(callerData);
     }
 
     public String getTimestampPattern() {
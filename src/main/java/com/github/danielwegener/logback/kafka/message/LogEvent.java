@@ -1,5 +1,6 @@
 package com.github.danielwegener.logback.kafka.message;
 
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -61,5 +62,14 @@ public interface LogEvent {
      * @return list of MDC entry names.
      */
     Set<String> getMdcNames();
-}
 
+    /**
+     *
+     * @return the MDC map of the event or {@code null} if not available. The map must not be modified after the event
+     * was created, so messages can reuse the MDC fields rendered for the same map instance.
+     * @since 0.1.2
+     */
+    default Map<String, String> getMdcMap() {
+        return null;
+    }
+}
@@ -54,6 +54,14 @@ public class LogMessageField implements MessageField {
         return namedLogField;
     }
 
+    /**
+     * @return {@code true} if the field needs the caller data of the event, which is expensive to compute.
+     */
+    public boolean isCallerData() {
+        return namedLogField == NamedLogField.SourceClassName || namedLogField == NamedLogField.SourceSimpleClassName
+                || namedLogField == NamedLogField.SourceMethodName || namedLogField == NamedLogField.SourceLineNumber;
+    }
+
     @Override
     public String getName() {
         return name;
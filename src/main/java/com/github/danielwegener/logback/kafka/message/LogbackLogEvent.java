@@ -5,7 +5,7 @@ import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.classic.spi.IThrowableProxy;
 import ch.qos.logback.classic.spi.ThrowableProxy;
 
-import java.util.HashSet;
+import java.util.Collections;
 import java.util.Map;
 import java.util.Set;
 
@@ -16,6 +16,12 @@ import java.util.Set;
 public class LogbackLogEvent implements LogEvent {
 
     private ILoggingEvent loggingEvent;
+    /**
+     * The caller of the log statement, resolved on the first access to a caller data field. Logback computes the
+     * caller data from a stack trace, so it is resolved at most once per event and not at all if no field needs it.
+     */
+    private StackTraceElement callee;
+    private boolean calleeResolved = false;
 
     public LogbackLogEvent(ILoggingEvent loggingEvent) {
         this.loggingEvent = loggingEvent;
@@ -63,13 +69,12 @@ public class LogbackLogEvent implements LogEvent {
     }
 
     private StackTraceElement getCalleeStackTraceElement() {
-        StackTraceElement[] callerData = loggingEvent.getCallerData();
-
-        if (null != callerData && callerData.length > 0) {
-            return callerData[0];
-        } else {
-            return null;
+        if (!calleeResolved) {
+            StackTraceElement[] callerData = loggingEvent.getCallerData();
+            callee = null != callerData && callerData.length > 0 ? callerData[0] : null;
+            calleeResolved = true;
         }
+        return callee;
     }
 
     public String getSourceMethodName() {
@@ -87,10 +92,16 @@ public class LogbackLogEvent implements LogEvent {
             return null;
         }
 
-        return "" + calleeStackTraceElement.getLineNumber();
+        return Integer.toString(calleeStackTraceElement.getLineNumber());
     }
 
-    private int levelToSyslogLevel(final Level level) {
+    /**
+     * Maps a logback level to a numeric syslog level.
+     *
+     * @param level the logback level
+     * @return the syslog level.
+     */
+    public static int levelToSyslogLevel(final Level level) {
 
         int intLevel = level.toInt();
 
@@ -148,10 +159,6 @@ public class LogbackLogEvent implements LogEvent {
             case SourceLineNumber:
                 return getSourceLine();
             case SourceSimpleClassName:
-                String sourceClassName = getSourceClassName();
-                if (sourceClassName == null) {
-                    return null;
-                }
                 return KafkaLogUtil.getSimpleClassName(getSourceClassName());
             case LoggerName:
                 return loggingEvent.getLoggerName();
@@ -168,13 +175,14 @@ public class LogbackLogEvent implements LogEvent {
     private Values getMdcValues(DynamicMdcMessageField field) {
         Values result = new Values();
 
-        Set<String> mdcNames = getAllMdcNames();
-        Set<String> matchingMdcNames = KafkaLogUtil.getMatchingMdcNames(field, mdcNames);
+        Map<String, String> mdcPropertyMap = loggingEvent.getMDCPropertyMap();
+        if (mdcPropertyMap == null) {
+            return result;
+        }
 
-        for (String mdcName : matchingMdcNames) {
-            String mdcValue = getMdcValue(mdcName);
-            if (mdcName != null) {
-                result.setValue(mdcName, mdcValue);
+        for (Map.Entry<String, String> entry : mdcPropertyMap.entrySet()) {
+            if (entry.getKey() != null && field.matches(entry.getKey())) {
+                result.setValue(entry.getKey(), entry.getValue());
             }
         }
 
@@ -182,10 +190,8 @@ public class LogbackLogEvent implements LogEvent {
     }
 
     private Set<String> getAllMdcNames() {
-        Set<String> mdcNames = new HashSet<String>();
-
-        mdcNames.addAll(loggingEvent.getMDCPropertyMap().keySet());
-        return mdcNames;
+        final Map<String, String> mdcPropertyMap = loggingEvent.getMDCPropertyMap();
+        return mdcPropertyMap != null ? Collections.unmodifiableSet(mdcPropertyMap.keySet()) : Collections.<String>emptySet();
     }
 
     private String getValue(MdcMessageField field) {
@@ -207,5 +213,14 @@ public class LogbackLogEvent implements LogEvent {
     public Set<String> getMdcNames() {
         return getAllMdcNames();
     }
+
+    /**
+     * @return logback's copy-on-write MDC map of the event, which is shared by consecutive events of a thread until
+     * the MDC is changed.
+     */
+    @Override
+    public Map<String, String> getMdcMap() {
+        return loggingEvent.getMDCPropertyMap();
+    }
 }
 
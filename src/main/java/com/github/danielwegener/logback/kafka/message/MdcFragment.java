@@ -0,0 +1,148 @@
+package com.github.danielwegener.logback.kafka.message;
+
+import com.google.gson.Gson;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The MDC fields of a message (configured MDC fields, dynamic MDC fields and the full MDC), typed and rendered to a
+ * JSON fragment once.
+ * <p>
+ * Logback's MDC map is copy-on-write: consecutive events of a thread share the same map instance until the MDC is
+ * changed. A {@link KafkaMessageAssembler} therefore keeps the last fragment of each thread and reuses it as long as the
+ * event's MDC map, the settings snapshot and the configured fields are the same instances.
+ * @since 0.1.2
+ */
+public final class MdcFragment {
+
+    private static final Gson GSON = new Gson();
+
+    private final Map<String, String> mdc;
+    private final AssemblySettings settings;
+    private final int fieldsVersion;
+    private final Map<String, String> fields;
+    private final String json;
+
+    private MdcFragment(Map<String, String> mdc, AssemblySettings settings, int fieldsVersion,
+                        Map<String, String> fields, String json) {
+        this.mdc = mdc;
+        this.settings = settings;
+        this.fieldsVersion = fieldsVersion;
+        this.fields = fields;
+        this.json = json;
+    }
+
+    /**
+     * @param mdc the MDC map of an event
+     * @param settings the settings that apply to the event
+     * @param messageFields the configured fields (other than MDC fields are ignored)
+     * @param fieldTypes the types of additional fields by name
+     * @param fieldSchema the schema that types the fields or {@code null} to discover the type of every value
+     * @param fieldsVersion the version of the configured fields and types
+     * @return the MDC fields of the event.
+     */
+    static MdcFragment create(Map<String, String> mdc, AssemblySettings settings, Collection<MessageField> messageFields,
+                              Map<String, String> fieldTypes, FieldSchema fieldSchema, int fieldsVersion) {
+        final Map<String, String> fields = new LinkedHashMap<String, String>();
+        for (MessageField field : messageFields) {
+            if (field instanceof MdcMessageField) {
+                final String value = mdc.get(((MdcMessageField) field).getMdcName());
+                if (field.getName() != null && value != null) {
+                    fields.put(field.getName(), value);
+                }
+            } else if (field instanceof DynamicMdcMessageField) {
+                for (Map.Entry<String, String> entry : mdc.entrySet()) {
+                    if (entry.getKey() != null && entry.getValue() != null
+                            && ((DynamicMdcMessageField) field).matches(entry.getKey())) {
+                        fields.put(entry.getKey(), entry.getValue());
+                    }
+                }
+            }
+        }
+        if (settings.isIncludeFullMdc()) {
+            for (Map.Entry<String, String> entry : mdc.entrySet()) {
+                if (entry.getKey() != null && entry.getValue() != null) {
+                    fields.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+
+        final String json = render(fields, fieldTypes, fieldSchema);
+        return new MdcFragment(mdc, settings, fieldsVersion, Collections.unmodifiableMap(fields), json);
+    }
+
+    /**
+     * @return the typed fields as JSON object members without the surrounding braces.
+     */
+    static String render(Map<String, String> fields, Map<String, String> fieldTypes, FieldSchema fieldSchema) {
+        if (fieldSchema != null) {
+            return renderTyped(fields, fieldTypes, fieldSchema);
+        }
+        final StringBuilder json = new StringBuilder();
+        for (Map.Entry<String, String> field : fields.entrySet()) {
+            if (KafkaLogMessage.ID_NAME.equals(field.getKey())) {
+                continue;
+            }
+            final String fieldType = fieldTypes.get(field.getKey());
+            final Object value = KafkaLogMessage.typedValue(field.getValue(),
+                    fieldType != null ? fieldType : KafkaLogMessage.FIELD_TYPE_DEFAULT);
+            if (value != null) {
+                if (json.length() > 0) {
+                    json.append(',');
+                }
+                json.append(GSON.toJson(field.getKey())).append(':').append(GSON.toJson(value));
+            }
+        }
+        return json.toString();
+    }
+
+    private static String renderTyped(Map<String, String> fields, Map<String, String> fieldTypes, FieldSchema fieldSchema) {
+        final StringWriter out = new StringWriter();
+        try {
+            final JsonWriter writer = GSON.newJsonWriter(out);
+            // like Gson#toJson
+            writer.setHtmlSafe(true);
+            writer.beginObject();
+            for (Map.Entry<String, String> field : fields.entrySet()) {
+                final String fieldType = fieldTypes.get(field.getKey());
+                if (!KafkaLogMessage.ID_NAME.equals(field.getKey()) && fieldSchema.hasValue(field.getValue(), fieldType)) {
+                    writer.name(field.getKey());
+                    fieldSchema.write(writer, field.getKey(), field.getValue(), fieldType);
+                }
+            }
+            writer.endObject();
+            writer.flush();
+        } catch (IOException e) {
+            throw new IllegalStateException("Cannot write fields", e);
+        }
+        // strip the braces
+        return out.getBuffer().substring(1, out.getBuffer().length() - 1);
+    }
+
+    /**
+     * @return {@code true} if this fragment was created for the given MDC map, settings and fields.
+     */
+    boolean isFor(Map<String, String> mdc, AssemblySettings settings, int fieldsVersion) {
+        return this.mdc == mdc && this.settings == settings && this.fieldsVersion == fieldsVersion;
+    }
+
+    /**
+     * @return the MDC fields by name.
+     */
+    public Map<String, String> getFields() {
+        return fields;
+    }
+
+    /**
+     * @return the typed fields as JSON object members without the surrounding braces (empty if there are no fields).
+     */
+    public String getJson() {
+        return json;
+    }
+}
@@ -12,25 +12,24 @@ public class MdcKafkaMessageAssembler extends KafkaMessageAssembler {
     public static final String PROPERTY_MDC_FIELD = "mdcField.";
     public static final String PROPERTY_DYNAMIC_MDC_FIELD = "dynamicMdcFields.";
 
-    private boolean mdcProfiling;
-    private boolean includeFullMdc;
-
     public void initialize(PropertyProvider propertyProvider) {
 
         super.initialize(propertyProvider);
-        mdcProfiling = "true".equalsIgnoreCase(propertyProvider.getProperty(PROPERTY_MDC_PROFILING));
-        includeFullMdc = "true".equalsIgnoreCase(propertyProvider.getProperty(PROPERTY_INCLUDE_FULL_MDC));
+        setMdcProfiling("true".equalsIgnoreCase(propertyProvider.getProperty(PROPERTY_MDC_PROFILING)));
+        setIncludeFullMdc("true".equalsIgnoreCase(propertyProvider.getProperty(PROPERTY_INCLUDE_FULL_MDC)));
 
     }
 
-    public KafkaLogMessage createGelfMessage(LogEvent logEvent) {
+    @Override
+    public KafkaLogMessage createGelfMessage(LogEvent logEvent, AssemblySettings settings) {
 
-        KafkaLogMessage gelfMessage = super.createGelfMessage(logEvent);
-        if (mdcProfiling) {
+        KafkaLogMessage gelfMessage = super.createGelfMessage(logEvent, settings);
+        if (settings.isMdcProfiling()) {
             KafkaLogUtil.addMdcProfiling(logEvent, gelfMessage);
         }
 
-        if (includeFullMdc) {
+        // the full MDC is part of the message's MDC fragment if the event exposes its MDC map
+        if (settings.isIncludeFullMdc() && gelfMessage.getMdcFragment() == null) {
             Set<String> mdcNames = logEvent.getMdcNames();
             for (String mdcName : mdcNames) {
 
@@ -49,19 +48,19 @@ public class MdcKafkaMessageAssembler extends KafkaMessageAssembler {
     }
 
     public boolean isMdcProfiling() {
-        return mdcProfiling;
+        return getSettings().isMdcProfiling();
     }
 
-    public void setMdcProfiling(boolean mdcProfiling) {
-        this.mdcProfiling = mdcProfiling;
+    public synchronized void setMdcProfiling(boolean mdcProfiling) {
+        setSettings(getSettings().withMdcProfiling(mdcProfiling));
     }
 
     public boolean isIncludeFullMdc() {
-        return includeFullMdc;
+        return getSettings().isIncludeFullMdc();
     }
 
-    public void setIncludeFullMdc(boolean includeFullMdc) {
-        this.includeFullMdc = includeFullMdc;
+    public synchronized void setIncludeFullMdc(boolean includeFullMdc) {
+        setSettings(getSettings().withIncludeFullMdc(includeFullMdc));
     }
 
 
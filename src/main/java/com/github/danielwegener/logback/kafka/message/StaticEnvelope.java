@@ -0,0 +1,191 @@
+package com.github.danielwegener.logback.kafka.message;
+
+import com.google.gson.Gson;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The part of a message that never changes after the appender is configured: the facility, the static fields and the
+ * environment fields (host name and container id). A {@link KafkaMessageAssembler} renders it to a JSON fragment once,
+ * which messages splice into their JSON instead of typing and serializing these fields for every event.
+ * @since 0.1.2
+ */
+public final class StaticEnvelope {
+
+    public static final String FIELD_HOST = "host";
+    public static final String FIELD_CONTAINER_ID = "container_id";
+
+    private static final Gson GSON = new Gson();
+    private static final Set<String> STANDARD_FIELDS = new HashSet<String>(Arrays.asList(KafkaLogMessage.FIELD_SHORT_MESSAGE,
+            KafkaLogMessage.FIELD_FULL_MESSAGE, KafkaLogMessage.FIELD_TIMESTAMP, KafkaLogMessage.FIELD_LEVEL,
+            KafkaLogMessage.FIELD_FACILITY));
+    private static final int CONTAINER_ID_LENGTH = 64;
+
+    private final String facility;
+    private final Map<String, String> fields;
+    private final boolean overridesStandardFields;
+    private final String json;
+    private final int fieldsVersion;
+
+    private StaticEnvelope(String facility, Map<String, String> fields, String json, int fieldsVersion) {
+        this.facility = facility;
+        this.fields = fields;
+        this.json = json;
+        this.fieldsVersion = fieldsVersion;
+        boolean overrides = false;
+        for (String name : fields.keySet()) {
+            overrides |= STANDARD_FIELDS.contains(name);
+        }
+        this.overridesStandardFields = overrides;
+    }
+
+    /**
+     * @param facility the facility or {@code null} for the {@link KafkaLogMessage#DEFAULT_FACILITY}
+     * @param messageFields the configured fields (other than static fields are ignored)
+     * @param environmentFields the environment fields (overridden by static fields of the same name)
+     * @param fieldTypes the types of additional fields by name
+     * @param fieldSchema the schema that types the fields or {@code null} to discover the type of every value
+     * @param fieldsVersion the version of the configured fields and types
+     * @return the envelope.
+     */
+    static StaticEnvelope create(String facility, Collection<MessageField> messageFields, Map<String, String> environmentFields,
+                                 Map<String, String> fieldTypes, FieldSchema fieldSchema, int fieldsVersion) {
+        final String effectiveFacility = facility != null ? facility : KafkaLogMessage.DEFAULT_FACILITY;
+        final Map<String, String> fields = new LinkedHashMap<String, String>(environmentFields);
+        for (MessageField field : messageFields) {
+            if (field instanceof StaticMessageField && field.getName() != null && ((StaticMessageField) field).getValue() != null) {
+                fields.put(field.getName(), ((StaticMessageField) field).getValue());
+            }
+        }
+
+        final StringBuilder json = new StringBuilder();
+        if (!KafkaLogMessage.isEmpty(effectiveFacility)) {
+            json.append(GSON.toJson(KafkaLogMessage.FIELD_FACILITY)).append(':').append(GSON.toJson(effectiveFacility));
+        }
+        final String members = MdcFragment.render(fields, fieldTypes, fieldSchema);
+        if (json.length() > 0 && !members.isEmpty()) {
+            json.append(',');
+        }
+        json.append(members);
+        return new StaticEnvelope(effectiveFacility, Collections.unmodifiableMap(fields), json.toString(), fieldsVersion);
+    }
+
+    /**
+     * @return the host name and the container id (if the JVM runs in a container), resolved once.
+     */
+    public static Map<String, String> environmentFields() {
+        return Environment.FIELDS;
+    }
+
+    /**
+     * @return the name of the local host (resolved once) or {@code null} if it cannot be resolved.
+     */
+    public static String localHostName() {
+        return Environment.FIELDS.get(FIELD_HOST);
+    }
+
+    /**
+     * @param cgroup the lines of {@code /proc/self/cgroup}
+     * @return the id of the docker/containerd/cri-o container or {@code null}.
+     */
+    static String parseContainerId(List<String> cgroup) {
+        for (String line : cgroup) {
+            // hierarchy-ID:controllers:path, e.g. 12:memory:/docker/<id> or 0::/system.slice/docker-<id>.scope
+            final int pathStart = line.indexOf(':', line.indexOf(':') + 1) + 1;
+            for (String segment : line.substring(pathStart).split("/")) {
+                String candidate = segment.endsWith(".scope") ? segment.substring(0, segment.length() - 6) : segment;
+                candidate = candidate.substring(candidate.lastIndexOf('-') + 1);
+                if (isContainerId(candidate)) {
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    private static boolean isContainerId(String candidate) {
+        if (candidate.length() != CONTAINER_ID_LENGTH) {
+            return false;
+        }
+        for (int i = 0; i < candidate.length(); i++) {
+            final char c = candidate.charAt(i);
+            if (!(c >= '0' && c <= '9') && !(c >= 'a' && c <= 'f')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the facility (never {@code null}).
+     */
+    public String getFacility() {
+        return facility;
+    }
+
+    /**
+     * @return the static and environment fields by name.
+     */
+    public Map<String, String> getFields() {
+        return fields;
+    }
+
+    /**
+     * @return {@code true} if a field has the name of a standard field (like {@code level}) and replaces it.
+     */
+    public boolean isOverridesStandardFields() {
+        return overridesStandardFields;
+    }
+
+    /**
+     * @return the facility and the typed fields as JSON object members without the surrounding braces.
+     */
+    public String getJson() {
+        return json;
+    }
+
+    int getFieldsVersion() {
+        return fieldsVersion;
+    }
+
+    /**
+     * The environment of the JVM, resolved on first use.
+     */
+    private static final class Environment {
+        private static final Map<String, String> FIELDS = resolve(Paths.get("/proc/self/cgroup"));
+
+        private static Map<String, String> resolve(Path cgroup) {
+            final Map<String, String> fields = new LinkedHashMap<String, String>();
+            try {
+                fields.put(FIELD_HOST, InetAddress.getLocalHost().getHostName());
+            } catch (UnknownHostException e) {
+                // no host field
+            }
+            try {
+                if (Files.isReadable(cgroup)) {
+                    final String containerId = parseContainerId(Files.readAllLines(cgroup, StandardCharsets.UTF_8));
+                    if (containerId != null) {
+                        fields.put(FIELD_CONTAINER_ID, containerId);
+                    }
+                }
+            } catch (IOException e) {
+                // not in a container (or not on linux)
+            }
+            return Collections.unmodifiableMap(fields);
+        }
+    }
+}
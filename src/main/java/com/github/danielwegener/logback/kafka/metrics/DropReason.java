@@ -0,0 +1,39 @@
+package com.github.danielwegener.logback.kafka.metrics;
+
+/**
+ * Why an appended event did not make it to kafka.
+ * @since 0.1.2
+ */
+public enum DropReason {
+
+    /**
+     * An append stage filtered the event.
+     */
+    FILTERED,
+
+    /**
+     * A rate limiting stage suppressed the event.
+     */
+    RATE_LIMITED,
+
+    /**
+     * A sampling stage did not keep the event.
+     */
+    SAMPLED,
+
+    /**
+     * The producer's send buffer was exhausted.
+     */
+    BUFFER_EXHAUSTED,
+
+    /**
+     * The delivery failed and there was no fallback appender (or the event was not eligible for fallback).
+     */
+    DELIVERY_FAILED,
+
+    /**
+     * The event's message template exceeded its byte quota.
+     */
+    QUOTA_EXCEEDED
+
+}
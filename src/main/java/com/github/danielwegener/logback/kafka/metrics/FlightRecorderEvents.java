@@ -0,0 +1,216 @@
+package com.github.danielwegener.logback.kafka.metrics;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Emits Java Flight Recorder events for appender internals: slow appends, records dropped because the producer's
+ * buffer was exhausted, producer creations, delivery state transitions and fallback dispatches. The events are named
+ * {@code com.github.danielwegener.logback.kafka.<Event>} and are listed in the category {@code Logback / Kafka Appender}.
+ * <p>
+ * The event types are defined at runtime through {@code jdk.jfr.EventFactory}, which is loaded reflectively. On JVMs
+ * without JFR (e.g. Java 8 before update 262) all methods do nothing. Every method first checks whether a recording
+ * has enabled the event type. That state is cached and {@link #refresh() refreshed} by the appenders' housekeeping, so
+ * emitting is a volatile read when JFR is not recording.
+ * @since 0.1.2
+ */
+public final class FlightRecorderEvents {
+
+    private static final String NAME_PREFIX = "com.github.danielwegener.logback.kafka.";
+    private static final String[] CATEGORY = {"Logback", "Kafka Appender"};
+    private static final String NANOSECONDS = "NANOSECONDS";
+
+    /**
+     * Events that are never emitted.
+     */
+    public static final FlightRecorderEvents DISABLED = new FlightRecorderEvents(null, null, null, null, null);
+
+    private final EventType slowAppend;
+    private final EventType bufferExhausted;
+    private final EventType producerCreated;
+    private final EventType deliveryTransition;
+    private final EventType fallbackDispatch;
+
+    private FlightRecorderEvents(EventType slowAppend, EventType bufferExhausted, EventType producerCreated,
+                                 EventType deliveryTransition, EventType fallbackDispatch) {
+        this.slowAppend = slowAppend;
+        this.bufferExhausted = bufferExhausted;
+        this.producerCreated = producerCreated;
+        this.deliveryTransition = deliveryTransition;
+        this.fallbackDispatch = fallbackDispatch;
+    }
+
+    /**
+     * @return the events (shared by all appenders) or {@link #DISABLED} if JFR is not available.
+     */
+    public static FlightRecorderEvents get() {
+        return Holder.INSTANCE;
+    }
+
+    private static FlightRecorderEvents create() {
+        try {
+            final Jfr jfr = new Jfr();
+            final FlightRecorderEvents events = new FlightRecorderEvents(
+                    jfr.define("SlowAppend", "Slow Append", "An append took longer than the slowAppendThreshold",
+                            jfr.field(String.class, "appender", "Appender"),
+                            jfr.field(String.class, "logger", "Logger"),
+                            jfr.field(String.class, "level", "Level"),
+                            jfr.timespan("appendDuration", "Append Duration")),
+                    jfr.define("BufferExhausted", "Buffer Exhausted", "A record was dropped because the producer's buffer was exhausted",
+                            jfr.field(String.class, "appender", "Appender"),
+                            jfr.field(String.class, "cause", "Cause")),
+                    jfr.define("ProducerCreated", "Producer Created", "A kafka producer was created",
+                            jfr.field(String.class, "appender", "Appender"),
+                            jfr.field(String.class, "producer", "Producer"),
+                            jfr.field(boolean.class, "success", "Success"),
+                            jfr.timespan("creationDuration", "Creation Duration")),
+                    jfr.define("DeliveryTransition", "Delivery Transition", "Deliveries started or stopped failing",
+                            jfr.field(String.class, "appender", "Appender"),
+                            jfr.field(String.class, "from", "From"),
+                            jfr.field(String.class, "to", "To")),
+                    jfr.define("FallbackDispatch", "Fallback Dispatch", "A failed event was dispatched to the fallback appenders",
+                            jfr.field(String.class, "appender", "Appender"),
+                            jfr.field(String.class, "cause", "Cause")));
+            events.refresh();
+            return events;
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            return DISABLED;
+        }
+    }
+
+    /**
+     * @return {@code true} if the JVM supports JFR and the event types are defined.
+     */
+    public boolean isAvailable() {
+        return slowAppend != null;
+    }
+
+    /**
+     * Reads whether recordings have enabled the event types. Called periodically, events that a recording enables
+     * are emitted after the next refresh.
+     */
+    public void refresh() {
+        for (EventType eventType : Arrays.asList(slowAppend, bufferExhausted, producerCreated, deliveryTransition, fallbackDispatch)) {
+            if (eventType != null) {
+                eventType.refresh();
+            }
+        }
+    }
+
+    public void slowAppend(String appender, String logger, String level, long durationNanos) {
+        if (isEnabled(slowAppend)) slowAppend.commit(appender, logger, level, durationNanos);
+    }
+
+    public void bufferExhausted(String appender, Throwable cause) {
+        if (isEnabled(bufferExhausted)) bufferExhausted.commit(appender, cause != null ? cause.getMessage() : null);
+    }
+
+    public void producerCreated(String appender, String producer, boolean success, long durationNanos) {
+        if (isEnabled(producerCreated)) producerCreated.commit(appender, producer, success, durationNanos);
+    }
+
+    /**
+     * @param failing {@code true} if deliveries started failing, {@code false} if they recovered.
+     */
+    public void deliveryTransition(String appender, boolean failing) {
+        if (isEnabled(deliveryTransition)) {
+            deliveryTransition.commit(appender, failing ? "HEALTHY" : "FAILING", failing ? "FAILING" : "HEALTHY");
+        }
+    }
+
+    public void fallbackDispatch(String appender, Throwable cause) {
+        if (isEnabled(fallbackDispatch)) fallbackDispatch.commit(appender, cause != null ? cause.toString() : null);
+    }
+
+    private static boolean isEnabled(EventType eventType) {
+        return eventType != null && eventType.isEnabled();
+    }
+
+    private static final class Holder {
+        private static final FlightRecorderEvents INSTANCE = create();
+    }
+
+    /**
+     * The reflective entry points into {@code jdk.jfr}.
+     */
+    private static final class Jfr {
+        private final Constructor<?> annotation = Class.forName("jdk.jfr.AnnotationElement").getConstructor(Class.class, Object.class);
+        private final Constructor<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor").getConstructor(Class.class, String.class, List.class);
+        private final Method create = Class.forName("jdk.jfr.EventFactory").getMethod("create", List.class, List.class);
+        private final Method newEvent = Class.forName("jdk.jfr.EventFactory").getMethod("newEvent");
+        private final Method getEventType = Class.forName("jdk.jfr.EventFactory").getMethod("getEventType");
+        private final Method isEnabled = Class.forName("jdk.jfr.EventType").getMethod("isEnabled");
+        private final Method set = Class.forName("jdk.jfr.Event").getMethod("set", int.class, Object.class);
+        private final Method commit = Class.forName("jdk.jfr.Event").getMethod("commit");
+
+        Jfr() throws ReflectiveOperationException {
+        }
+
+        Object annotation(String type, Object value) throws ReflectiveOperationException {
+            return annotation.newInstance(Class.forName(type), value);
+        }
+
+        Object field(Class<?> type, String name, String label) throws ReflectiveOperationException {
+            return valueDescriptor.newInstance(type, name, Arrays.asList(annotation("jdk.jfr.Label", label)));
+        }
+
+        Object timespan(String name, String label) throws ReflectiveOperationException {
+            return valueDescriptor.newInstance(long.class, name,
+                    Arrays.asList(annotation("jdk.jfr.Label", label), annotation("jdk.jfr.Timespan", NANOSECONDS)));
+        }
+
+        EventType define(String name, String label, String description, Object... fields) throws ReflectiveOperationException {
+            final List<Object> annotations = new ArrayList<Object>();
+            annotations.add(annotation("jdk.jfr.Name", NAME_PREFIX + name));
+            annotations.add(annotation("jdk.jfr.Label", label));
+            annotations.add(annotation("jdk.jfr.Description", description));
+            annotations.add(annotation("jdk.jfr.Category", CATEGORY));
+            final Object factory = create.invoke(null, annotations, Arrays.asList(fields));
+            return new EventType(this, factory, getEventType.invoke(factory));
+        }
+    }
+
+    /**
+     * One event type defined through an {@code jdk.jfr.EventFactory}.
+     */
+    private static final class EventType {
+        private final Jfr jfr;
+        private final Object factory;
+        private final Object type;
+        private volatile boolean enabled = false;
+
+        EventType(Jfr jfr, Object factory, Object type) {
+            this.jfr = jfr;
+            this.factory = factory;
+            this.type = type;
+        }
+
+        boolean isEnabled() {
+            return enabled;
+        }
+
+        void refresh() {
+            try {
+                enabled = (Boolean) jfr.isEnabled.invoke(type);
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                enabled = false;
+            }
+        }
+
+        void commit(Object... values) {
+            try {
+                final Object event = jfr.newEvent.invoke(factory);
+                for (int i = 0; i < values.length; i++) {
+                    jfr.set.invoke(event, i, values[i]);
+                }
+                jfr.commit.invoke(event);
+            } catch (IllegalAccessException | InvocationTargetException e) {
+                // events are best effort
+            }
+        }
+    }
+}
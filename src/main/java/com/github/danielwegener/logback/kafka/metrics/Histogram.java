@@ -0,0 +1,161 @@
+package com.github.danielwegener.logback.kafka.metrics;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A lock-free histogram of non-negative long values with log-linear buckets: values below {@code 16} are counted
+ * exactly, larger values in eight buckets per power of two (a relative error of at most 12.5%).
+ * Recording is a few atomic increments and never allocates, so it can be used on the logging hot path.
+ * @since 0.1.2
+ */
+public final class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 3;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_LIMIT = 16;
+    private static final int BUCKETS = LINEAR_LIMIT + (63 - 4) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * Records a value. Negative values are recorded as {@code 0}.
+     *
+     * @param value the value to record
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        counts.incrementAndGet(bucketIndex(value));
+        sum.add(value);
+        long current;
+        while (value < (current = min.get()) && !min.compareAndSet(current, value)) {
+            // retry
+        }
+        while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+            // retry
+        }
+    }
+
+    /**
+     * Takes a snapshot of all values recorded since the last snapshot and resets the histogram. Values recorded
+     * concurrently end up in this or in the next snapshot.
+     *
+     * @return the snapshot.
+     */
+    public Snapshot snapshotAndReset() {
+        final long[] snapshot = new long[BUCKETS];
+        long count = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            if (counts.get(i) != 0) {
+                snapshot[i] = counts.getAndSet(i, 0);
+                count += snapshot[i];
+            }
+        }
+        return new Snapshot(snapshot, count, sum.sumThenReset(), min.getAndSet(Long.MAX_VALUE), max.getAndSet(Long.MIN_VALUE));
+    }
+
+    static int bucketIndex(long value) {
+        if (value < LINEAR_LIMIT) {
+            return (int) value;
+        }
+        final int exponent = 63 - Long.numberOfLeadingZeros(value);
+        final int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return LINEAR_LIMIT + (exponent - 4) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the largest value that falls into the given bucket.
+     */
+    static long bucketUpperBound(int index) {
+        if (index < LINEAR_LIMIT) {
+            return index;
+        }
+        final int exponent = (index - LINEAR_LIMIT) / SUB_BUCKETS + 4;
+        final long subBucket = (index - LINEAR_LIMIT) % SUB_BUCKETS;
+        final long lowerBound = (1L << exponent) + (subBucket << (exponent - SUB_BUCKET_BITS));
+        return lowerBound + (1L << (exponent - SUB_BUCKET_BITS)) - 1;
+    }
+
+    /**
+     * An immutable view of the values of one interval.
+     */
+    public static final class Snapshot {
+        private final long[] counts;
+        private final long count;
+        private final long sum;
+        private final long min;
+        private final long max;
+
+        Snapshot(long[] counts, long count, long sum, long min, long max) {
+            this.counts = counts;
+            this.count = count;
+            this.sum = sum;
+            this.min = count > 0 ? min : 0;
+            this.max = count > 0 ? max : 0;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSum() {
+            return sum;
+        }
+
+        public long getMin() {
+            return min;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count > 0 ? (double) sum / count : 0d;
+        }
+
+        /**
+         * @return count, min, max, mean (rounded) and the 50th, 90th, 99th and 99.9th percentile by name.
+         */
+        public Map<String, Long> toSummary() {
+            final Map<String, Long> summary = new LinkedHashMap<String, Long>();
+            summary.put("count", count);
+            summary.put("min", getMin());
+            summary.put("max", getMax());
+            summary.put("mean", Math.round(getMean()));
+            summary.put("p50", getValueAtQuantile(0.5));
+            summary.put("p90", getValueAtQuantile(0.9));
+            summary.put("p99", getValueAtQuantile(0.99));
+            summary.put("p999", getValueAtQuantile(0.999));
+            return Collections.unmodifiableMap(summary);
+        }
+
+        /**
+         * @param quantile the quantile ({@code 0..1})
+         * @return the upper bound of the bucket that contains the given quantile, capped by the maximum value.
+         */
+        public long getValueAtQuantile(double quantile) {
+            if (count == 0) {
+                return 0;
+            }
+            final long rank = Math.max(1, (long) Math.ceil(quantile * count));
+            long seen = 0;
+            for (int i = 0; i < counts.length; i++) {
+                seen += counts[i];
+                if (seen >= rank) {
+                    return Math.min(max, Math.max(min, bucketUpperBound(i)));
+                }
+            }
+            return max;
+        }
+    }
+}
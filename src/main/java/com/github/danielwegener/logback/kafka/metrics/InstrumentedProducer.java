@@ -0,0 +1,86 @@
+package com.github.danielwegener.logback.kafka.metrics;
+
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.PartitionInfo;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A {@link Producer} that reports acknowledged and failed records of a delegate producer to a
+ * {@link KafkaAppenderMonitor}, independent of the delivery strategy that sends them. The acknowledgement latency is
+ * measured from the append start the appender announced with {@link KafkaAppenderMonitor#onSending(long)}.
+ * @since 0.1.2
+ */
+public class InstrumentedProducer<K, V> implements Producer<K, V> {
+
+    private final Producer<K, V> delegate;
+    private final KafkaAppenderMonitor monitor;
+
+    public InstrumentedProducer(Producer<K, V> delegate, KafkaAppenderMonitor monitor) {
+        this.delegate = delegate;
+        this.monitor = monitor;
+    }
+
+    /**
+     * @return the wrapped producer.
+     */
+    public Producer<K, V> getDelegate() {
+        return delegate;
+    }
+
+    @Override
+    public Future<RecordMetadata> send(ProducerRecord<K, V> record) {
+        return send(record, null);
+    }
+
+    @Override
+    public Future<RecordMetadata> send(ProducerRecord<K, V> record, final Callback callback) {
+        final long appendStart = monitor.getAppendStart();
+        return delegate.send(record, new Callback() {
+            @Override
+            public void onCompletion(RecordMetadata metadata, Exception exception) {
+                if (exception == null) {
+                    monitor.onAcked(System.nanoTime() - appendStart);
+                } else {
+                    monitor.onFailed(exception);
+                }
+                if (callback != null) {
+                    callback.onCompletion(metadata, exception);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void flush() {
+        delegate.flush();
+    }
+
+    @Override
+    public List<PartitionInfo> partitionsFor(String topic) {
+        return delegate.partitionsFor(topic);
+    }
+
+    @Override
+    public Map<MetricName, ? extends Metric> metrics() {
+        return delegate.metrics();
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    @Override
+    public void close(long timeout, TimeUnit unit) {
+        delegate.close(timeout, unit);
+    }
+}
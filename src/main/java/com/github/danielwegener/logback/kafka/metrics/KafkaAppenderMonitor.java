@@ -0,0 +1,475 @@
+package com.github.danielwegener.logback.kafka.metrics;
+
+import ch.qos.logback.classic.Level;
+import com.github.danielwegener.logback.kafka.Backpressure;
+import com.github.danielwegener.logback.kafka.pipeline.Levels;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Throughput, drop and buffer counters of one {@link com.github.danielwegener.logback.kafka.KafkaAppender}.
+ * Counters are striped {@link LongAdder}'s so the appending threads do not contend on them.
+ * <p>
+ * The monitor is registered in the platform MBean server as
+ * {@code com.github.danielwegener.logback.kafka:type=KafkaAppender,name=<appender name>}.
+ * @since 0.1.2
+ */
+public class KafkaAppenderMonitor implements KafkaAppenderMonitorMXBean {
+
+    public static final String OBJECT_NAME_DOMAIN = "com.github.danielwegener.logback.kafka";
+
+    private static final DropReason[] DROP_REASONS = DropReason.values();
+    private static final int TOP_LOGGERS_SKETCH_DEPTH = 4;
+    private static final int TOP_LOGGERS_SKETCH_WIDTH = 1024;
+    private static final int TEMPLATE_COUNTERS_PER_TOP_TEMPLATE = 8;
+
+    private final Backpressure backpressure;
+    private final LongAdder appended = new LongAdder();
+    private final LongAdder encoded = new LongAdder();
+    private final LongAdder encodedBytes = new LongAdder();
+    private final LongAdder sent = new LongAdder();
+    private final LongAdder acked = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LongAdder fallback = new LongAdder();
+    private final LongAdder[] dropped = new LongAdder[DROP_REASONS.length];
+    private volatile String lastError = null;
+    private volatile long lastErrorTimestamp = 0L;
+    private volatile Map<String, Double> producerMetrics = Collections.emptyMap();
+    private final Histogram sendLatency = new Histogram();
+    private final Histogram ackLatency = new Histogram();
+    private volatile Map<String, Long> sendLatencySummary = Collections.emptyMap();
+    private volatile Map<String, Long> ackLatencySummary = Collections.emptyMap();
+    private final Histogram[] stepTimings = new Histogram[PipelineStep.values().length];
+    private volatile Map<String, Long> stepTimingSummary = Collections.emptyMap();
+    private final LongAdder[] appendedByLevel = new LongAdder[Levels.ALL.length];
+    private volatile TopKSketch topLoggersByEvents = null;
+    private volatile TopKSketch topLoggersByBytes = null;
+    private volatile SpaceSavingSketch topTemplates = null;
+    private volatile int topTemplatesLimit = 0;
+    /**
+     * The append start of the record the current thread is sending. Delivery strategies call the producer on the
+     * appending thread, so this carries the start time to the {@link InstrumentedProducer} without allocating.
+     */
+    private final ThreadLocal<long[]> appendStart = new ThreadLocal<long[]>() {
+        @Override
+        protected long[] initialValue() {
+            return new long[1];
+        }
+    };
+    private ObjectName objectName = null;
+
+    public KafkaAppenderMonitor(Backpressure backpressure) {
+        this.backpressure = backpressure;
+        for (int i = 0; i < dropped.length; i++) {
+            dropped[i] = new LongAdder();
+        }
+        for (int i = 0; i < stepTimings.length; i++) {
+            stepTimings[i] = new Histogram();
+        }
+        for (int i = 0; i < appendedByLevel.length; i++) {
+            appendedByLevel[i] = new LongAdder();
+        }
+    }
+
+    /**
+     * @param appenderName the name of the monitored appender
+     * @return the object name under which the monitor of the given appender is registered.
+     * @throws JMException if the name is not a valid object name value.
+     */
+    public static ObjectName objectName(String appenderName) throws JMException {
+        return objectName("KafkaAppender", appenderName);
+    }
+
+    /**
+     * @param type the type of the MBean
+     * @param appenderName the name of the appender the MBean belongs to
+     * @return the object name of an MBean of the given appender.
+     * @throws JMException if the name is not a valid object name value.
+     */
+    public static ObjectName objectName(String type, String appenderName) throws JMException {
+        final String value = appenderName.matches("[\\w.-]+") ? appenderName : ObjectName.quote(appenderName);
+        return new ObjectName(OBJECT_NAME_DOMAIN + ":type=" + type + ",name=" + value);
+    }
+
+    /**
+     * Registers this monitor in the platform MBean server.
+     *
+     * @param appenderName the name of the monitored appender
+     * @throws JMException if the monitor could not be registered (e.g. another appender of the same name is registered).
+     */
+    public synchronized void register(String appenderName) throws JMException {
+        final ObjectName name = objectName(appenderName);
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, name);
+        objectName = name;
+    }
+
+    /**
+     * Unregisters this monitor from the platform MBean server if it is registered.
+     *
+     * @throws JMException if the monitor could not be unregistered.
+     */
+    public synchronized void unregister() throws JMException {
+        if (objectName != null) {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            final ObjectName name = objectName;
+            objectName = null;
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        }
+    }
+
+    /**
+     * Enables the tracking of the top loggers by events and bytes.
+     *
+     * @param k the number of top loggers to track ({@code 0} disables the tracking)
+     */
+    public void trackTopLoggers(int k) {
+        topLoggersByEvents = k > 0 ? new TopKSketch(k, TOP_LOGGERS_SKETCH_DEPTH, TOP_LOGGERS_SKETCH_WIDTH) : null;
+        topLoggersByBytes = k > 0 ? new TopKSketch(k, TOP_LOGGERS_SKETCH_DEPTH, TOP_LOGGERS_SKETCH_WIDTH) : null;
+    }
+
+    /**
+     * Enables the tracking of the top message templates by events and bytes.
+     *
+     * @param k the number of top templates to report ({@code 0} disables the tracking). The tracker holds
+     *          eight counters per reported template.
+     */
+    public void trackTopTemplates(int k) {
+        topTemplatesLimit = k;
+        topTemplates = k > 0 ? new SpaceSavingSketch(k * TEMPLATE_COUNTERS_PER_TOP_TEMPLATE) : null;
+    }
+
+    /**
+     * Counts an event of a message template.
+     *
+     * @param template the unformatted message of an event
+     * @return the counter of the template to add the encoded bytes to, or {@code null} if the template is not tracked.
+     */
+    public SpaceSavingSketch.Counter onTemplateAppended(String template) {
+        final SpaceSavingSketch sketch = topTemplates;
+        return sketch != null && template != null ? sketch.add(template) : null;
+    }
+
+    /**
+     * Starts a new byte quota window for all message templates.
+     */
+    public void resetTemplateQuotaWindows() {
+        final SpaceSavingSketch sketch = topTemplates;
+        if (sketch != null) {
+            sketch.resetWindows();
+        }
+    }
+
+    /**
+     * @param loggerName the logger of an appended event
+     * @param level the level of an appended event
+     */
+    public void onAppended(String loggerName, Level level) {
+        appended.increment();
+        appendedByLevel[Levels.index(level)].increment();
+        final TopKSketch sketch = topLoggersByEvents;
+        if (sketch != null) {
+            sketch.add(loggerName, 1L);
+        }
+    }
+
+    /**
+     * Counts the size of an encoded event towards the top loggers by bytes.
+     *
+     * @param loggerName the logger of an encoded event
+     * @param bytes the size of the encoded event
+     */
+    public void onLoggerBytes(String loggerName, int bytes) {
+        final TopKSketch sketch = topLoggersByBytes;
+        if (sketch != null) {
+            sketch.add(loggerName, bytes);
+        }
+    }
+
+    public void onEncoded(int bytes) {
+        encoded.increment();
+        encodedBytes.add(bytes);
+    }
+
+    /**
+     * Announces that the current thread is about to send a record.
+     *
+     * @param appendStartNanos the {@link System#nanoTime()} when the append of the record started.
+     */
+    public void onSending(long appendStartNanos) {
+        appendStart.get()[0] = appendStartNanos;
+    }
+
+    /**
+     * @return the append start announced by the current thread or {@link System#nanoTime()} if there is none.
+     */
+    long getAppendStart() {
+        final long start = appendStart.get()[0];
+        return start != 0L ? start : System.nanoTime();
+    }
+
+    /**
+     * @param latencyNanos the time from the append start until the delivery strategy returned.
+     */
+    public void onSent(long latencyNanos) {
+        sent.increment();
+        sendLatency.record(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+    }
+
+    /**
+     * @param latencyNanos the time from the append start until the broker acknowledged the record.
+     */
+    public void onAcked(long latencyNanos) {
+        acked.increment();
+        ackLatency.record(TimeUnit.NANOSECONDS.toMicros(latencyNanos));
+    }
+
+    public void onFailed(Throwable cause) {
+        failed.increment();
+        onError("Delivery failed", cause);
+    }
+
+    public void onFallback() {
+        fallback.increment();
+    }
+
+    public void onDropped(DropReason reason) {
+        dropped[reason.ordinal()].increment();
+    }
+
+    /**
+     * @param message what failed
+     * @param cause the cause or {@code null}
+     */
+    public void onError(String message, Throwable cause) {
+        lastError = cause != null ? message + ": " + cause : message;
+        lastErrorTimestamp = System.currentTimeMillis();
+    }
+
+    @Override
+    public long getAppendedCount() {
+        return appended.sum();
+    }
+
+    @Override
+    public long getEncodedCount() {
+        return encoded.sum();
+    }
+
+    @Override
+    public long getEncodedBytes() {
+        return encodedBytes.sum();
+    }
+
+    @Override
+    public long getSentCount() {
+        return sent.sum();
+    }
+
+    @Override
+    public long getAckedCount() {
+        return acked.sum();
+    }
+
+    @Override
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    @Override
+    public long getFallbackCount() {
+        return fallback.sum();
+    }
+
+    @Override
+    public long getDroppedCount() {
+        long total = 0;
+        for (LongAdder counter : dropped) {
+            total += counter.sum();
+        }
+        return total;
+    }
+
+    /**
+     * @param reason a drop reason
+     * @return the number of events dropped for the given reason.
+     */
+    public long getDroppedCount(DropReason reason) {
+        return dropped[reason.ordinal()].sum();
+    }
+
+    @Override
+    public Map<String, Long> getDroppedCounts() {
+        final Map<String, Long> counts = new LinkedHashMap<String, Long>();
+        for (DropReason reason : DROP_REASONS) {
+            counts.put(reason.name(), dropped[reason.ordinal()].sum());
+        }
+        return counts;
+    }
+
+    @Override
+    public double getBufferFill() {
+        return backpressure.getBufferFill();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return backpressure.getQueueDepth();
+    }
+
+    /**
+     * @param step a pipeline step
+     * @param nanos the time in nanoseconds the step took
+     */
+    public void recordStep(PipelineStep step, long nanos) {
+        stepTimings[step.ordinal()].record(nanos);
+    }
+
+    /**
+     * Records the time of a step that started at {@code startNanos} and ends now.
+     *
+     * @param step a pipeline step
+     * @param startNanos the {@link System#nanoTime()} when the step started
+     * @return the {@link System#nanoTime()} when the step ended (the start of the next step).
+     */
+    public long lap(PipelineStep step, long startNanos) {
+        final long now = System.nanoTime();
+        stepTimings[step.ordinal()].record(now - startNanos);
+        return now;
+    }
+
+    /**
+     * Publishes the latency and step timing histograms of the interval since the previous call and resets them.
+     */
+    public void sampleLatencies() {
+        sendLatencySummary = sendLatency.snapshotAndReset().toSummary();
+        ackLatencySummary = ackLatency.snapshotAndReset().toSummary();
+        final Map<String, Long> steps = new LinkedHashMap<String, Long>();
+        for (PipelineStep step : PipelineStep.values()) {
+            for (Map.Entry<String, Long> value : stepTimings[step.ordinal()].snapshotAndReset().toSummary().entrySet()) {
+                steps.put(step.name().toLowerCase(Locale.ROOT) + "." + value.getKey(), value.getValue());
+            }
+        }
+        stepTimingSummary = Collections.unmodifiableMap(steps);
+    }
+
+    @Override
+    public Map<String, Long> getStepTimingsNanos() {
+        return stepTimingSummary;
+    }
+
+    @Override
+    public Map<String, Long> getSendLatencyMicros() {
+        return sendLatencySummary;
+    }
+
+    @Override
+    public Map<String, Long> getAckLatencyMicros() {
+        return ackLatencySummary;
+    }
+
+    /**
+     * @param producerMetrics the latest sample of the producer metrics (see {@link ProducerMetrics}).
+     */
+    public void setProducerMetrics(Map<String, Double> producerMetrics) {
+        this.producerMetrics = Collections.unmodifiableMap(producerMetrics);
+    }
+
+    @Override
+    public Map<String, Double> getProducerMetrics() {
+        return producerMetrics;
+    }
+
+    @Override
+    public Map<String, Long> getAppendedCountsByLevel() {
+        final Map<String, Long> counts = new LinkedHashMap<String, Long>();
+        for (int i = 0; i < Levels.ALL.length; i++) {
+            counts.put(Levels.ALL[i].toString(), appendedByLevel[i].sum());
+        }
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getTopLoggersByEvents() {
+        final TopKSketch sketch = topLoggersByEvents;
+        return sketch != null ? sketch.top() : Collections.<String, Long>emptyMap();
+    }
+
+    @Override
+    public Map<String, Long> getTopLoggersByBytes() {
+        final TopKSketch sketch = topLoggersByBytes;
+        return sketch != null ? sketch.top() : Collections.<String, Long>emptyMap();
+    }
+
+    @Override
+    public String dumpTopLoggers() {
+        final StringBuilder dump = new StringBuilder("Top loggers by events (estimated):");
+        for (Map.Entry<String, Long> logger : getTopLoggersByEvents().entrySet()) {
+            dump.append('\n').append(String.format("%12d  %s", logger.getValue(), logger.getKey()));
+        }
+        dump.append("\nTop loggers by bytes (estimated):");
+        for (Map.Entry<String, Long> logger : getTopLoggersByBytes().entrySet()) {
+            dump.append('\n').append(String.format("%12d  %s", logger.getValue(), logger.getKey()));
+        }
+        return dump.toString();
+    }
+
+    @Override
+    public void resetTopLoggers() {
+        final TopKSketch byEvents = topLoggersByEvents;
+        final TopKSketch byBytes = topLoggersByBytes;
+        if (byEvents != null) byEvents.reset();
+        if (byBytes != null) byBytes.reset();
+    }
+
+    @Override
+    public Map<String, Long> getTopTemplatesByEvents() {
+        final SpaceSavingSketch sketch = topTemplates;
+        return sketch != null ? sketch.top(topTemplatesLimit, false) : Collections.<String, Long>emptyMap();
+    }
+
+    @Override
+    public Map<String, Long> getTopTemplatesByBytes() {
+        final SpaceSavingSketch sketch = topTemplates;
+        return sketch != null ? sketch.top(topTemplatesLimit, true) : Collections.<String, Long>emptyMap();
+    }
+
+    @Override
+    public String dumpTopTemplates() {
+        final StringBuilder dump = new StringBuilder("Top message templates by events (estimated):");
+        for (Map.Entry<String, Long> template : getTopTemplatesByEvents().entrySet()) {
+            dump.append('\n').append(String.format("%12d  %s", template.getValue(), template.getKey()));
+        }
+        dump.append("\nTop message templates by bytes:");
+        for (Map.Entry<String, Long> template : getTopTemplatesByBytes().entrySet()) {
+            dump.append('\n').append(String.format("%12d  %s", template.getValue(), template.getKey()));
+        }
+        return dump.toString();
+    }
+
+    @Override
+    public void resetTopTemplates() {
+        final SpaceSavingSketch sketch = topTemplates;
+        if (sketch != null) sketch.reset();
+    }
+
+    @Override
+    public String getLastError() {
+        return lastError;
+    }
+
+    @Override
+    public long getLastErrorTimestamp() {
+        return lastErrorTimestamp;
+    }
+}
@@ -0,0 +1,145 @@
+package com.github.danielwegener.logback.kafka.metrics;
+
+import java.util.Map;
+
+/**
+ * Management interface of a {@link KafkaAppenderMonitor}. All counters are totals since the appender was created.
+ * @since 0.1.2
+ */
+public interface KafkaAppenderMonitorMXBean {
+
+    /**
+     * @return the number of events that reached the appender.
+     */
+    long getAppendedCount();
+
+    /**
+     * @return the number of records that were encoded (including synthetic records like summaries).
+     */
+    long getEncodedCount();
+
+    /**
+     * @return the total size of all encoded records in bytes.
+     */
+    long getEncodedBytes();
+
+    /**
+     * @return the number of records that were handed to a producer successfully.
+     */
+    long getSentCount();
+
+    /**
+     * @return the number of records that were acknowledged by the broker.
+     */
+    long getAckedCount();
+
+    /**
+     * @return the number of records whose delivery failed.
+     */
+    long getFailedCount();
+
+    /**
+     * @return the number of events that were routed to the fallback appenders.
+     */
+    long getFallbackCount();
+
+    /**
+     * @return the number of events that were dropped for any reason.
+     */
+    long getDroppedCount();
+
+    /**
+     * @return the number of dropped events by {@link DropReason}.
+     */
+    Map<String, Long> getDroppedCounts();
+
+    /**
+     * @return the fill ratio ({@code 0..1}) of the fullest producer send buffer.
+     */
+    double getBufferFill();
+
+    /**
+     * @return the number of events waiting in the appender's deferred queue.
+     */
+    int getQueueDepth();
+
+    /**
+     * @return the message of the last error or {@code null}.
+     */
+    String getLastError();
+
+    /**
+     * @return the time of the last error in epoch milliseconds or {@code 0}.
+     */
+    long getLastErrorTimestamp();
+
+    /**
+     * @return a curated set of metrics of the appender's producers as {@code <producer>.<metric name>}
+     * ({@code default} or the lane name), sampled every {@code metricsInterval} milliseconds.
+     */
+    Map<String, Double> getProducerMetrics();
+
+    /**
+     * @return count, min, max, mean and percentiles (p50, p90, p99, p999) of the time in microseconds from the start
+     * of an append until the delivery strategy returned, over the last {@code metricsInterval}.
+     */
+    Map<String, Long> getSendLatencyMicros();
+
+    /**
+     * @return count, min, max, mean and percentiles (p50, p90, p99, p999) of the time in microseconds from the start
+     * of an append until the broker acknowledged the record, over the last {@code metricsInterval}.
+     */
+    Map<String, Long> getAckLatencyMicros();
+
+    /**
+     * @return count, min, max, mean and percentiles of the time in nanoseconds each sampled {@link PipelineStep} took
+     * over the last {@code metricsInterval}, as {@code <step>.<statistic>} (e.g. {@code encoding.p99}).
+     */
+    Map<String, Long> getStepTimingsNanos();
+
+    /**
+     * @return the number of appended events by level.
+     */
+    Map<String, Long> getAppendedCountsByLevel();
+
+    /**
+     * @return the loggers with the most appended events and their estimated event counts.
+     */
+    Map<String, Long> getTopLoggersByEvents();
+
+    /**
+     * @return the loggers with the most encoded bytes and their estimated byte counts.
+     */
+    Map<String, Long> getTopLoggersByBytes();
+
+    /**
+     * @return a human readable table of the top loggers by events and by bytes.
+     */
+    String dumpTopLoggers();
+
+    /**
+     * Forgets the top loggers and their counts.
+     */
+    void resetTopLoggers();
+
+    /**
+     * @return the message templates with the most appended events and their estimated event counts.
+     */
+    Map<String, Long> getTopTemplatesByEvents();
+
+    /**
+     * @return the message templates with the most encoded bytes and their byte counts.
+     */
+    Map<String, Long> getTopTemplatesByBytes();
+
+    /**
+     * @return a human readable table of the top message templates by events and by bytes.
+     */
+    String dumpTopTemplates();
+
+    /**
+     * Forgets the top message templates and their counts.
+     */
+    void resetTopTemplates();
+
+}
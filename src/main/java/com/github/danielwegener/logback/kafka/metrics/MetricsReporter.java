@@ -0,0 +1,16 @@
+package com.github.danielwegener.logback.kafka.metrics;
+
+/**
+ * Receives the metrics of an appender periodically (every {@code metricsInterval} milliseconds) on the appender's
+ * housekeeping thread. Implementations must not log through the reporting appender.
+ * @since 0.1.2
+ */
+public interface MetricsReporter {
+
+    /**
+     * @param appenderName the name of the reporting appender
+     * @param metrics      the appender's counters and sampled producer metrics
+     */
+    void report(String appenderName, KafkaAppenderMonitorMXBean metrics);
+
+}
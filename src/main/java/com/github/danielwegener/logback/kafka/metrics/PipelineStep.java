@@ -0,0 +1,39 @@
+package com.github.danielwegener.logback.kafka.metrics;
+
+/**
+ * The timed steps of the append pipeline.
+ * @since 0.1.2
+ */
+public enum PipelineStep {
+
+    /**
+     * Assembling the kafka message from the logging event (including the stack trace).
+     */
+    ASSEMBLY,
+
+    /**
+     * Rendering the stack trace of an event.
+     */
+    STACK_TRACE,
+
+    /**
+     * Serializing the kafka message to JSON.
+     */
+    SERIALIZATION,
+
+    /**
+     * Encoding the JSON with the configured encoder.
+     */
+    ENCODING,
+
+    /**
+     * Creating the record key with the keying strategy.
+     */
+    KEYING,
+
+    /**
+     * Handing the record to the producer with the delivery strategy.
+     */
+    DELIVERY
+
+}
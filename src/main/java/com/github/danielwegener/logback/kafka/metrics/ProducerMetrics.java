@@ -0,0 +1,52 @@
+package com.github.danielwegener.logback.kafka.metrics;
+
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Selects the producer metrics that matter for tuning the appender ({@code linger.ms}, {@code batch.size},
+ * {@code buffer.memory}, {@code compression.type}) from the many metrics a kafka producer maintains.
+ * @since 0.1.2
+ */
+public final class ProducerMetrics {
+
+    public static final String PRODUCER_METRICS_GROUP = "producer-metrics";
+
+    /**
+     * The names of the curated metrics of the {@value #PRODUCER_METRICS_GROUP} group.
+     */
+    public static final Set<String> CURATED = Collections.unmodifiableSet(new HashSet<String>(Arrays.asList(
+            "record-queue-time-avg", "record-queue-time-max",
+            "batch-size-avg", "batch-size-max",
+            "records-per-request-avg", "record-size-avg",
+            "compression-rate-avg",
+            "buffer-available-bytes", "buffer-total-bytes", "bufferpool-wait-ratio", "waiting-threads",
+            "record-send-rate", "record-retry-rate", "record-error-rate",
+            "request-latency-avg", "request-latency-max", "requests-in-flight",
+            "outgoing-byte-rate")));
+
+    private ProducerMetrics() {
+    }
+
+    /**
+     * Copies the curated metrics into the target map.
+     *
+     * @param producerName the name the metric names are prefixed with (e.g. {@code default} or a lane name)
+     * @param metrics      the metrics of a producer
+     * @param target       the map to add {@code <producerName>.<metric name>} entries to
+     */
+    public static void collect(String producerName, Map<MetricName, ? extends Metric> metrics, Map<String, Double> target) {
+        for (Map.Entry<MetricName, ? extends Metric> metric : metrics.entrySet()) {
+            final MetricName name = metric.getKey();
+            if (PRODUCER_METRICS_GROUP.equals(name.group()) && CURATED.contains(name.name())) {
+                target.put(producerName + "." + name.name(), metric.getValue().value());
+            }
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.github.danielwegener.logback.kafka.metrics;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A fixed-memory, lock-free approximation of the space-saving algorithm for finding the most frequent keys
+ * (e.g. message templates). The counters are organized in small buckets of {@value #WAYS} slots selected by the key's
+ * hash. A key that is not tracked replaces the least frequent counter of its bucket and inherits its count (so counts
+ * never undercount; the inherited count is the counter's maximum error). Replacements are done with compare-and-set.
+ * <p>
+ * Each counter also sums a weight (e.g. encoded bytes), in total and per window, to enforce quotas.
+ * @since 0.1.2
+ */
+public final class SpaceSavingSketch {
+
+    private static final int WAYS = 4;
+    private static final int MAX_ATTEMPTS = 4;
+
+    private final AtomicReferenceArray<Counter> slots;
+    private final int bucketMask;
+
+    /**
+     * @param capacity the number of counters (rounded up to a power of two, at least {@value #WAYS})
+     */
+    public SpaceSavingSketch(int capacity) {
+        final int buckets = Math.max(1, capacity / WAYS);
+        final int size = buckets <= 1 ? 1 : Integer.highestOneBit(buckets - 1) << 1;
+        this.slots = new AtomicReferenceArray<Counter>(size * WAYS);
+        this.bucketMask = size - 1;
+    }
+
+    /**
+     * Counts an occurrence of a key.
+     *
+     * @param key the key (compared by identity first, so interned keys like message templates are cheap)
+     * @return the counter of the key or {@code null} if it could not be tracked due to concurrent replacements.
+     */
+    public Counter add(String key) {
+        final int hash = key.hashCode();
+        final int bucket = ((hash ^ (hash >>> 16)) & bucketMask) * WAYS;
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            int lightest = -1;
+            Counter lightestCounter = null;
+            long lightestCount = Long.MAX_VALUE;
+            for (int way = 0; way < WAYS; way++) {
+                final Counter counter = slots.get(bucket + way);
+                if (counter == null) {
+                    if (lightestCount > 0L) {
+                        lightest = bucket + way;
+                        lightestCounter = null;
+                        lightestCount = 0L;
+                    }
+                    continue;
+                }
+                if (counter.key == key || counter.key.equals(key)) {
+                    counter.count.incrementAndGet();
+                    return counter;
+                }
+                final long count = counter.count.get();
+                if (count < lightestCount) {
+                    lightest = bucket + way;
+                    lightestCounter = counter;
+                    lightestCount = count;
+                }
+            }
+            final Counter created = new Counter(key, lightestCount);
+            if (slots.compareAndSet(lightest, lightestCounter, created)) {
+                return created;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param limit the maximum number of keys to return
+     * @param byWeight {@code true} to rank by the summed weight, {@code false} to rank by count
+     * @return the tracked keys with their count or weight, highest first.
+     */
+    public Map<String, Long> top(int limit, final boolean byWeight) {
+        final List<Counter> counters = new ArrayList<Counter>();
+        for (int i = 0; i < slots.length(); i++) {
+            final Counter counter = slots.get(i);
+            if (counter != null) {
+                counters.add(counter);
+            }
+        }
+        Collections.sort(counters, new Comparator<Counter>() {
+            @Override
+            public int compare(Counter a, Counter b) {
+                return byWeight ? Long.compare(b.weight.get(), a.weight.get()) : Long.compare(b.count.get(), a.count.get());
+            }
+        });
+        final Map<String, Long> top = new LinkedHashMap<String, Long>();
+        for (Counter counter : counters) {
+            if (top.size() >= limit) {
+                break;
+            }
+            top.put(counter.key, byWeight ? counter.weight.get() : counter.count.get());
+        }
+        return top;
+    }
+
+    /**
+     * Starts a new quota window for all counters.
+     */
+    public void resetWindows() {
+        for (int i = 0; i < slots.length(); i++) {
+            final Counter counter = slots.get(i);
+            if (counter != null) {
+                counter.windowWeight.set(0L);
+            }
+        }
+    }
+
+    /**
+     * Forgets all keys.
+     */
+    public void reset() {
+        for (int i = 0; i < slots.length(); i++) {
+            slots.set(i, null);
+        }
+    }
+
+    /**
+     * The counter of one tracked key.
+     */
+    public static final class Counter {
+        private final String key;
+        private final long error;
+        private final AtomicLong count;
+        private final AtomicLong weight = new AtomicLong();
+        private final AtomicLong windowWeight = new AtomicLong();
+
+        Counter(String key, long inherited) {
+            this.key = key;
+            this.error = inherited;
+            this.count = new AtomicLong(inherited + 1);
+        }
+
+        /**
+         * @param weight the weight to add (e.g. the encoded size of an event).
+         */
+        public void addWeight(long weight) {
+            this.weight.addAndGet(weight);
+            this.windowWeight.addAndGet(weight);
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        /**
+         * @return the (over-)estimated number of occurrences.
+         */
+        public long getCount() {
+            return count.get();
+        }
+
+        /**
+         * @return the maximum overcount of {@link #getCount()}.
+         */
+        public long getError() {
+            return error;
+        }
+
+        /**
+         * @return the summed weight since the key is tracked.
+         */
+        public long getWeight() {
+            return weight.get();
+        }
+
+        /**
+         * @return the summed weight in the current quota window.
+         */
+        public long getWindowWeight() {
+            return windowWeight.get();
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.github.danielwegener.logback.kafka.metrics;
+
+import ch.qos.logback.classic.Level;
+import com.github.danielwegener.logback.kafka.message.KafkaLogMessage;
+import com.github.danielwegener.logback.kafka.message.KafkaLogMessageBuilder;
+import com.github.danielwegener.logback.kafka.message.LogbackLogEvent;
+
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Creates the self-stats records an appender publishes to its {@code statsTopic}. A stats record is a compact snapshot
+ * of the appender's counters (totals since the appender was created), its buffer fill, the p99 latencies of the last
+ * metrics interval and the producer's record queue time. It is built from the monitor's counters and samples only, so
+ * it adds no work per event.
+ * @since 0.1.2
+ */
+public final class StatsRecords {
+
+    public static final String FIELD_APPENDER = "stats_appender";
+    public static final String FIELD_HOST = "stats_host";
+    public static final String FIELD_APPENDED = "stats_appended";
+    public static final String FIELD_ENCODED = "stats_encoded";
+    public static final String FIELD_BYTES = "stats_bytes";
+    public static final String FIELD_SENT = "stats_sent";
+    public static final String FIELD_ACKED = "stats_acked";
+    public static final String FIELD_FAILED = "stats_failed";
+    public static final String FIELD_DROPPED = "stats_dropped";
+    public static final String FIELD_BUFFER_FILL = "stats_buffer_fill";
+    public static final String FIELD_SEND_LATENCY_P99 = "stats_send_latency_p99_us";
+    public static final String FIELD_ACK_LATENCY_P99 = "stats_ack_latency_p99_us";
+    public static final String FIELD_QUEUE_TIME_AVG = "stats_queue_time_avg_ms";
+    public static final String FIELD_QUEUE_TIME_MAX = "stats_queue_time_max_ms";
+
+    private static final String DEFAULT_PRODUCER = "default.";
+
+    private StatsRecords() {
+    }
+
+    /**
+     * @param appenderName the name of the appender
+     * @param host the name of the host the appender runs on or {@code null}
+     * @param metrics the metrics of the appender
+     * @param timestamp the time of the snapshot in epoch milliseconds
+     * @return the stats record.
+     */
+    public static KafkaLogMessage create(String appenderName, String host, KafkaAppenderMonitorMXBean metrics, long timestamp) {
+        final KafkaLogMessageBuilder builder = KafkaLogMessageBuilder.newInstance()
+                .withFullMessage("Stats of kafka appender " + appenderName)
+                .withJavaTimestamp(timestamp)
+                .withLevel("" + LogbackLogEvent.levelToSyslogLevel(Level.INFO))
+                .withField(FIELD_APPENDER, appenderName)
+                .withField(FIELD_APPENDED, Long.toString(metrics.getAppendedCount()))
+                .withField(FIELD_ENCODED, Long.toString(metrics.getEncodedCount()))
+                .withField(FIELD_BYTES, Long.toString(metrics.getEncodedBytes()))
+                .withField(FIELD_SENT, Long.toString(metrics.getSentCount()))
+                .withField(FIELD_ACKED, Long.toString(metrics.getAckedCount()))
+                .withField(FIELD_FAILED, Long.toString(metrics.getFailedCount()))
+                .withField(FIELD_DROPPED, Long.toString(metrics.getDroppedCount()))
+                .withField(FIELD_BUFFER_FILL, Double.toString(metrics.getBufferFill()));
+        if (host != null) {
+            builder.withField(FIELD_HOST, host);
+        }
+        for (Map.Entry<String, Long> dropped : metrics.getDroppedCounts().entrySet()) {
+            builder.withField(FIELD_DROPPED + "." + dropped.getKey().toLowerCase(Locale.ROOT), Long.toString(dropped.getValue()));
+        }
+        addValue(builder, FIELD_SEND_LATENCY_P99, metrics.getSendLatencyMicros().get("p99"));
+        addValue(builder, FIELD_ACK_LATENCY_P99, metrics.getAckLatencyMicros().get("p99"));
+        final Map<String, Double> producerMetrics = metrics.getProducerMetrics();
+        addValue(builder, FIELD_QUEUE_TIME_AVG, producerMetrics.get(DEFAULT_PRODUCER + "record-queue-time-avg"));
+        addValue(builder, FIELD_QUEUE_TIME_MAX, producerMetrics.get(DEFAULT_PRODUCER + "record-queue-time-max"));
+        return builder.build();
+    }
+
+    private static void addValue(KafkaLogMessageBuilder builder, String field, Number value) {
+        if (value != null && !Double.isNaN(value.doubleValue()) && !Double.isInfinite(value.doubleValue())) {
+            builder.withField(field, value.toString());
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.github.danielwegener.logback.kafka.metrics;
+
+import ch.qos.logback.core.spi.ContextAwareBase;
+
+import java.util.Map;
+
+/**
+ * Reports the metrics of an appender as logback info status, e.g. to be seen with {@code <configuration debug="true">}
+ * or a status listener.
+ * @since 0.1.2
+ */
+public class StatusMetricsReporter extends ContextAwareBase implements MetricsReporter {
+
+    private boolean includeProducerMetrics = true;
+    private boolean includeStepTimings = false;
+
+    @Override
+    public void report(String appenderName, KafkaAppenderMonitorMXBean metrics) {
+        final StringBuilder status = new StringBuilder("Appender [\"").append(appenderName).append("\"]:")
+                .append(" appended=").append(metrics.getAppendedCount())
+                .append(" sent=").append(metrics.getSentCount())
+                .append(" acked=").append(metrics.getAckedCount())
+                .append(" failed=").append(metrics.getFailedCount())
+                .append(" fallback=").append(metrics.getFallbackCount())
+                .append(" dropped=").append(metrics.getDroppedCount())
+                .append(" bytes=").append(metrics.getEncodedBytes())
+                .append(" bufferFill=").append(metrics.getBufferFill())
+                .append(" sendLatencyMicros=").append(metrics.getSendLatencyMicros())
+                .append(" ackLatencyMicros=").append(metrics.getAckLatencyMicros());
+        if (includeStepTimings) {
+            status.append(" stepTimingsNanos=").append(metrics.getStepTimingsNanos());
+        }
+        if (includeProducerMetrics) {
+            for (Map.Entry<String, Double> metric : metrics.getProducerMetrics().entrySet()) {
+                status.append(' ').append(metric.getKey()).append('=').append(metric.getValue());
+            }
+        }
+        addInfo(status.toString());
+    }
+
+    public boolean isIncludeStepTimings() {
+        return includeStepTimings;
+    }
+
+    /**
+     * @param includeStepTimings whether the pipeline step timings are reported too (default: {@code false}).
+     */
+    public void setIncludeStepTimings(boolean includeStepTimings) {
+        this.includeStepTimings = includeStepTimings;
+    }
+
+    public boolean isIncludeProducerMetrics() {
+        return includeProducerMetrics;
+    }
+
+    /**
+     * @param includeProducerMetrics whether the sampled producer metrics are reported too (default: {@code true}).
+     */
+    public void setIncludeProducerMetrics(boolean includeProducerMetrics) {
+        this.includeProducerMetrics = includeProducerMetrics;
+    }
+}
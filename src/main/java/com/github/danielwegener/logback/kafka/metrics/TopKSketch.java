@@ -0,0 +1,155 @@
+package com.github.danielwegener.logback.kafka.metrics;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Finds the heaviest keys (e.g. logger names) of a stream with constant memory: a count-min sketch estimates the
+ * weight of every key and a small candidate set holds the {@code k} keys with the highest estimates.
+ * <p>
+ * Estimates never undercount; they overcount by at most {@code e/width} of the total weight with a probability of
+ * {@code 1 - e^-depth}. Adding a key is a few atomic increments. Only keys whose estimate reaches the weight of the
+ * lightest candidate take a lock to enter the candidate set.
+ * @since 0.1.2
+ */
+public final class TopKSketch {
+
+    private final int k;
+    private final int depth;
+    private final int mask;
+    private final AtomicLongArray counts;
+    private final ConcurrentMap<String, Boolean> candidates = new ConcurrentHashMap<String, Boolean>();
+    private volatile long threshold = 0L;
+
+    /**
+     * @param k     the number of heavy hitters to track
+     * @param depth the number of hash rows
+     * @param width the number of counters per row (rounded up to a power of two)
+     */
+    public TopKSketch(int k, int depth, int width) {
+        this.k = k;
+        this.depth = depth;
+        final int rowSize = width <= 16 ? 16 : Integer.highestOneBit(width - 1) << 1;
+        this.mask = rowSize - 1;
+        this.counts = new AtomicLongArray(depth * rowSize);
+    }
+
+    /**
+     * Adds weight to a key.
+     *
+     * @param key    the key
+     * @param weight the weight (e.g. {@code 1} per event or the number of bytes)
+     */
+    public void add(String key, long weight) {
+        final int hash = key.hashCode();
+        final int h1 = mix(hash);
+        final int h2 = mix(h1 ^ hash) | 1;
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counts.addAndGet(index(row, h1, h2), weight));
+        }
+        if (estimate >= threshold && !candidates.containsKey(key)) {
+            admit(key, estimate);
+        }
+    }
+
+    /**
+     * @param key a key
+     * @return the estimated total weight of the key.
+     */
+    public long estimate(String key) {
+        final int hash = key.hashCode();
+        final int h1 = mix(hash);
+        final int h2 = mix(h1 ^ hash) | 1;
+        long estimate = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            estimate = Math.min(estimate, counts.get(index(row, h1, h2)));
+        }
+        return estimate;
+    }
+
+    private synchronized void admit(String key, long estimate) {
+        if (candidates.containsKey(key)) {
+            return;
+        }
+        if (candidates.size() < k) {
+            candidates.put(key, Boolean.TRUE);
+        } else {
+            String lightest = null;
+            long lightestEstimate = Long.MAX_VALUE;
+            for (String candidate : candidates.keySet()) {
+                final long candidateEstimate = estimate(candidate);
+                if (candidateEstimate < lightestEstimate) {
+                    lightest = candidate;
+                    lightestEstimate = candidateEstimate;
+                }
+            }
+            if (lightest == null || estimate <= lightestEstimate) {
+                threshold = lightestEstimate + 1;
+                return;
+            }
+            candidates.remove(lightest);
+            candidates.put(key, Boolean.TRUE);
+        }
+        if (candidates.size() >= k) {
+            long lightestEstimate = Long.MAX_VALUE;
+            for (String candidate : candidates.keySet()) {
+                lightestEstimate = Math.min(lightestEstimate, estimate(candidate));
+            }
+            threshold = lightestEstimate + 1;
+        }
+    }
+
+    /**
+     * @return the heavy hitters with their estimated weight, heaviest first.
+     */
+    public Map<String, Long> top() {
+        final List<Map.Entry<String, Long>> entries = new ArrayList<Map.Entry<String, Long>>();
+        for (String candidate : candidates.keySet()) {
+            entries.add(new AbstractMap.SimpleImmutableEntry<String, Long>(candidate, estimate(candidate)));
+        }
+        Collections.sort(entries, new Comparator<Map.Entry<String, Long>>() {
+            @Override
+            public int compare(Map.Entry<String, Long> a, Map.Entry<String, Long> b) {
+                return Long.compare(b.getValue(), a.getValue());
+            }
+        });
+        final Map<String, Long> top = new LinkedHashMap<String, Long>();
+        for (Map.Entry<String, Long> entry : entries) {
+            top.put(entry.getKey(), entry.getValue());
+        }
+        return top;
+    }
+
+    /**
+     * Forgets all keys and weights.
+     */
+    public synchronized void reset() {
+        candidates.clear();
+        threshold = 0L;
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0L);
+        }
+    }
+
+    private int index(int row, int h1, int h2) {
+        return row * (mask + 1) + ((h1 + row * h2) & mask);
+    }
+
+    private static int mix(int hash) {
+        hash ^= hash >>> 16;
+        hash *= 0x85ebca6b;
+        hash ^= hash >>> 13;
+        hash *= 0xc2b2ae35;
+        hash ^= hash >>> 16;
+        return hash;
+    }
+}
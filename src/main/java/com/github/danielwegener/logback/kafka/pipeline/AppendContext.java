@@ -0,0 +1,71 @@
+package com.github.danielwegener.logback.kafka.pipeline;
+
+import com.github.danielwegener.logback.kafka.message.KafkaLogMessage;
+import com.github.danielwegener.logback.kafka.metrics.DropReason;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Per-append state that travels with a logging event through the {@link AppendStage}'s.
+ * It is confined to the appending thread.
+ * @since 0.1.2
+ */
+public final class AppendContext {
+
+    private final StageSink sink;
+    private Map<String, String> fields = null;
+    private DropReason dropReason = null;
+
+    public AppendContext(StageSink sink) {
+        this.sink = sink;
+    }
+
+    /**
+     * @return the sink of the appender, e.g. to release held back events before the current one.
+     */
+    public StageSink getSink() {
+        return sink;
+    }
+
+    /**
+     * Adds a field to the kafka message that will be assembled for the current event.
+     *
+     * @param name the field name
+     * @param value the field value
+     */
+    public void addField(String name, String value) {
+        if (fields == null) {
+            fields = new LinkedHashMap<String, String>();
+        }
+        fields.put(name, value);
+    }
+
+    /**
+     * Reports that a stage dropped the current event (as opposed to holding it back or aggregating it into another
+     * record). The appender counts dropped events and reports them in gap records.
+     *
+     * @param reason why the event was dropped
+     */
+    public void drop(DropReason reason) {
+        this.dropReason = reason;
+    }
+
+    /**
+     * @return why a stage dropped the current event or {@code null} if no stage reported a drop.
+     */
+    public DropReason getDropReason() {
+        return dropReason;
+    }
+
+    /**
+     * Applies all collected fields to the assembled message.
+     *
+     * @param message the assembled kafka message.
+     */
+    public void applyTo(KafkaLogMessage message) {
+        if (fields != null) {
+            message.addFields(fields);
+        }
+    }
+}
@@ -0,0 +1,38 @@
+package com.github.danielwegener.logback.kafka.pipeline;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+
+/**
+ * A stage of the append pipeline that sees every logging event before a kafka message is assembled for it.
+ * Stages may drop or hold back events and emit additional records through a {@link StageSink}.
+ * Stages are invoked concurrently by all logging threads and must therefore be thread-safe.
+ * @since 0.1.2
+ */
+public interface AppendStage {
+
+    /**
+     * Inspects a logging event before it is assembled into a kafka message.
+     *
+     * @param event the logging event
+     * @param context the per-append context that can be used to annotate the assembled message
+     * @return {@code true} if the event should continue through the pipeline, {@code false} if this stage dropped
+     * (see {@link AppendContext#drop}) or took ownership of it.
+     */
+    boolean process(ILoggingEvent event, AppendContext context);
+
+    /**
+     * Called after an event that passed this stage has been encoded.
+     *
+     * @param event the logging event
+     * @param payloadSize the size of the encoded payload in bytes
+     */
+    void onEncoded(ILoggingEvent event, int payloadSize);
+
+    /**
+     * Called periodically from the appender's housekeeping thread and once when the appender stops.
+     *
+     * @param sink the sink that accepts additional records (e.g. summaries).
+     */
+    void flush(StageSink sink);
+
+}
@@ -0,0 +1,37 @@
+package com.github.danielwegener.logback.kafka.pipeline;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.spi.ContextAwareBase;
+import ch.qos.logback.core.spi.LifeCycle;
+
+/**
+ * A base class for {@link AppendStage}'s that are {@link ContextAwareBase} and have a {@link LifeCycle}.
+ * @since 0.1.2
+ */
+public abstract class AppendStageBase extends ContextAwareBase implements AppendStage, LifeCycle {
+
+    private boolean started = false;
+
+    @Override
+    public void onEncoded(ILoggingEvent event, int payloadSize) {
+    }
+
+    @Override
+    public void flush(StageSink sink) {
+    }
+
+    @Override
+    public void start() {
+        started = true;
+    }
+
+    @Override
+    public void stop() {
+        started = false;
+    }
+
+    @Override
+    public boolean isStarted() {
+        return started;
+    }
+}
@@ -0,0 +1,175 @@
+package com.github.danielwegener.logback.kafka.pipeline;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import com.github.danielwegener.logback.kafka.message.ConfigurationSupport;
+import com.github.danielwegener.logback.kafka.metrics.DropReason;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Consistent head-based sampling by an MDC key (e.g. a trace or session id). The keep/drop decision is a pure function
+ * of the key value, so either all or none of the events of a request are kept, on every JVM.
+ * <p>
+ * The key value is hashed with 64-bit FNV-1a over its UTF-8 bytes, followed by the MurmurHash3 {@code fmix64}
+ * finalizer (FNV alone mixes the last bytes of similar keys poorly into the upper bits). An event is kept if the
+ * upper 53 bits of the hash, read as a fraction of {@code 2^53}, are below the sampling rate of the event's level.
+ * Kept events of sampled levels carry the field {@value #FIELD_SAMPLE_RATE} so downstream counts can be re-weighted.
+ * @since 0.1.2
+ */
+public class ConsistentSamplingStage extends AppendStageBase {
+
+    public static final String FIELD_SAMPLE_RATE = "sample_rate";
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+    private static final long FNV_PRIME = 0x100000001b3L;
+    private static final double UNIT = 0x1.0p-53;
+
+    private String mdcKey = "traceId";
+    private double rate = 1d;
+    private String levelRates = null;
+    private boolean keepUnkeyed = true;
+
+    private final double[] rates = new double[Levels.ALL.length];
+    private final String[] rateValues = new String[Levels.ALL.length];
+
+    @Override
+    public void start() {
+        Arrays.fill(rates, rate);
+        for (String levelRate : ConfigurationSupport.splitValues(levelRates)) {
+            final int index = levelRate.indexOf(ConfigurationSupport.EQ);
+            if (index == -1) {
+                addWarn("Ignoring invalid level rate \"" + levelRate + "\". Expected LEVEL=rate.");
+                continue;
+            }
+            final Level level = Level.toLevel(levelRate.substring(0, index).trim(), null);
+            if (level == null) {
+                addWarn("Ignoring level rate \"" + levelRate + "\" with unknown level.");
+                continue;
+            }
+            try {
+                rates[Levels.index(level)] = Double.parseDouble(levelRate.substring(index + 1).trim());
+            } catch (NumberFormatException e) {
+                addWarn("Ignoring level rate \"" + levelRate + "\" with invalid rate.");
+            }
+        }
+        for (int i = 0; i < rates.length; i++) {
+            rateValues[i] = rates[i] < 1d ? Double.toString(rates[i]) : null;
+        }
+        super.start();
+    }
+
+    @Override
+    public boolean process(ILoggingEvent event, AppendContext context) {
+        final int levelIndex = Levels.index(event.getLevel());
+        final double levelRate = rates[levelIndex];
+        if (levelRate >= 1d) {
+            return true;
+        }
+        final Map<String, String> mdc = event.getMDCPropertyMap();
+        final String key = mdc != null ? mdc.get(mdcKey) : null;
+        if (key == null) {
+            if (!keepUnkeyed) {
+                context.drop(DropReason.SAMPLED);
+            }
+            return keepUnkeyed;
+        }
+        if (!isSampled(key, levelRate)) {
+            context.drop(DropReason.SAMPLED);
+            return false;
+        }
+        context.addField(FIELD_SAMPLE_RATE, rateValues[levelIndex]);
+        return true;
+    }
+
+    /**
+     * @param key the sampling key
+     * @param rate the sampling rate ({@code 0..1})
+     * @return {@code true} if events with the given key are kept at the given rate.
+     */
+    static boolean isSampled(String key, double rate) {
+        return (fmix64(fnv1a64(key)) >>> 11) * UNIT < rate;
+    }
+
+    private static long fmix64(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    /**
+     * 64-bit FNV-1a over the UTF-8 encoding of the given string (computed without allocating the bytes).
+     */
+    static long fnv1a64(String value) {
+        long hash = FNV_OFFSET_BASIS;
+        final int length = value.length();
+        for (int i = 0; i < length; i++) {
+            int c = value.charAt(i);
+            if (c < 0x80) {
+                hash = (hash ^ c) * FNV_PRIME;
+            } else if (c < 0x800) {
+                hash = (hash ^ (0xc0 | (c >> 6))) * FNV_PRIME;
+                hash = (hash ^ (0x80 | (c & 0x3f))) * FNV_PRIME;
+            } else if (Character.isHighSurrogate((char) c) && i + 1 < length && Character.isLowSurrogate(value.charAt(i + 1))) {
+                final int codePoint = Character.toCodePoint((char) c, value.charAt(++i));
+                hash = (hash ^ (0xf0 | (codePoint >> 18))) * FNV_PRIME;
+                hash = (hash ^ (0x80 | ((codePoint >> 12) & 0x3f))) * FNV_PRIME;
+                hash = (hash ^ (0x80 | ((codePoint >> 6) & 0x3f))) * FNV_PRIME;
+                hash = (hash ^ (0x80 | (codePoint & 0x3f))) * FNV_PRIME;
+            } else {
+                hash = (hash ^ (0xe0 | (c >> 12))) * FNV_PRIME;
+                hash = (hash ^ (0x80 | ((c >> 6) & 0x3f))) * FNV_PRIME;
+                hash = (hash ^ (0x80 | (c & 0x3f))) * FNV_PRIME;
+            }
+        }
+        return hash;
+    }
+
+    public String getMdcKey() {
+        return mdcKey;
+    }
+
+    /**
+     * @param mdcKey the MDC key whose value decides about keeping an event (default: {@code traceId}).
+     */
+    public void setMdcKey(String mdcKey) {
+        this.mdcKey = mdcKey;
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    /**
+     * @param rate the sampling rate ({@code 0..1}) for all levels without an explicit level rate (default: {@code 1}).
+     */
+    public void setRate(double rate) {
+        this.rate = rate;
+    }
+
+    public String getLevelRates() {
+        return levelRates;
+    }
+
+    /**
+     * @param levelRates sampling rates per level, e.g. {@code INFO=0.05,DEBUG=0.01}.
+     */
+    public void setLevelRates(String levelRates) {
+        this.levelRates = levelRates;
+    }
+
+    public boolean isKeepUnkeyed() {
+        return keepUnkeyed;
+    }
+
+    /**
+     * @param keepUnkeyed whether events without a sampling key are kept (default: {@code true}).
+     */
+    public void setKeepUnkeyed(boolean keepUnkeyed) {
+        this.keepUnkeyed = keepUnkeyed;
+    }
+}
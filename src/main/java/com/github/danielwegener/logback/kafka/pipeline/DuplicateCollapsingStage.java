@@ -0,0 +1,256 @@
+package com.github.danielwegener.logback.kafka.pipeline;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import com.github.danielwegener.logback.kafka.message.ConfigurationSupport;
+import com.github.danielwegener.logback.kafka.message.KafkaLogMessageBuilder;
+import com.github.danielwegener.logback.kafka.message.LogbackLogEvent;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Collapses consecutive duplicate events. Events are duplicates if they share the logger, level, message template
+ * (the unformatted message) and the values of the configured key MDC entries (and optionally the thread).
+ * The first event of a run is passed through, repeats within {@code window} milliseconds are suppressed. When the run
+ * ends, a summary record (not a copy of the first event) is emitted with the fields {@value #FIELD_REPEAT_COUNT} (the
+ * number of suppressed repeats), {@value #FIELD_FIRST_TIMESTAMP} and {@value #FIELD_LAST_TIMESTAMP} (epoch
+ * milliseconds), the run's {@value #FIELD_REPEAT_LOGGER}, {@value #FIELD_REPEAT_LEVEL} and
+ * {@value #FIELD_REPEAT_TEMPLATE} and its key MDC values.
+ * <p>
+ * Runs are tracked in a fixed-size hash table (one run per slot, colliding runs replace each other) so memory
+ * stays constant regardless of the number of distinct messages. Ended runs wait for the next flush in a table of the
+ * same size, a run that ends while its slot is still occupied emits the waiting summary right away.
+ * @since 0.1.2
+ */
+public class DuplicateCollapsingStage extends AppendStageBase {
+
+    public static final String FIELD_REPEAT_COUNT = "repeat_count";
+    public static final String FIELD_FIRST_TIMESTAMP = "first_timestamp";
+    public static final String FIELD_LAST_TIMESTAMP = "last_timestamp";
+    public static final String FIELD_REPEAT_LOGGER = "repeat_logger";
+    public static final String FIELD_REPEAT_LEVEL = "repeat_level";
+    public static final String FIELD_REPEAT_TEMPLATE = "repeat_template";
+
+    private long window = 5000L;
+    private boolean perThread = false;
+    private String[] mdcKeys = new String[0];
+    private int tableSize = 1024;
+
+    private AtomicReferenceArray<Run> table;
+    private int mask;
+    private AtomicReferenceArray<Run> endedRuns;
+
+    @Override
+    public void start() {
+        final int size = tableSize <= 16 ? 16 : Integer.highestOneBit(tableSize - 1) << 1;
+        table = new AtomicReferenceArray<Run>(size);
+        endedRuns = new AtomicReferenceArray<Run>(size);
+        mask = size - 1;
+        super.start();
+    }
+
+    @Override
+    public boolean process(ILoggingEvent event, AppendContext context) {
+        final Map<String, String> mdc = mdcKeys.length > 0 ? event.getMDCPropertyMap() : null;
+        final String threadName = perThread ? event.getThreadName() : null;
+        final int hash = hash(event, mdc, threadName);
+        final int index = spread(hash) & mask;
+        final long timestamp = event.getTimeStamp();
+
+        final Run run = table.get(index);
+        // a run that has ended concurrently rejects the repeat, which then starts a new run
+        if (run != null && run.matches(hash, event, mdc, threadName, mdcKeys) && timestamp - run.lastTimestamp <= window
+                && run.repeat()) {
+            if (timestamp > run.lastTimestamp) {
+                run.lastTimestamp = timestamp;
+            }
+            return false;
+        }
+
+        final Run previous = table.getAndSet(index, new Run(hash, event, mdcValues(mdc), threadName));
+        if (previous != null && previous.end() > 0) {
+            final Run waiting = endedRuns.getAndSet(index, previous);
+            if (waiting != null) {
+                emitSummary(waiting, context.getSink());
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public void flush(StageSink sink) {
+        if (table == null) {
+            return;
+        }
+        for (int i = 0; i < endedRuns.length(); i++) {
+            final Run ended = endedRuns.getAndSet(i, null);
+            if (ended != null) {
+                emitSummary(ended, sink);
+            }
+        }
+
+        final long now = System.currentTimeMillis();
+        final boolean stopping = !isStarted();
+        for (int i = 0; i < table.length(); i++) {
+            final Run run = table.get(i);
+            if (run != null && (stopping || now - run.lastTimestamp > window) && table.compareAndSet(i, run, null)) {
+                if (run.end() > 0) {
+                    emitSummary(run, sink);
+                }
+            }
+        }
+    }
+
+    private void emitSummary(Run run, StageSink sink) {
+        final KafkaLogMessageBuilder builder = KafkaLogMessageBuilder.newInstance()
+                .withFullMessage(run.endedRepeats + " repeats of a " + run.level + " event suppressed from logger " + run.loggerName)
+                .withJavaTimestamp(run.lastTimestamp)
+                .withLevel("" + LogbackLogEvent.levelToSyslogLevel(run.level))
+                .withField(FIELD_REPEAT_LOGGER, run.loggerName)
+                .withField(FIELD_REPEAT_LEVEL, run.level.toString())
+                .withField(FIELD_REPEAT_COUNT, Long.toString(run.endedRepeats))
+                .withField(FIELD_FIRST_TIMESTAMP, Long.toString(run.firstTimestamp))
+                .withField(FIELD_LAST_TIMESTAMP, Long.toString(run.lastTimestamp));
+        if (run.template != null) {
+            builder.withField(FIELD_REPEAT_TEMPLATE, run.template);
+        }
+        for (int i = 0; i < run.mdcValues.length && i < mdcKeys.length; i++) {
+            if (run.mdcValues[i] != null) {
+                builder.withField(mdcKeys[i], run.mdcValues[i]);
+            }
+        }
+        sink.emit(builder.build(), null);
+    }
+
+    private int hash(ILoggingEvent event, Map<String, String> mdc, String threadName) {
+        int result = event.getLoggerName().hashCode();
+        result = 31 * result + event.getLevel().toInt();
+        result = 31 * result + Objects.hashCode(event.getMessage());
+        for (String mdcKey : mdcKeys) {
+            result = 31 * result + Objects.hashCode(mdc != null ? mdc.get(mdcKey) : null);
+        }
+        return 31 * result + Objects.hashCode(threadName);
+    }
+
+    private String[] mdcValues(Map<String, String> mdc) {
+        final String[] values = new String[mdcKeys.length];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = mdc != null ? mdc.get(mdcKeys[i]) : null;
+        }
+        return values;
+    }
+
+    private static int spread(int hash) {
+        return hash ^ (hash >>> 16);
+    }
+
+    static final class Run {
+        private static final long ENDED = -1L;
+
+        private final int hash;
+        private final String loggerName;
+        private final Level level;
+        private final String template;
+        private final String[] mdcValues;
+        private final String threadName;
+        private final long firstTimestamp;
+        private final AtomicLong repeats = new AtomicLong();
+        private volatile long lastTimestamp;
+        private volatile long endedRepeats;
+
+        Run(int hash, ILoggingEvent first, String[] mdcValues, String threadName) {
+            this.hash = hash;
+            this.loggerName = first.getLoggerName();
+            this.level = first.getLevel();
+            this.template = first.getMessage();
+            this.mdcValues = mdcValues;
+            this.threadName = threadName;
+            this.firstTimestamp = first.getTimeStamp();
+            this.lastTimestamp = firstTimestamp;
+        }
+
+        /**
+         * @return {@code false} if the run has ended and does not count repeats anymore.
+         */
+        boolean repeat() {
+            while (true) {
+                final long current = repeats.get();
+                if (current == ENDED) {
+                    return false;
+                }
+                if (repeats.compareAndSet(current, current + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * Ends the run, later repeats are rejected.
+         *
+         * @return the number of repeats or {@code -1} if the run has already ended.
+         */
+        long end() {
+            final long count = repeats.getAndSet(ENDED);
+            if (count != ENDED) {
+                endedRepeats = count;
+            }
+            return count;
+        }
+
+        boolean matches(int hash, ILoggingEvent event, Map<String, String> mdc, String threadName, String[] mdcKeys) {
+            if (this.hash != hash || level != event.getLevel() || !loggerName.equals(event.getLoggerName())
+                    || !Objects.equals(template, event.getMessage()) || !Objects.equals(this.threadName, threadName)) {
+                return false;
+            }
+            for (int i = 0; i < mdcKeys.length; i++) {
+                if (!Objects.equals(mdcValues[i], mdc != null ? mdc.get(mdcKeys[i]) : null)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    public long getWindow() {
+        return window;
+    }
+
+    /**
+     * @param window the maximum time in milliseconds between two repeats of a run.
+     */
+    public void setWindow(long window) {
+        this.window = window;
+    }
+
+    public boolean isPerThread() {
+        return perThread;
+    }
+
+    /**
+     * @param perThread if {@code true}, only repeats from the same thread are collapsed.
+     */
+    public void setPerThread(boolean perThread) {
+        this.perThread = perThread;
+    }
+
+    /**
+     * @param mdcKeys comma separated MDC keys whose values must also match for events to be duplicates.
+     */
+    public void setMdcKeys(String mdcKeys) {
+        this.mdcKeys = ConfigurationSupport.splitValues(mdcKeys);
+    }
+
+    public int getTableSize() {
+        return tableSize;
+    }
+
+    /**
+     * @param tableSize the number of runs that can be tracked at once (rounded up to a power of two).
+     */
+    public void setTableSize(int tableSize) {
+        this.tableSize = tableSize;
+    }
+}
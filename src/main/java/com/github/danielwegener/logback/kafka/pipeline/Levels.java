@@ -0,0 +1,25 @@
+package com.github.danielwegener.logback.kafka.pipeline;
+
+import ch.qos.logback.classic.Level;
+
+/**
+ * Maps the logback levels of logging events to dense array indices.
+ * @since 0.1.2
+ */
+public final class Levels {
+
+    public static final Level[] ALL = {Level.TRACE, Level.DEBUG, Level.INFO, Level.WARN, Level.ERROR};
+
+    private Levels() {
+    }
+
+    public static int index(Level level) {
+        switch (level.toInt()) {
+            case Level.ERROR_INT: return 4;
+            case Level.WARN_INT: return 3;
+            case Level.INFO_INT: return 2;
+            case Level.DEBUG_INT: return 1;
+            default: return 0;
+        }
+    }
+}
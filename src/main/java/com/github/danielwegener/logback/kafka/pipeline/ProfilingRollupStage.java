@@ -0,0 +1,175 @@
+package com.github.danielwegener.logback.kafka.pipeline;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import com.github.danielwegener.logback.kafka.message.KafkaLogMessage;
+import com.github.danielwegener.logback.kafka.message.KafkaLogMessageBuilder;
+import com.github.danielwegener.logback.kafka.message.KafkaLogUtil;
+import com.github.danielwegener.logback.kafka.message.LogbackLogEvent;
+import com.github.danielwegener.logback.kafka.metrics.Histogram;
+import org.slf4j.Marker;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Aggregates request durations into latency histograms per endpoint. For every event that carries the marker
+ * {@code requestEndMarker} (default: {@code REQUEST_END}) and a request start in the MDC entry
+ * {@value KafkaLogUtil#MDC_REQUEST_START_MS}, the time from the request start to the event timestamp is recorded into
+ * the histogram of the endpoint named by the MDC entry {@code endpointMdcKey}. Every {@code interval} milliseconds one
+ * summary record per endpoint is emitted to {@code topic} (default: the appender's topic).
+ * <p>
+ * The stage only observes events, they are still shipped unless {@code dropEndEvents} is set.
+ * @since 0.1.2
+ */
+public class ProfilingRollupStage extends AppendStageBase {
+
+    public static final String FIELD_ENDPOINT = "profiling_endpoint";
+    public static final String FIELD_DURATION = "duration_ms";
+    public static final String FIELD_ROLLUP_START = "rollup_start";
+    public static final String FIELD_ROLLUP_END = "rollup_end";
+
+    private static final String OTHER_ENDPOINT = "*";
+
+    private String endpointMdcKey = "endpoint";
+    private String requestEndMarker = "REQUEST_END";
+    private long interval = 60000L;
+    private String topic = null;
+    private int maxEndpoints = 256;
+    private boolean dropEndEvents = false;
+
+    private final ConcurrentMap<String, Histogram> endpoints = new ConcurrentHashMap<String, Histogram>();
+    private final Histogram other = new Histogram();
+    private volatile long intervalStart = System.currentTimeMillis();
+
+    @Override
+    public boolean process(ILoggingEvent event, AppendContext context) {
+        final Marker marker = event.getMarker();
+        if (requestEndMarker != null && (marker == null || !marker.contains(requestEndMarker))) {
+            return true;
+        }
+        final Map<String, String> mdc = event.getMDCPropertyMap();
+        if (mdc == null) {
+            return true;
+        }
+        final long durationMs = KafkaLogUtil.getRequestDuration(mdc.get(KafkaLogUtil.MDC_REQUEST_START_MS), event.getTimeStamp());
+        if (durationMs < 0) {
+            return true;
+        }
+        histogramFor(mdc.get(endpointMdcKey)).record(durationMs);
+        return !dropEndEvents;
+    }
+
+    private Histogram histogramFor(String endpoint) {
+        if (endpoint == null) {
+            return other;
+        }
+        Histogram histogram = endpoints.get(endpoint);
+        if (histogram == null) {
+            if (endpoints.size() >= maxEndpoints) {
+                return other;
+            }
+            final Histogram created = new Histogram();
+            histogram = endpoints.putIfAbsent(endpoint, created);
+            if (histogram == null) histogram = created;
+        }
+        return histogram;
+    }
+
+    @Override
+    public void flush(StageSink sink) {
+        final long now = System.currentTimeMillis();
+        final long start = intervalStart;
+        if (isStarted() && now - start < interval) {
+            return;
+        }
+        intervalStart = now;
+        for (Map.Entry<String, Histogram> endpoint : endpoints.entrySet()) {
+            emitSummary(endpoint.getKey(), endpoint.getValue().snapshotAndReset(), start, now, sink);
+        }
+        emitSummary(OTHER_ENDPOINT, other.snapshotAndReset(), start, now, sink);
+    }
+
+    private void emitSummary(String endpoint, Histogram.Snapshot snapshot, long start, long end, StageSink sink) {
+        if (snapshot.getCount() == 0) {
+            return;
+        }
+        final KafkaLogMessage summary = KafkaLogMessageBuilder.newInstance()
+                .withFullMessage(snapshot.getCount() + " requests to " + endpoint + ", p99 " + snapshot.getValueAtQuantile(0.99) + "ms")
+                .withJavaTimestamp(end)
+                .withLevel("" + LogbackLogEvent.levelToSyslogLevel(Level.INFO))
+                .withField(FIELD_ENDPOINT, endpoint)
+                .withField(FIELD_ROLLUP_START, Long.toString(start))
+                .withField(FIELD_ROLLUP_END, Long.toString(end))
+                .build();
+        RollupStage.addHistogramFields(summary, FIELD_DURATION, snapshot);
+        sink.emit(summary, null, topic);
+    }
+
+    public String getEndpointMdcKey() {
+        return endpointMdcKey;
+    }
+
+    /**
+     * @param endpointMdcKey the MDC key that names the endpoint of a request (default: {@code endpoint}).
+     */
+    public void setEndpointMdcKey(String endpointMdcKey) {
+        this.endpointMdcKey = endpointMdcKey;
+    }
+
+    public String getRequestEndMarker() {
+        return requestEndMarker;
+    }
+
+    /**
+     * @param requestEndMarker the name of the marker of the event that ends a request (default: {@code REQUEST_END}).
+     */
+    public void setRequestEndMarker(String requestEndMarker) {
+        this.requestEndMarker = requestEndMarker;
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * @param interval the interval in milliseconds in which summaries are emitted (default: {@code 60000}).
+     */
+    public void setInterval(long interval) {
+        this.interval = interval;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    /**
+     * @param topic the topic the summary records are sent to (default: the appender's topic).
+     */
+    public void setTopic(String topic) {
+        this.topic = topic;
+    }
+
+    public int getMaxEndpoints() {
+        return maxEndpoints;
+    }
+
+    /**
+     * @param maxEndpoints the maximum number of endpoints with their own histogram. Further endpoints share one.
+     */
+    public void setMaxEndpoints(int maxEndpoints) {
+        this.maxEndpoints = maxEndpoints;
+    }
+
+    public boolean isDropEndEvents() {
+        return dropEndEvents;
+    }
+
+    /**
+     * @param dropEndEvents if {@code true}, the request end events are only recorded and not shipped.
+     */
+    public void setDropEndEvents(boolean dropEndEvents) {
+        this.dropEndEvents = dropEndEvents;
+    }
+}
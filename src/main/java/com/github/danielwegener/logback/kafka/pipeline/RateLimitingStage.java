@@ -0,0 +1,239 @@
+package com.github.danielwegener.logback.kafka.pipeline;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import com.github.danielwegener.logback.kafka.message.KafkaLogMessage;
+import com.github.danielwegener.logback.kafka.message.KafkaLogMessageBuilder;
+import com.github.danielwegener.logback.kafka.message.LogbackLogEvent;
+import com.github.danielwegener.logback.kafka.metrics.DropReason;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Limits the rate of events per logger name and level with token buckets (by event count and by encoded bytes).
+ * The limit is checked before the kafka message is assembled so suppressed events cost almost nothing.
+ * Every {@code summaryInterval} milliseconds a summary record is emitted for every logger that had suppressed events.
+ * <p>
+ * The buckets are implemented with the generic cell rate algorithm: each bucket is a single {@link AtomicLong}
+ * (its theoretical arrival time), updated lock-free with compare-and-set.
+ * @since 0.1.2
+ */
+public class RateLimitingStage extends AppendStageBase {
+
+    public static final String FIELD_SUPPRESSED_COUNT = "suppressed_count";
+    public static final String FIELD_SUPPRESSED_LOGGER = "suppressed_logger";
+    public static final String FIELD_SUPPRESSED_LEVEL = "suppressed_level";
+
+    private static final String OVERFLOW_LOGGER_NAME = "*";
+
+    private double eventsPerSecond = 0;
+    private int burst = 100;
+    private long bytesPerSecond = 0;
+    private long byteBurst = 1024 * 1024;
+    private long summaryInterval = 10000L;
+    private int maxLoggers = 1024;
+
+    private final ConcurrentMap<String, LoggerBuckets> buckets = new ConcurrentHashMap<String, LoggerBuckets>();
+    private final LoggerBuckets overflow = new LoggerBuckets(OVERFLOW_LOGGER_NAME);
+    private long nanosPerEvent;
+    private long eventTolerance;
+    private double nanosPerByte;
+    private long byteTolerance;
+    private volatile long lastSummary = System.currentTimeMillis();
+
+    @Override
+    public void start() {
+        if (eventsPerSecond <= 0 && bytesPerSecond <= 0) {
+            addWarn("Neither eventsPerSecond nor bytesPerSecond is set. The rate limiter will not limit anything.");
+        }
+        nanosPerEvent = eventsPerSecond > 0 ? (long) (TimeUnit.SECONDS.toNanos(1) / eventsPerSecond) : 0L;
+        eventTolerance = nanosPerEvent * Math.max(1, burst);
+        nanosPerByte = bytesPerSecond > 0 ? (double) TimeUnit.SECONDS.toNanos(1) / bytesPerSecond : 0d;
+        byteTolerance = (long) (nanosPerByte * Math.max(1L, byteBurst));
+        super.start();
+    }
+
+    @Override
+    public boolean process(ILoggingEvent event, AppendContext context) {
+        final Bucket bucket = bucketFor(event);
+        final long now = TimeUnit.MILLISECONDS.toNanos(event.getTimeStamp());
+
+        if (nanosPerByte > 0 && bucket.byteTat.get() - now > byteTolerance) {
+            bucket.suppressed.incrementAndGet();
+            context.drop(DropReason.RATE_LIMITED);
+            return false;
+        }
+        if (nanosPerEvent > 0 && !tryAcquire(bucket.eventTat, now, nanosPerEvent, eventTolerance)) {
+            bucket.suppressed.incrementAndGet();
+            context.drop(DropReason.RATE_LIMITED);
+            return false;
+        }
+        return true;
+    }
+
+    @Override
+    public void onEncoded(ILoggingEvent event, int payloadSize) {
+        if (nanosPerByte > 0) {
+            final long now = TimeUnit.MILLISECONDS.toNanos(event.getTimeStamp());
+            final long cost = (long) (nanosPerByte * payloadSize);
+            final AtomicLong tat = bucketFor(event).byteTat;
+            // bytes are only known after encoding, so they are charged unconditionally and may put the bucket into debt
+            long current;
+            do {
+                current = tat.get();
+            } while (!tat.compareAndSet(current, Math.max(current, now) + cost));
+        }
+    }
+
+    @Override
+    public void flush(StageSink sink) {
+        final long now = System.currentTimeMillis();
+        if (isStarted() && now - lastSummary < summaryInterval) {
+            return;
+        }
+        lastSummary = now;
+        for (LoggerBuckets loggerBuckets : buckets.values()) {
+            emitSummaries(loggerBuckets, now, sink);
+        }
+        emitSummaries(overflow, now, sink);
+    }
+
+    private void emitSummaries(LoggerBuckets loggerBuckets, long now, StageSink sink) {
+        for (int i = 0; i < Levels.ALL.length; i++) {
+            final long suppressed = loggerBuckets.levels[i].suppressed.getAndSet(0);
+            if (suppressed > 0) {
+                sink.emit(createSummary(loggerBuckets.loggerName, Levels.ALL[i], suppressed, now), null);
+            }
+        }
+    }
+
+    private KafkaLogMessage createSummary(String loggerName, Level level, long suppressed, long now) {
+        return KafkaLogMessageBuilder.newInstance()
+                .withFullMessage(suppressed + " " + level + " events suppressed from logger " + loggerName)
+                .withJavaTimestamp(now)
+                .withLevel("" + LogbackLogEvent.levelToSyslogLevel(Level.WARN))
+                .withField(FIELD_SUPPRESSED_LOGGER, loggerName)
+                .withField(FIELD_SUPPRESSED_LEVEL, level.toString())
+                .withField(FIELD_SUPPRESSED_COUNT, Long.toString(suppressed))
+                .build();
+    }
+
+    private Bucket bucketFor(ILoggingEvent event) {
+        final String loggerName = event.getLoggerName();
+        LoggerBuckets loggerBuckets = buckets.get(loggerName);
+        if (loggerBuckets == null) {
+            if (buckets.size() >= maxLoggers) {
+                loggerBuckets = overflow;
+            } else {
+                final LoggerBuckets created = new LoggerBuckets(loggerName);
+                loggerBuckets = buckets.putIfAbsent(loggerName, created);
+                if (loggerBuckets == null) loggerBuckets = created;
+            }
+        }
+        return loggerBuckets.levels[Levels.index(event.getLevel())];
+    }
+
+    /**
+     * Lock-free GCRA admission: admits if the theoretical arrival time after this event does not exceed the burst
+     * tolerance.
+     */
+    static boolean tryAcquire(AtomicLong tat, long now, long cost, long tolerance) {
+        while (true) {
+            final long current = tat.get();
+            final long next = Math.max(current, now) + cost;
+            if (next - now > tolerance) {
+                return false;
+            }
+            if (tat.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    private static final class LoggerBuckets {
+        private final String loggerName;
+        private final Bucket[] levels = new Bucket[Levels.ALL.length];
+
+        LoggerBuckets(String loggerName) {
+            this.loggerName = loggerName;
+            for (int i = 0; i < levels.length; i++) {
+                levels[i] = new Bucket();
+            }
+        }
+    }
+
+    private static final class Bucket {
+        private final AtomicLong eventTat = new AtomicLong();
+        private final AtomicLong byteTat = new AtomicLong();
+        private final AtomicLong suppressed = new AtomicLong();
+    }
+
+    public double getEventsPerSecond() {
+        return eventsPerSecond;
+    }
+
+    /**
+     * @param eventsPerSecond the sustained number of events per second and logger/level ({@code 0} disables the limit).
+     */
+    public void setEventsPerSecond(double eventsPerSecond) {
+        this.eventsPerSecond = eventsPerSecond;
+    }
+
+    public int getBurst() {
+        return burst;
+    }
+
+    /**
+     * @param burst the number of events a logger/level may emit at once before the rate limit applies.
+     */
+    public void setBurst(int burst) {
+        this.burst = burst;
+    }
+
+    public long getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * @param bytesPerSecond the sustained number of encoded bytes per second and logger/level ({@code 0} disables the limit).
+     */
+    public void setBytesPerSecond(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    public long getByteBurst() {
+        return byteBurst;
+    }
+
+    /**
+     * @param byteBurst the number of encoded bytes a logger/level may emit at once before the byte limit applies.
+     */
+    public void setByteBurst(long byteBurst) {
+        this.byteBurst = byteBurst;
+    }
+
+    public long getSummaryInterval() {
+        return summaryInterval;
+    }
+
+    /**
+     * @param summaryInterval the interval in milliseconds in which suppression summaries are emitted.
+     */
+    public void setSummaryInterval(long summaryInterval) {
+        this.summaryInterval = summaryInterval;
+    }
+
+    public int getMaxLoggers() {
+        return maxLoggers;
+    }
+
+    /**
+     * @param maxLoggers the maximum number of loggers with their own buckets. Further loggers share one bucket.
+     */
+    public void setMaxLoggers(int maxLoggers) {
+        this.maxLoggers = maxLoggers;
+    }
+}
@@ -0,0 +1,253 @@
+package com.github.danielwegener.logback.kafka.pipeline;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import com.github.danielwegener.logback.kafka.message.ConfigurationSupport;
+import com.github.danielwegener.logback.kafka.message.KafkaLogMessage;
+import com.github.danielwegener.logback.kafka.message.KafkaLogMessageBuilder;
+import com.github.danielwegener.logback.kafka.message.KafkaLogUtil;
+import com.github.danielwegener.logback.kafka.message.LogbackLogEvent;
+import com.github.danielwegener.logback.kafka.metrics.Histogram;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Rolls up low-value events into metrics instead of shipping them. Events of the configured {@code loggers} (name
+ * prefixes, all loggers by default) at or below {@code level} are only counted per logger and level. Numeric values of
+ * the MDC entries {@code histogramMdcKeys} are recorded into histograms. Every {@code interval} milliseconds one
+ * summary record per logger and level is emitted to {@code topic} (default: the appender's topic).
+ * <p>
+ * Counting uses striped {@link LongAdder}'s and lock-free {@link Histogram}'s so it scales with the number of
+ * logging threads.
+ * @since 0.1.2
+ */
+public class RollupStage extends AppendStageBase {
+
+    public static final String FIELD_ROLLUP_LOGGER = "rollup_logger";
+    public static final String FIELD_ROLLUP_LEVEL = "rollup_level";
+    public static final String FIELD_ROLLUP_COUNT = "rollup_count";
+    public static final String FIELD_ROLLUP_START = "rollup_start";
+    public static final String FIELD_ROLLUP_END = "rollup_end";
+
+    private static final String OVERFLOW_LOGGER_NAME = "*";
+
+    private String[] loggerPrefixes = null;
+    private Level level = Level.INFO;
+    private long interval = 60000L;
+    private String topic = null;
+    private String[] histogramMdcKeys = new String[0];
+    private int maxGroups = 1024;
+
+    private final ConcurrentMap<String, LoggerGroups> groups = new ConcurrentHashMap<String, LoggerGroups>();
+    private LoggerGroups overflow;
+    private volatile long intervalStart = System.currentTimeMillis();
+
+    @Override
+    public void start() {
+        overflow = new LoggerGroups(OVERFLOW_LOGGER_NAME, histogramMdcKeys.length);
+        super.start();
+    }
+
+    @Override
+    public boolean process(ILoggingEvent event, AppendContext context) {
+        if (event.getLevel().toInt() > level.toInt() || !matchesLogger(event.getLoggerName())) {
+            return true;
+        }
+        final Group group = groupFor(event);
+        group.count.increment();
+        if (histogramMdcKeys.length > 0) {
+            final Map<String, String> mdc = event.getMDCPropertyMap();
+            if (mdc != null) {
+                for (int i = 0; i < histogramMdcKeys.length; i++) {
+                    final long value = KafkaLogUtil.parseLong(mdc.get(histogramMdcKeys[i]), Long.MIN_VALUE);
+                    if (value != Long.MIN_VALUE) {
+                        group.histogram(i).record(value);
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean matchesLogger(String loggerName) {
+        if (loggerPrefixes == null) {
+            return true;
+        }
+        for (String loggerPrefix : loggerPrefixes) {
+            if (loggerName.startsWith(loggerPrefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Group groupFor(ILoggingEvent event) {
+        final String loggerName = event.getLoggerName();
+        LoggerGroups loggerGroups = groups.get(loggerName);
+        if (loggerGroups == null) {
+            if (groups.size() >= maxGroups) {
+                loggerGroups = overflow;
+            } else {
+                final LoggerGroups created = new LoggerGroups(loggerName, histogramMdcKeys.length);
+                loggerGroups = groups.putIfAbsent(loggerName, created);
+                if (loggerGroups == null) loggerGroups = created;
+            }
+        }
+        return loggerGroups.levels[Levels.index(event.getLevel())];
+    }
+
+    @Override
+    public void flush(StageSink sink) {
+        if (overflow == null) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        final long start = intervalStart;
+        if (isStarted() && now - start < interval) {
+            return;
+        }
+        intervalStart = now;
+        for (LoggerGroups loggerGroups : groups.values()) {
+            emitSummaries(loggerGroups, start, now, sink);
+        }
+        emitSummaries(overflow, start, now, sink);
+    }
+
+    private void emitSummaries(LoggerGroups loggerGroups, long start, long end, StageSink sink) {
+        for (int i = 0; i < Levels.ALL.length; i++) {
+            final Group group = loggerGroups.levels[i];
+            final long count = group.count.sumThenReset();
+            if (count == 0) {
+                continue;
+            }
+            final KafkaLogMessage summary = KafkaLogMessageBuilder.newInstance()
+                    .withFullMessage(count + " " + Levels.ALL[i] + " events from logger " + loggerGroups.loggerName)
+                    .withJavaTimestamp(end)
+                    .withLevel("" + LogbackLogEvent.levelToSyslogLevel(Levels.ALL[i]))
+                    .withField(FIELD_ROLLUP_LOGGER, loggerGroups.loggerName)
+                    .withField(FIELD_ROLLUP_LEVEL, Levels.ALL[i].toString())
+                    .withField(FIELD_ROLLUP_COUNT, Long.toString(count))
+                    .withField(FIELD_ROLLUP_START, Long.toString(start))
+                    .withField(FIELD_ROLLUP_END, Long.toString(end))
+                    .build();
+            for (int h = 0; h < histogramMdcKeys.length; h++) {
+                final Histogram histogram = group.histograms.get(h);
+                if (histogram != null) {
+                    addHistogramFields(summary, histogramMdcKeys[h], histogram.snapshotAndReset());
+                }
+            }
+            sink.emit(summary, null, topic);
+        }
+    }
+
+    /**
+     * Adds count, min, max, mean and the 50th, 90th and 99th percentile of a histogram as
+     * {@code <name>.count}, {@code <name>.p99} etc.
+     */
+    static void addHistogramFields(KafkaLogMessage message, String name, Histogram.Snapshot snapshot) {
+        if (snapshot.getCount() == 0) {
+            return;
+        }
+        message.addField(name + ".count", Long.toString(snapshot.getCount()));
+        message.addField(name + ".min", Long.toString(snapshot.getMin()));
+        message.addField(name + ".max", Long.toString(snapshot.getMax()));
+        message.addField(name + ".mean", Double.toString(snapshot.getMean()));
+        message.addField(name + ".p50", Long.toString(snapshot.getValueAtQuantile(0.5)));
+        message.addField(name + ".p90", Long.toString(snapshot.getValueAtQuantile(0.9)));
+        message.addField(name + ".p99", Long.toString(snapshot.getValueAtQuantile(0.99)));
+    }
+
+    private static final class LoggerGroups {
+        private final String loggerName;
+        private final Group[] levels = new Group[Levels.ALL.length];
+
+        LoggerGroups(String loggerName, int histograms) {
+            this.loggerName = loggerName;
+            for (int i = 0; i < levels.length; i++) {
+                levels[i] = new Group(histograms);
+            }
+        }
+    }
+
+    private static final class Group {
+        private final LongAdder count = new LongAdder();
+        // most groups never see a numeric MDC value, so histograms are created on the first recorded value
+        private final AtomicReferenceArray<Histogram> histograms;
+
+        Group(int histograms) {
+            this.histograms = new AtomicReferenceArray<Histogram>(histograms);
+        }
+
+        Histogram histogram(int index) {
+            final Histogram histogram = histograms.get(index);
+            if (histogram != null) {
+                return histogram;
+            }
+            histograms.compareAndSet(index, null, new Histogram());
+            return histograms.get(index);
+        }
+    }
+
+    /**
+     * @param loggers comma separated logger name prefixes whose events are rolled up (default: all loggers).
+     */
+    public void setLoggers(String loggers) {
+        final String[] prefixes = ConfigurationSupport.splitValues(loggers);
+        this.loggerPrefixes = prefixes.length > 0 ? prefixes : null;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    /**
+     * @param level the maximum level of events that are rolled up (default: {@code INFO}).
+     */
+    public void setLevel(String level) {
+        this.level = Level.toLevel(level, Level.INFO);
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    /**
+     * @param interval the rollup interval in milliseconds (default: {@code 60000}).
+     */
+    public void setInterval(long interval) {
+        this.interval = interval;
+    }
+
+    public String getTopic() {
+        return topic;
+    }
+
+    /**
+     * @param topic the topic the summary records are sent to (default: the appender's topic).
+     */
+    public void setTopic(String topic) {
+        this.topic = topic;
+    }
+
+    /**
+     * @param histogramMdcKeys comma separated MDC keys with numeric values that are recorded into histograms.
+     */
+    public void setHistogramMdcKeys(String histogramMdcKeys) {
+        this.histogramMdcKeys = ConfigurationSupport.splitValues(histogramMdcKeys);
+    }
+
+    public int getMaxGroups() {
+        return maxGroups;
+    }
+
+    /**
+     * @param maxGroups the maximum number of loggers that are rolled up separately. Further loggers share one group.
+     */
+    public void setMaxGroups(int maxGroups) {
+        this.maxGroups = maxGroups;
+    }
+}
@@ -0,0 +1,269 @@
+package com.github.danielwegener.logback.kafka.pipeline;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.IThrowableProxy;
+import ch.qos.logback.classic.spi.ThrowableProxyUtil;
+import com.github.danielwegener.logback.kafka.message.KafkaLogMessage;
+import com.github.danielwegener.logback.kafka.message.LogbackLogEvent;
+import org.slf4j.Marker;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Aggregates all events of a scope (e.g. a request) into a single record. Events that carry the MDC entry
+ * {@code scopeMdcKey} are accumulated per scope value and emitted as one record when the scope ends:
+ * <ul>
+ * <li>an event of the scope carries the marker {@code endMarker} (default: {@code SCOPE_END}),</li>
+ * <li>a thread that logged in the scope logs an event without (or with another value of) the scope MDC entry,</li>
+ * <li>the scope had no activity for {@code timeout} milliseconds or it reached {@code maxEntries} entries.</li>
+ * </ul>
+ * The record is assembled from the first event of the scope (so it carries its envelope: facility, static fields and
+ * MDC fields only once) and has the most severe level of its entries. The events themselves are carried in the field
+ * {@value #FIELD_ENTRIES}, an array of compact entries (timestamp, level, logger, thread, message and stack trace).
+ * @since 0.1.2
+ */
+public class ScopeAggregatingStage extends AppendStageBase {
+
+    public static final String FIELD_ENTRIES = "entries";
+    public static final String FIELD_ENTRY_COUNT = "entry_count";
+    public static final String FIELD_SCOPE_ID = "scope_id";
+    public static final String FIELD_LAST_TIMESTAMP = "last_timestamp";
+
+    public static final String ENTRY_TIMESTAMP = "timestamp";
+    public static final String ENTRY_LEVEL = "level";
+    public static final String ENTRY_LOGGER = "logger";
+    public static final String ENTRY_THREAD = "thread";
+    public static final String ENTRY_MESSAGE = "message";
+    public static final String ENTRY_STACK_TRACE = "stack_trace";
+
+    private String scopeMdcKey = "requestId";
+    private String endMarker = "SCOPE_END";
+    private long timeout = 30000L;
+    private int maxEntries = 256;
+    private int maxScopes = 1024;
+
+    private final ConcurrentMap<String, Scope> scopes = new ConcurrentHashMap<String, Scope>();
+    /**
+     * The scope each thread (by name) last logged in. Keyed by the event's thread name rather than a thread local
+     * so scope ends are also detected behind an asynchronous appender.
+     */
+    private final ConcurrentMap<String, String> threadScopes = new ConcurrentHashMap<String, String>();
+
+    @Override
+    public boolean process(ILoggingEvent event, AppendContext context) {
+        final Map<String, String> mdc = event.getMDCPropertyMap();
+        final String scopeId = mdc != null ? mdc.get(scopeMdcKey) : null;
+        final String threadName = event.getThreadName();
+
+        // most events stay in the scope of the previous event of their thread (or have none), so they only read
+        final String previousScopeId = threadScopes.get(threadName);
+        if (!Objects.equals(previousScopeId, scopeId)) {
+            if (scopeId != null) {
+                threadScopes.put(threadName, scopeId);
+            } else {
+                threadScopes.remove(threadName, previousScopeId);
+            }
+            if (previousScopeId != null) {
+                end(previousScopeId, scopes.get(previousScopeId), context.getSink());
+            }
+        }
+        if (scopeId == null) {
+            return true;
+        }
+
+        final Map<String, Object> entry = entry(event);
+        Scope scope;
+        do {
+            scope = scopes.get(scopeId);
+            if (scope == null) {
+                if (scopes.size() >= maxScopes) {
+                    threadScopes.remove(threadName, scopeId);
+                    return true;
+                }
+                // the first event is assembled when the scope ends, so its lazy state must be captured now
+                event.prepareForDeferredProcessing();
+                final Scope created = new Scope(event);
+                scope = scopes.putIfAbsent(scopeId, created);
+                if (scope == null) scope = created;
+            }
+        } while (!scope.add(entry, event));
+
+        final Marker marker = event.getMarker();
+        final boolean endOfScope = endMarker != null && marker != null && marker.contains(endMarker);
+        if (endOfScope) {
+            threadScopes.remove(threadName, scopeId);
+        }
+        if (endOfScope || scope.size() >= maxEntries) {
+            end(scopeId, scope, context.getSink());
+        }
+        return false;
+    }
+
+    @Override
+    public void flush(StageSink sink) {
+        final long now = System.currentTimeMillis();
+        final boolean stopping = !isStarted();
+        for (Map.Entry<String, Scope> scope : scopes.entrySet()) {
+            if (stopping || now - scope.getValue().lastActivity > timeout) {
+                end(scope.getKey(), scope.getValue(), sink);
+            }
+        }
+        if (stopping) {
+            threadScopes.clear();
+        } else {
+            // threads that stopped logging would otherwise keep the scopes they last logged in forever
+            for (Map.Entry<String, String> threadScope : threadScopes.entrySet()) {
+                if (!scopes.containsKey(threadScope.getValue())) {
+                    threadScopes.remove(threadScope.getKey(), threadScope.getValue());
+                }
+            }
+        }
+    }
+
+    private void end(String scopeId, Scope scope, StageSink sink) {
+        if (scope == null || !scope.end()) {
+            return;
+        }
+        scopes.remove(scopeId, scope);
+
+        final KafkaLogMessage message = sink.assemble(scope.first);
+        message.setFullMessage(scope.entries.size() + " events in scope " + scopeId);
+        message.setLevel("" + LogbackLogEvent.levelToSyslogLevel(scope.level));
+        message.addField(FIELD_SCOPE_ID, scopeId);
+        message.addField(FIELD_ENTRY_COUNT, Integer.toString(scope.entries.size()));
+        message.addField(FIELD_LAST_TIMESTAMP, Long.toString(scope.lastTimestamp));
+        message.addStructuredField(FIELD_ENTRIES, scope.entries);
+        sink.emit(message, scope.first);
+    }
+
+    /**
+     * @return the number of threads whose last event was in an open scope.
+     */
+    int getScopedThreads() {
+        return threadScopes.size();
+    }
+
+    private static Map<String, Object> entry(ILoggingEvent event) {
+        final Map<String, Object> entry = new LinkedHashMap<String, Object>();
+        entry.put(ENTRY_TIMESTAMP, event.getTimeStamp());
+        entry.put(ENTRY_LEVEL, event.getLevel().toString());
+        entry.put(ENTRY_LOGGER, event.getLoggerName());
+        entry.put(ENTRY_THREAD, event.getThreadName());
+        entry.put(ENTRY_MESSAGE, event.getFormattedMessage());
+        final IThrowableProxy throwableProxy = event.getThrowableProxy();
+        if (throwableProxy != null) {
+            entry.put(ENTRY_STACK_TRACE, ThrowableProxyUtil.asString(throwableProxy));
+        }
+        return entry;
+    }
+
+    /**
+     * The entries of one scope. A scope is usually written by a single thread at a time, so it is guarded by its own
+     * monitor rather than a shared lock.
+     */
+    private static final class Scope {
+        private final ILoggingEvent first;
+        private final List<Map<String, Object>> entries = new ArrayList<Map<String, Object>>();
+        private Level level = Level.TRACE;
+        private long lastTimestamp;
+        private boolean ended = false;
+        private volatile long lastActivity = System.currentTimeMillis();
+
+        Scope(ILoggingEvent first) {
+            this.first = first;
+        }
+
+        /**
+         * @return {@code false} if the scope has ended concurrently and the entry must go to a new scope.
+         */
+        synchronized boolean add(Map<String, Object> entry, ILoggingEvent event) {
+            if (ended) {
+                return false;
+            }
+            entries.add(entry);
+            if (event.getLevel().isGreaterOrEqual(level)) {
+                level = event.getLevel();
+            }
+            lastTimestamp = Math.max(lastTimestamp, event.getTimeStamp());
+            lastActivity = System.currentTimeMillis();
+            return true;
+        }
+
+        synchronized int size() {
+            return entries.size();
+        }
+
+        /**
+         * @return {@code true} if this call ended the scope.
+         */
+        synchronized boolean end() {
+            if (ended) {
+                return false;
+            }
+            ended = true;
+            return true;
+        }
+    }
+
+    public String getScopeMdcKey() {
+        return scopeMdcKey;
+    }
+
+    /**
+     * @param scopeMdcKey the MDC key that holds the scope id (default: {@code requestId}).
+     */
+    public void setScopeMdcKey(String scopeMdcKey) {
+        this.scopeMdcKey = scopeMdcKey;
+    }
+
+    public String getEndMarker() {
+        return endMarker;
+    }
+
+    /**
+     * @param endMarker the name of the marker that ends a scope (default: {@code SCOPE_END}).
+     */
+    public void setEndMarker(String endMarker) {
+        this.endMarker = endMarker;
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @param timeout the time in milliseconds after the last event of a scope after which it is emitted.
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @param maxEntries the maximum number of entries per record. Larger scopes are emitted in several records.
+     */
+    public void setMaxEntries(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    public int getMaxScopes() {
+        return maxScopes;
+    }
+
+    /**
+     * @param maxScopes the maximum number of open scopes. Events of further scopes are passed through unaggregated.
+     */
+    public void setMaxScopes(int maxScopes) {
+        this.maxScopes = maxScopes;
+    }
+}
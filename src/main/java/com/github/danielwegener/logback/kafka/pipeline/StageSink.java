@@ -0,0 +1,39 @@
+package com.github.danielwegener.logback.kafka.pipeline;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import com.github.danielwegener.logback.kafka.message.KafkaLogMessage;
+
+/**
+ * Accepts records that {@link AppendStage}'s produce outside of the regular append flow
+ * (summaries, released or aggregated events).
+ * @since 0.1.2
+ */
+public interface StageSink {
+
+    /**
+     * Assembles a kafka message for the given event with the appender's message assembler.
+     *
+     * @param event the logging event
+     * @return the assembled message.
+     */
+    KafkaLogMessage assemble(ILoggingEvent event);
+
+    /**
+     * Encodes and sends a message to the appender's topic.
+     *
+     * @param message the message to send
+     * @param origin the event the message originates from (used for keying and lane selection) or {@code null}
+     *               for synthetic messages.
+     */
+    void emit(KafkaLogMessage message, ILoggingEvent origin);
+
+    /**
+     * Encodes and sends a message to the given topic.
+     *
+     * @param message the message to send
+     * @param origin the event the message originates from or {@code null} for synthetic messages.
+     * @param topic the topic or {@code null} for the appender's topic.
+     */
+    void emit(KafkaLogMessage message, ILoggingEvent origin, String topic);
+
+}
@@ -0,0 +1,298 @@
+package com.github.danielwegener.logback.kafka.pipeline;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import com.github.danielwegener.logback.kafka.metrics.DropReason;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Tail-based sampling of low-level events by trace id. Events at or below {@code level} (default: {@code DEBUG}) that
+ * carry a trace id (read from the MDC entry {@code traceIdMdcKey}) are held back in a bounded ring buffer per trace.
+ * They are only shipped if an event at or above {@code triggerLevel} (default: {@code ERROR}) occurs for the same trace
+ * within {@code timeout} milliseconds, otherwise they are discarded. Once a trace has been triggered, its subsequent
+ * events pass through until the trace times out.
+ * <p>
+ * The rings are written lock-free. The total number of held back events is capped by {@code maxBufferedEvents}: beyond
+ * the cap, new events are dropped and the housekeeping evicts the least recently active traces.
+ * @since 0.1.2
+ */
+public class TailSamplingStage extends AppendStageBase {
+
+    private String traceIdMdcKey = "traceId";
+    private Level level = Level.DEBUG;
+    private Level triggerLevel = Level.ERROR;
+    private long timeout = 30000L;
+    private int maxEventsPerTrace = 64;
+    private int maxBufferedEvents = 10000;
+    private int maxTraces = 1024;
+
+    private final ConcurrentMap<String, TraceBuffer> traces = new ConcurrentHashMap<String, TraceBuffer>();
+    private final AtomicInteger bufferedEvents = new AtomicInteger();
+    private final AtomicLong discardedEvents = new AtomicLong();
+
+    @Override
+    public boolean process(ILoggingEvent event, AppendContext context) {
+        final int levelInt = event.getLevel().toInt();
+        final boolean held = levelInt <= level.toInt();
+        final boolean trigger = levelInt >= triggerLevel.toInt();
+        if (!held && !trigger) {
+            return true;
+        }
+        final Map<String, String> mdc = event.getMDCPropertyMap();
+        final String traceId = mdc != null ? mdc.get(traceIdMdcKey) : null;
+        if (traceId == null) {
+            return true;
+        }
+
+        TraceBuffer buffer = traces.get(traceId);
+        if (trigger) {
+            if (buffer == null) {
+                if (traces.size() >= maxTraces) {
+                    // nothing was held back for the trace, so the trigger event just passes through
+                    return true;
+                }
+                buffer = putIfAbsent(traceId, new TraceBuffer(maxEventsPerTrace, event.getTimeStamp()));
+            }
+            buffer.lastActivity = event.getTimeStamp();
+            if (!buffer.triggered) {
+                buffer.triggered = true;
+                release(buffer, context.getSink());
+            }
+            return true;
+        }
+
+        if (buffer == null) {
+            if (traces.size() >= maxTraces) {
+                discardedEvents.incrementAndGet();
+                context.drop(DropReason.SAMPLED);
+                return false;
+            }
+            buffer = putIfAbsent(traceId, new TraceBuffer(maxEventsPerTrace, event.getTimeStamp()));
+        }
+        if (buffer.triggered) {
+            // keeps the triggered trace alive while it is logging
+            buffer.lastActivity = event.getTimeStamp();
+            return true;
+        }
+        if (bufferedEvents.get() >= maxBufferedEvents) {
+            discardedEvents.incrementAndGet();
+            context.drop(DropReason.SAMPLED);
+            return false;
+        }
+        buffer.lastActivity = event.getTimeStamp();
+        // held back events are shipped later, so their lazy state must be captured now
+        event.prepareForDeferredProcessing();
+        if (buffer.add(event, bufferedEvents, discardedEvents)) {
+            return false;
+        }
+        if (buffer.triggered) {
+            return true;
+        }
+        // the trace has been evicted concurrently
+        context.drop(DropReason.SAMPLED);
+        return false;
+    }
+
+    private TraceBuffer putIfAbsent(String traceId, TraceBuffer created) {
+        final TraceBuffer existing = traces.putIfAbsent(traceId, created);
+        return existing != null ? existing : created;
+    }
+
+    private void release(TraceBuffer buffer, StageSink sink) {
+        for (ILoggingEvent held : buffer.drain(bufferedEvents)) {
+            sink.emit(sink.assemble(held), held);
+        }
+    }
+
+    @Override
+    public void flush(StageSink sink) {
+        final long now = System.currentTimeMillis();
+        final boolean stopping = !isStarted();
+        for (Map.Entry<String, TraceBuffer> trace : traces.entrySet()) {
+            if (stopping || now - trace.getValue().lastActivity > timeout) {
+                evict(trace.getKey(), trace.getValue());
+            }
+        }
+
+        if (bufferedEvents.get() > maxBufferedEvents * 9 / 10) {
+            final List<Map.Entry<String, TraceBuffer>> byActivity = new ArrayList<Map.Entry<String, TraceBuffer>>(traces.entrySet());
+            Collections.sort(byActivity, new Comparator<Map.Entry<String, TraceBuffer>>() {
+                @Override
+                public int compare(Map.Entry<String, TraceBuffer> a, Map.Entry<String, TraceBuffer> b) {
+                    return Long.compare(a.getValue().lastActivity, b.getValue().lastActivity);
+                }
+            });
+            for (Map.Entry<String, TraceBuffer> trace : byActivity) {
+                if (bufferedEvents.get() <= maxBufferedEvents * 3 / 4) {
+                    break;
+                }
+                evict(trace.getKey(), trace.getValue());
+            }
+        }
+    }
+
+    private void evict(String traceId, TraceBuffer buffer) {
+        if (traces.remove(traceId, buffer)) {
+            buffer.evicted = true;
+            discardedEvents.addAndGet(buffer.drain(bufferedEvents).size());
+        }
+    }
+
+    /**
+     * @return the number of low-level events that are currently held back.
+     */
+    public int getBufferedEvents() {
+        return bufferedEvents.get();
+    }
+
+    /**
+     * @return the number of held back events that were discarded (timed out, evicted or beyond capacity).
+     */
+    public long getDiscardedEvents() {
+        return discardedEvents.get();
+    }
+
+    /**
+     * A fixed-capacity ring of held back events. Writers claim a slot with an atomic increment, the oldest events
+     * are overwritten once the ring is full.
+     */
+    private static final class TraceBuffer {
+        private final AtomicReferenceArray<ILoggingEvent> ring;
+        private final AtomicLong cursor = new AtomicLong();
+        private volatile boolean triggered = false;
+        private volatile boolean evicted = false;
+        private volatile long lastActivity;
+
+        TraceBuffer(int capacity, long timestamp) {
+            this.ring = new AtomicReferenceArray<ILoggingEvent>(Math.max(1, capacity));
+            this.lastActivity = timestamp;
+        }
+
+        /**
+         * @return {@code true} if the event was held back, {@code false} if the trace has been triggered meanwhile
+         * and the event should pass through or if the trace has been evicted meanwhile and the event is discarded.
+         */
+        boolean add(ILoggingEvent event, AtomicInteger bufferedEvents, AtomicLong discardedEvents) {
+            final int slot = (int) (cursor.getAndIncrement() % ring.length());
+            final ILoggingEvent overwritten = ring.getAndSet(slot, event);
+            if (overwritten == null) {
+                bufferedEvents.incrementAndGet();
+            } else {
+                discardedEvents.incrementAndGet();
+            }
+            // the trace may have been triggered (and drained) concurrently
+            if (triggered && ring.compareAndSet(slot, event, null)) {
+                bufferedEvents.decrementAndGet();
+                return false;
+            }
+            // or evicted, then nobody would drain the event anymore
+            if (evicted && ring.compareAndSet(slot, event, null)) {
+                bufferedEvents.decrementAndGet();
+                discardedEvents.incrementAndGet();
+                return false;
+            }
+            return true;
+        }
+
+        List<ILoggingEvent> drain(AtomicInteger bufferedEvents) {
+            final List<ILoggingEvent> drained = new ArrayList<ILoggingEvent>();
+            final long end = cursor.get();
+            final int capacity = ring.length();
+            for (long position = Math.max(0, end - capacity); position < end; position++) {
+                final ILoggingEvent event = ring.getAndSet((int) (position % capacity), null);
+                if (event != null) {
+                    bufferedEvents.decrementAndGet();
+                    drained.add(event);
+                }
+            }
+            return drained;
+        }
+    }
+
+    public String getTraceIdMdcKey() {
+        return traceIdMdcKey;
+    }
+
+    /**
+     * @param traceIdMdcKey the MDC key that holds the trace id (default: {@code traceId}).
+     */
+    public void setTraceIdMdcKey(String traceIdMdcKey) {
+        this.traceIdMdcKey = traceIdMdcKey;
+    }
+
+    public Level getLevel() {
+        return level;
+    }
+
+    /**
+     * @param level the maximum level of events that are held back (default: {@code DEBUG}).
+     */
+    public void setLevel(String level) {
+        this.level = Level.toLevel(level, Level.DEBUG);
+    }
+
+    public Level getTriggerLevel() {
+        return triggerLevel;
+    }
+
+    /**
+     * @param triggerLevel the minimum level of events that release the held back events of their trace (default: {@code ERROR}).
+     */
+    public void setTriggerLevel(String triggerLevel) {
+        this.triggerLevel = Level.toLevel(triggerLevel, Level.ERROR);
+    }
+
+    public long getTimeout() {
+        return timeout;
+    }
+
+    /**
+     * @param timeout the time in milliseconds after the last activity of a trace after which its events are discarded.
+     */
+    public void setTimeout(long timeout) {
+        this.timeout = timeout;
+    }
+
+    public int getMaxEventsPerTrace() {
+        return maxEventsPerTrace;
+    }
+
+    /**
+     * @param maxEventsPerTrace the ring buffer capacity per trace. The oldest events of a trace are overwritten first.
+     */
+    public void setMaxEventsPerTrace(int maxEventsPerTrace) {
+        this.maxEventsPerTrace = maxEventsPerTrace;
+    }
+
+    public int getMaxBufferedEvents() {
+        return maxBufferedEvents;
+    }
+
+    /**
+     * @param maxBufferedEvents the maximum number of held back events over all traces.
+     */
+    public void setMaxBufferedEvents(int maxBufferedEvents) {
+        this.maxBufferedEvents = maxBufferedEvents;
+    }
+
+    public int getMaxTraces() {
+        return maxTraces;
+    }
+
+    /**
+     * @param maxTraces the maximum number of traces that are buffered at once.
+     */
+    public void setMaxTraces(int maxTraces) {
+        this.maxTraces = maxTraces;
+    }
+}
@@ -0,0 +1,68 @@
+package com.github.danielwegener.logback.kafka;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.core.spi.FilterReply;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+
+public class BackpressureTurboFilterTest {
+
+    private final BackpressureTurboFilter unit = new BackpressureTurboFilter();
+    private final LoggerContext ctx = new LoggerContext();
+    private final Backpressure backpressure = new Backpressure();
+
+    @Before
+    public void before() {
+        unit.setContext(ctx);
+        unit.setAppenderName("kafka");
+        unit.setLevel("INFO");
+        unit.start();
+    }
+
+    @Test
+    public void shouldBeNeutralWithoutAppender() {
+        assertThat(decide("logger", Level.DEBUG), equalTo(FilterReply.NEUTRAL));
+    }
+
+    @Test
+    public void shouldBeNeutralWhileNotBackedUp() {
+        ctx.putObject(Backpressure.contextKey("kafka"), backpressure);
+        backpressure.update(0.1d, 0, 0L);
+        assertThat(decide("logger", Level.DEBUG), equalTo(FilterReply.NEUTRAL));
+    }
+
+    @Test
+    public void shouldDenyLowPriorityEventsWhileBufferIsFilling() {
+        ctx.putObject(Backpressure.contextKey("kafka"), backpressure);
+        backpressure.update(0.9d, 0, 0L);
+        assertThat(decide("logger", Level.DEBUG), equalTo(FilterReply.DENY));
+        assertThat(decide("logger", Level.INFO), equalTo(FilterReply.DENY));
+        assertThat(decide("logger", Level.WARN), equalTo(FilterReply.NEUTRAL));
+        assertThat(unit.getDeniedCount(), equalTo(2L));
+    }
+
+    @Test
+    public void shouldDenyWhileDeliveriesFail() {
+        ctx.putObject(Backpressure.contextKey("kafka"), backpressure);
+        backpressure.recordDeliveryFailure();
+        backpressure.update(0d, 0, 10000L);
+        assertThat(decide("logger", Level.INFO), equalTo(FilterReply.DENY));
+    }
+
+    @Test
+    public void shouldOnlyDenyConfiguredLoggers() {
+        unit.setLoggers("com.noisy, org.chatty");
+        ctx.putObject(Backpressure.contextKey("kafka"), backpressure);
+        backpressure.update(0d, 5000, 0L);
+        assertThat(decide("com.noisy.Service", Level.INFO), equalTo(FilterReply.DENY));
+        assertThat(decide("com.important.Service", Level.INFO), equalTo(FilterReply.NEUTRAL));
+    }
+
+    private FilterReply decide(String logger, Level level) {
+        return unit.decide(null, ctx.getLogger(logger), level, "msg", null, null);
+    }
+}
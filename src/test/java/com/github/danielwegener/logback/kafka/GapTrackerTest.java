@@ -0,0 +1,59 @@
+package com.github.danielwegener.logback.kafka;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class GapTrackerTest {
+
+    private final GapTracker unit = new GapTracker(2);
+    private final Map<String, GapTracker.Gap> drained = new HashMap<String, GapTracker.Gap>();
+
+    private void drain() {
+        unit.drain((key, gap) -> drained.put(key != null ? new String(key) : null, gap));
+    }
+
+    @Test
+    public void shouldCountDropsPerKey() {
+        unit.record("a".getBytes(), 100L);
+        unit.record("a".getBytes(), 300L);
+        unit.record("b".getBytes(), 200L);
+        drain();
+
+        assertThat(drained.size(), equalTo(2));
+        assertThat(drained.get("a").getCount(), equalTo(2L));
+        assertThat(drained.get("a").getStart(), equalTo(100L));
+        assertThat(drained.get("a").getEnd(), equalTo(300L));
+        assertThat(drained.get("b").getCount(), equalTo(1L));
+        assertTrue(unit.isEmpty());
+    }
+
+    @Test
+    public void shouldCountUnkeyedAndExcessKeysWithoutKey() {
+        unit.record("a".getBytes(), 100L);
+        unit.record("b".getBytes(), 100L);
+        unit.record("c".getBytes(), 100L);
+        unit.record(null, 100L);
+        drain();
+
+        assertThat(drained.get(null).getCount(), equalTo(2L));
+        assertThat(drained.get("a").getCount(), equalTo(1L));
+    }
+
+    @Test
+    public void shouldStartNewGapsAfterDrain() {
+        unit.record("a".getBytes(), 100L);
+        drain();
+        drained.clear();
+        unit.record("a".getBytes(), 500L);
+        drain();
+
+        assertThat(drained.get("a").getCount(), equalTo(1L));
+        assertThat(drained.get("a").getStart(), equalTo(500L));
+    }
+}
@@ -0,0 +1,74 @@
+package com.github.danielwegener.logback.kafka;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.github.danielwegener.logback.kafka.message.KafkaLogMessage;
+import com.github.danielwegener.logback.kafka.message.KafkaMessageAssembler;
+import com.github.danielwegener.logback.kafka.message.LogMessageField;
+import com.github.danielwegener.logback.kafka.message.LogbackLogEvent;
+import com.github.danielwegener.logback.kafka.message.MdcKafkaMessageAssembler;
+import com.github.danielwegener.logback.kafka.metrics.KafkaAppenderMonitor;
+import org.junit.Test;
+
+import javax.management.Attribute;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+
+public class KafkaAppenderSettingsTest {
+
+    private final LoggerContext ctx = new LoggerContext();
+    private final MdcKafkaMessageAssembler assembler = new MdcKafkaMessageAssembler();
+    private final KafkaAppenderSettings unit = new KafkaAppenderSettings(assembler);
+
+    private KafkaLogMessage assemble(String loggerName) {
+        final LoggingEvent event = new LoggingEvent("fqcn", ctx.getLogger(loggerName), Level.ERROR, "message",
+                new IllegalStateException("failure"), new Object[0]);
+        event.setCallerData(new StackTraceElement[]{new StackTraceElement("com.example.Caller", "call", "Caller.java", 42)});
+        return assembler.createGelfMessage(new LogbackLogEvent(event), assembler.getSettings().forLogger(loggerName));
+    }
+
+    @Test
+    public void shouldSwitchCallerDataAndStackTraces() {
+        assembler.addField(new LogMessageField("SourceClassName", LogMessageField.NamedLogField.SourceClassName));
+        unit.setExtractStackTrace(true);
+        assertThat(assemble("com.example.Service").getField("SourceClassName"), equalTo("com.example.Caller"));
+        assertThat(assemble("com.example.Service").getField(KafkaMessageAssembler.FIELD_STACK_TRACE), notNullValue());
+
+        unit.setCallerData(false);
+        unit.setExtractStackTrace(false);
+        assertThat(assemble("com.example.Service").getField("SourceClassName"), nullValue());
+        assertThat(assemble("com.example.Service").getField(KafkaMessageAssembler.FIELD_STACK_TRACE), nullValue());
+    }
+
+    @Test
+    public void shouldApplyLoggerOverridesToDescendants() {
+        unit.overrideLogger("com.example", true, false, false, false, true);
+        assertThat(assemble("com.example.Service").getField(KafkaMessageAssembler.FIELD_STACK_TRACE), notNullValue());
+        assertThat(assemble("com.other.Service").getField(KafkaMessageAssembler.FIELD_STACK_TRACE), nullValue());
+        assertThat(unit.getLoggerOverrides().size(), equalTo(1));
+
+        unit.removeLoggerOverride("com.example");
+        assertThat(assemble("com.example.Service").getField(KafkaMessageAssembler.FIELD_STACK_TRACE), nullValue());
+    }
+
+    @Test
+    public void shouldBeSwitchableThroughJmx() throws Exception {
+        unit.register("settingsTest");
+        try {
+            final ObjectName name = KafkaAppenderMonitor.objectName(KafkaAppenderSettings.OBJECT_NAME_TYPE, "settingsTest");
+            ManagementFactory.getPlatformMBeanServer().setAttribute(name, new Attribute("IncludeFullMdc", true));
+            assertThat(assembler.isIncludeFullMdc(), equalTo(true));
+        } finally {
+            unit.unregister();
+        }
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(
+                KafkaAppenderMonitor.objectName(KafkaAppenderSettings.OBJECT_NAME_TYPE, "settingsTest")));
+    }
+}
@@ -10,14 +10,27 @@ import com.github.danielwegener.logback.kafka.delivery.DeliveryStrategy;
 import com.github.danielwegener.logback.kafka.delivery.FailedDeliveryCallback;
 import com.github.danielwegener.logback.kafka.encoding.KafkaMessageEncoder;
 import com.github.danielwegener.logback.kafka.keying.KeyingStrategy;
+import com.github.danielwegener.logback.kafka.metrics.DropReason;
+import com.github.danielwegener.logback.kafka.metrics.KafkaAppenderMonitor;
+import com.github.danielwegener.logback.kafka.pipeline.ConsistentSamplingStage;
+import com.github.danielwegener.logback.kafka.pipeline.RateLimitingStage;
+import com.github.danielwegener.logback.kafka.pipeline.TailSamplingStage;
 import org.apache.kafka.clients.producer.KafkaProducer;
 import org.apache.kafka.clients.producer.ProducerRecord;
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+
+import static org.hamcrest.Matchers.containsString;
 import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.hasItem;
+import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
@@ -114,4 +127,176 @@ public class KafkaAppenderTest {
         verify(deliveryStrategy).send(any(KafkaProducer.class), any(ProducerRecord.class), eq(evt), any(FailedDeliveryCallback.class));
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testAppendToMatchingLane() {
+        when(encoder.doEncode(any(ILoggingEvent.class))).thenReturn(new byte[]{0x00, 0x00});
+        final DeliveryStrategy laneDeliveryStrategy = mock(DeliveryStrategy.class);
+        final PriorityLane lane = new PriorityLane();
+        lane.setName("critical");
+        lane.setLevel("WARN");
+        lane.setDeliveryStrategy(laneDeliveryStrategy);
+        lane.addProducerConfig("linger.ms=0");
+        unit.addLane(lane);
+        unit.start();
+
+        final LoggingEvent errorEvt = new LoggingEvent("fqcn",ctx.getLogger("logger"), Level.ERROR, "error", null, new Object[0]);
+        final LoggingEvent infoEvt = new LoggingEvent("fqcn",ctx.getLogger("logger"), Level.INFO, "info", null, new Object[0]);
+        unit.append(errorEvt);
+        unit.append(infoEvt);
+        verify(laneDeliveryStrategy).send(any(KafkaProducer.class), any(ProducerRecord.class), eq(errorEvt), any(FailedDeliveryCallback.class));
+        verify(deliveryStrategy, never()).send(any(KafkaProducer.class), any(ProducerRecord.class), eq(errorEvt), any(FailedDeliveryCallback.class));
+        verify(deliveryStrategy).send(any(KafkaProducer.class), any(ProducerRecord.class), eq(infoEvt), any(FailedDeliveryCallback.class));
+    }
+
+    @Test
+    public void testMonitorCountsAndIsRegistered() throws Exception {
+        when(encoder.doEncode(any(ILoggingEvent.class))).thenReturn(new byte[]{0x00, 0x00});
+        when(deliveryStrategy.send(any(KafkaProducer.class), any(ProducerRecord.class), any(), any(FailedDeliveryCallback.class))).thenReturn(true);
+        unit.start();
+        final ObjectName objectName = KafkaAppenderMonitor.objectName("kafkaAppenderBase");
+        assertTrue(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName));
+
+        unit.append(new LoggingEvent("fqcn",ctx.getLogger("logger"), Level.INFO, "message", null, new Object[0]));
+        final KafkaAppenderMonitor monitor = unit.getMonitor();
+        assertThat(monitor.getAppendedCount(), equalTo(1L));
+        assertThat(monitor.getEncodedCount(), equalTo(1L));
+        assertThat(monitor.getEncodedBytes(), equalTo(2L));
+        assertThat(monitor.getSentCount(), equalTo(1L));
+        assertThat(ManagementFactory.getPlatformMBeanServer().getAttribute(objectName, "AppendedCount"), equalTo((Object) 1L));
+
+        unit.stop();
+        assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(objectName));
+    }
+
+    @Test
+    public void testPublishesBackpressureWhileStarted() {
+        unit.start();
+        assertThat(ctx.getObject(Backpressure.contextKey("kafkaAppenderBase")), equalTo((Object) unit.getBackpressure()));
+
+        unit.stop();
+        assertThat(ctx.getObject(Backpressure.contextKey("kafkaAppenderBase")), nullValue());
+    }
+
+    @Test
+    public void testTimesPipelineStepsWhenSampled() {
+        when(encoder.doEncode(any(ILoggingEvent.class))).thenReturn(new byte[]{0x00, 0x00});
+        unit.setTimingSampleRate(1d);
+        unit.start();
+        unit.append(new LoggingEvent("fqcn",ctx.getLogger("logger"), Level.INFO, "message", null, new Object[0]));
+
+        final KafkaAppenderMonitor monitor = unit.getMonitor();
+        monitor.sampleLatencies();
+        assertThat(monitor.getStepTimingsNanos().get("assembly.count"), equalTo(1L));
+        assertThat(monitor.getStepTimingsNanos().get("encoding.count"), equalTo(1L));
+        assertThat(monitor.getStepTimingsNanos().get("delivery.count"), equalTo(1L));
+        assertThat(monitor.getStepTimingsNanos().get("stack_trace.count"), equalTo(0L));
+    }
+
+    @Test
+    public void testDropsTemplatesOverTheirByteQuota() {
+        when(encoder.doEncode(any(ILoggingEvent.class))).thenReturn(new byte[]{0x00, 0x00});
+        unit.setTemplateByteQuota(4);
+        unit.start();
+        for (int i = 0; i < 3; i++) {
+            unit.append(new LoggingEvent("fqcn",ctx.getLogger("logger"), Level.INFO, "message {}", null, new Object[]{i}));
+        }
+        unit.append(new LoggingEvent("fqcn",ctx.getLogger("logger"), Level.INFO, "other", null, new Object[0]));
+
+        final KafkaAppenderMonitor monitor = unit.getMonitor();
+        assertThat(monitor.getEncodedCount(), equalTo(3L));
+        assertThat(monitor.getDroppedCount(DropReason.QUOTA_EXCEEDED), equalTo(1L));
+        assertThat(monitor.getTopTemplatesByEvents().get("message {}"), equalTo(3L));
+        assertThat(monitor.getTopTemplatesByBytes().get("message {}"), equalTo(4L));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSendsGapRecordsIntoTheStreamOfTheKey() {
+        final byte[] key = new byte[]{0x01};
+        when(keyingStrategy.createKey(any(ILoggingEvent.class))).thenReturn(key);
+        when(encoder.doEncode(any(ILoggingEvent.class))).thenReturn(new byte[]{0x00, 0x00});
+        when(deliveryStrategy.send(any(KafkaProducer.class), any(ProducerRecord.class), any(), any(FailedDeliveryCallback.class))).thenReturn(true);
+        unit.setGapRecords(true);
+        unit.setTemplateByteQuota(2);
+        unit.setHousekeepingInterval(10);
+        unit.start();
+        unit.append(new LoggingEvent("fqcn",ctx.getLogger("logger"), Level.INFO, "message", null, new Object[0]));
+        unit.append(new LoggingEvent("fqcn",ctx.getLogger("logger"), Level.INFO, "message", null, new Object[0]));
+
+        final ArgumentCaptor<ProducerRecord> records = ArgumentCaptor.forClass(ProducerRecord.class);
+        verify(deliveryStrategy, timeout(2000).times(2)).send(any(KafkaProducer.class), records.capture(), any(), any(FailedDeliveryCallback.class));
+        assertThat((byte[]) records.getAllValues().get(1).key(), equalTo(key));
+        final ArgumentCaptor<Object> payloads = ArgumentCaptor.forClass(Object.class);
+        verify(encoder, times(2)).doEncode((ILoggingEvent) payloads.capture());
+        assertThat(payloads.getAllValues().get(1).toString(), containsString("\"gap_count\":1"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testSendsGapRecordsForRateLimitedEvents() {
+        when(encoder.doEncode(any(ILoggingEvent.class))).thenReturn(new byte[]{0x00, 0x00});
+        when(deliveryStrategy.send(any(KafkaProducer.class), any(ProducerRecord.class), any(), any(FailedDeliveryCallback.class))).thenReturn(true);
+        final RateLimitingStage rateLimiting = new RateLimitingStage();
+        rateLimiting.setContext(ctx);
+        rateLimiting.setEventsPerSecond(1d);
+        rateLimiting.setBurst(1);
+        rateLimiting.start();
+        unit.addStage(rateLimiting);
+        unit.setGapRecords(true);
+        unit.setHousekeepingInterval(10);
+        unit.start();
+        final LoggingEvent admitted = new LoggingEvent("fqcn",ctx.getLogger("logger"), Level.INFO, "message", null, new Object[0]);
+        final LoggingEvent suppressed = new LoggingEvent("fqcn",ctx.getLogger("logger"), Level.INFO, "message", null, new Object[0]);
+        suppressed.setTimeStamp(admitted.getTimeStamp());
+        unit.append(admitted);
+        unit.append(suppressed);
+
+        verify(deliveryStrategy, timeout(2000).times(2)).send(any(KafkaProducer.class), any(ProducerRecord.class), any(), any(FailedDeliveryCallback.class));
+        final ArgumentCaptor<Object> payloads = ArgumentCaptor.forClass(Object.class);
+        verify(encoder, times(2)).doEncode((ILoggingEvent) payloads.capture());
+        assertThat(payloads.getAllValues().get(1).toString(), containsString("\"gap_count\":1"));
+        assertThat(unit.getMonitor().getDroppedCount(DropReason.RATE_LIMITED), equalTo(1L));
+        assertThat(unit.getMonitor().getDroppedCount(DropReason.FILTERED), equalTo(0L));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testDoesNotSendGapRecordsForSampledEvents() throws InterruptedException {
+        when(encoder.doEncode(any(ILoggingEvent.class))).thenReturn(new byte[]{0x00, 0x00});
+        when(deliveryStrategy.send(any(KafkaProducer.class), any(ProducerRecord.class), any(), any(FailedDeliveryCallback.class))).thenReturn(true);
+        final ConsistentSamplingStage sampling = new ConsistentSamplingStage();
+        sampling.setContext(ctx);
+        sampling.setRate(0d);
+        sampling.start();
+        unit.addStage(sampling);
+        unit.setGapRecords(true);
+        unit.setHousekeepingInterval(10);
+        unit.start();
+        final LoggingEvent sampledOut = new LoggingEvent("fqcn",ctx.getLogger("logger"), Level.INFO, "message", null, new Object[0]);
+        sampledOut.setMDCPropertyMap(Collections.singletonMap("traceId", "t1"));
+        unit.append(sampledOut);
+        unit.append(new LoggingEvent("fqcn",ctx.getLogger("logger"), Level.INFO, "message", null, new Object[0]));
+        // several housekeeping runs
+        Thread.sleep(100);
+
+        verify(deliveryStrategy, times(1)).send(any(KafkaProducer.class), any(ProducerRecord.class), any(), any(FailedDeliveryCallback.class));
+        verify(keyingStrategy, times(1)).createKey(any(ILoggingEvent.class));
+        assertThat(unit.getMonitor().getDroppedCount(DropReason.SAMPLED), equalTo(1L));
+    }
+
+    @Test
+    public void testDoesNotCountHeldBackEventsAsDropped() {
+        final TailSamplingStage tailSampling = new TailSamplingStage();
+        tailSampling.setContext(ctx);
+        tailSampling.start();
+        unit.addStage(tailSampling);
+        unit.start();
+        final LoggingEvent held = new LoggingEvent("fqcn",ctx.getLogger("logger"), Level.DEBUG, "message", null, new Object[0]);
+        held.setMDCPropertyMap(Collections.singletonMap("traceId", "t1"));
+        unit.append(held);
+
+        assertThat(tailSampling.getBufferedEvents(), equalTo(1));
+        assertThat(unit.getMonitor().getDroppedCount(), equalTo(0L));
+    }
+
+}
@@ -0,0 +1,55 @@
+package com.github.danielwegener.logback.kafka;
+
+import com.github.danielwegener.logback.kafka.message.KafkaLogMessage;
+import com.github.danielwegener.logback.kafka.message.KafkaLogMessageBuilder;
+import org.junit.Test;
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+public class SourceSequenceTest {
+
+    @Test
+    public void shouldStampSourceIdAndIncreasingSequence() {
+        final SourceSequence unit = new SourceSequence("host-1");
+        final KafkaLogMessage first = KafkaLogMessageBuilder.newInstance().withFullMessage("first").build();
+        final KafkaLogMessage second = KafkaLogMessageBuilder.newInstance().withFullMessage("second").build();
+        unit.stamp(first);
+        unit.stamp(second);
+
+        assertThat(first.getField(SourceSequence.FIELD_SOURCE_ID), equalTo("host-1"));
+        assertThat(first.getField(SourceSequence.FIELD_SEQUENCE), equalTo("1"));
+        assertThat(second.getField(SourceSequence.FIELD_SEQUENCE), equalTo("2"));
+    }
+
+    @Test
+    public void shouldGenerateDistinctSourceIds() {
+        assertThat(new SourceSequence(null).getSourceId(), not(equalTo(new SourceSequence(null).getSourceId())));
+    }
+
+    @Test
+    public void shouldNotRepeatSequenceNumbersAcrossThreads() throws InterruptedException {
+        final SourceSequence unit = new SourceSequence("source");
+        final Set<String> sequences = ConcurrentHashMap.newKeySet();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < 4000; i++) {
+            executor.execute(() -> {
+                final KafkaLogMessage message = KafkaLogMessageBuilder.newInstance().withFullMessage("message").build();
+                unit.stamp(message);
+                sequences.add(message.getField(SourceSequence.FIELD_SEQUENCE));
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+
+        assertThat(sequences.size(), equalTo(4000));
+        assertThat(unit.getSequence(), equalTo(4000L));
+    }
+}
@@ -0,0 +1,55 @@
+package com.github.danielwegener.logback.kafka.message;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.empty;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class DynamicMdcMessageFieldTest {
+
+    @Test
+    public void shouldMatchPrefix() {
+        final DynamicMdcMessageField unit = new DynamicMdcMessageField("user\\..*");
+
+        assertTrue(unit.matches("user.id"));
+        assertTrue(unit.matches("user."));
+        assertFalse(unit.matches("userId"));
+        assertFalse(unit.matches("the.user.id"));
+    }
+
+    @Test
+    public void shouldMatchSuffixAndInfix() {
+        assertTrue(new DynamicMdcMessageField(".*Id").matches("requestId"));
+        assertFalse(new DynamicMdcMessageField(".*Id").matches("requestIds"));
+        assertTrue(new DynamicMdcMessageField(".*trace.*").matches("x-trace-id"));
+        assertTrue(new DynamicMdcMessageField("requestId").matches("requestId"));
+        assertFalse(new DynamicMdcMessageField("requestId").matches("requestIds"));
+    }
+
+    @Test
+    public void shouldFallBackToRegex() {
+        final DynamicMdcMessageField unit = new DynamicMdcMessageField("user.id|tenant\\d+");
+
+        assertTrue(unit.matches("user-id"));
+        assertTrue(unit.matches("tenant42"));
+        assertFalse(unit.matches("tenant"));
+        // the unescaped dot matches any character
+        assertTrue(new DynamicMdcMessageField("a.b.*").matches("axbc"));
+    }
+
+    @Test
+    public void shouldReturnMatchingMdcNames() {
+        final DynamicMdcMessageField field = new DynamicMdcMessageField("user\\..*");
+        final Set<String> mdcNames = new HashSet<String>(Arrays.asList("user.id", "user.name", "requestId"));
+
+        assertThat(KafkaLogUtil.getMatchingMdcNames(field, mdcNames), containsInAnyOrder("user.id", "user.name"));
+        assertThat(KafkaLogUtil.getMatchingMdcNames(field, new HashSet<String>(Arrays.asList("requestId"))), empty());
+    }
+}
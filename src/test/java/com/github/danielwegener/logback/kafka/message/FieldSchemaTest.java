@@ -0,0 +1,89 @@
+package com.github.danielwegener.logback.kafka.message;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.junit.Assert.assertThat;
+
+public class FieldSchemaTest {
+
+    private final FieldSchema unit = new FieldSchema();
+
+    private KafkaLogMessage message(String... fields) {
+        final KafkaLogMessageBuilder builder = KafkaLogMessageBuilder.newInstance()
+                .withFullMessage("message")
+                .withFieldSchema(unit);
+        for (int i = 0; i < fields.length; i += 2) {
+            builder.withField(fields[i], fields[i + 1]);
+        }
+        return builder.build();
+    }
+
+    @Test
+    public void shouldScanNumbers() {
+        assertThat(FieldSchema.scan("42"), equalTo(FieldSchema.Type.LONG));
+        assertThat(FieldSchema.scan("-9223372036854775808"), equalTo(FieldSchema.Type.LONG));
+        assertThat(FieldSchema.scan("9223372036854775808"), equalTo(FieldSchema.Type.DOUBLE));
+        assertThat(FieldSchema.scan("1.5"), equalTo(FieldSchema.Type.DOUBLE));
+        assertThat(FieldSchema.scan("-1.5e-3"), equalTo(FieldSchema.Type.DOUBLE));
+        assertThat(FieldSchema.scan(""), equalTo(FieldSchema.Type.STRING));
+        assertThat(FieldSchema.scan("-"), equalTo(FieldSchema.Type.STRING));
+        assertThat(FieldSchema.scan("."), equalTo(FieldSchema.Type.STRING));
+        assertThat(FieldSchema.scan("1e"), equalTo(FieldSchema.Type.STRING));
+        assertThat(FieldSchema.scan("NaN"), equalTo(FieldSchema.Type.STRING));
+        assertThat(FieldSchema.scan("1d"), equalTo(FieldSchema.Type.STRING));
+        assertThat(FieldSchema.scan("abc"), equalTo(FieldSchema.Type.STRING));
+        assertThat(FieldSchema.parseLong("-9223372036854775808"), equalTo(Long.MIN_VALUE));
+        assertThat(FieldSchema.parseLong("+17"), equalTo(17L));
+    }
+
+    @Test
+    public void shouldLearnAndWidenTypes() {
+        assertThat(message("count", "1").toJson(""), containsString("\"count\":1"));
+        assertThat(message("count", "1.5").toJson(""), containsString("\"count\":1.5"));
+        assertThat(message("count", "2").toJson(""), containsString("\"count\":2.0"));
+        assertThat(message("count", "n/a").toJson(""), containsString("\"count\":\"n/a\""));
+        assertThat(message("count", "3").toJson(""), containsString("\"count\":\"3\""));
+        assertThat(unit.getLearnedTypes().get("count"), equalTo(FieldSchema.Type.STRING));
+    }
+
+    @Test
+    public void shouldWriteDeclaredTypes() {
+        final Map<String, String> types = new HashMap<String, String>();
+        types.put("a", KafkaLogMessage.FIELD_TYPE_STRING);
+        types.put("b", KafkaLogMessage.FIELD_TYPE_LONG);
+        types.put("c", KafkaLogMessage.FIELD_TYPE_LONG2);
+        types.put("d", KafkaLogMessage.FIELD_TYPE_DOUBLE);
+        final KafkaLogMessage message = message("a", "1", "b", "2.7", "c", "x", "d", "x");
+        message.setAdditionalFieldTypes(types);
+
+        final String json = message.toJson("");
+        assertThat(json, containsString("\"a\":\"1\""));
+        assertThat(json, containsString("\"b\":2"));
+        assertThat(json, not(containsString("\"c\"")));
+        assertThat(json, containsString("\"d\":0.0"));
+    }
+
+    @Test
+    public void shouldWriteTheSameJsonAsTheMapForStandardAndStructuredFields() {
+        final KafkaLogMessage typed = message("level", "custom", "_prefixed", "x");
+        typed.setLevel("6");
+        typed.addStructuredField("entries", Collections.singletonList("<a>"));
+        final KafkaLogMessage discovered = message("level", "custom", "_prefixed", "x");
+        discovered.setFieldSchema(null);
+        discovered.setLevel("6");
+        discovered.addStructuredField("entries", Collections.singletonList("<a>"));
+
+        final String json = typed.toJson("");
+        assertThat(json, containsString("\"level\":\"custom\""));
+        assertThat(json, not(containsString("\"level\":\"6\"")));
+        assertThat(json, containsString("\"entries\":[\"\\u003ca\\u003e\"]"));
+        assertThat(json.length(), equalTo(discovered.toJson("").length()));
+    }
+}
@@ -0,0 +1,51 @@
+package com.github.danielwegener.logback.kafka.message;
+
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class LogbackLogEventTest {
+
+    private final ILoggingEvent event = mock(ILoggingEvent.class);
+    private final LogbackLogEvent unit = new LogbackLogEvent(event);
+
+    private String value(LogMessageField.NamedLogField namedLogField) {
+        return unit.getValue(new LogMessageField(namedLogField.getFieldName(), namedLogField));
+    }
+
+    @Test
+    public void shouldResolveCallerDataOnce() {
+        when(event.getCallerData()).thenReturn(new StackTraceElement[]{
+                new StackTraceElement("com.example.Caller", "call", "Caller.java", 42)});
+
+        assertThat(value(LogMessageField.NamedLogField.SourceClassName), equalTo("com.example.Caller"));
+        assertThat(value(LogMessageField.NamedLogField.SourceSimpleClassName), equalTo("Caller"));
+        assertThat(value(LogMessageField.NamedLogField.SourceMethodName), equalTo("call"));
+        assertThat(value(LogMessageField.NamedLogField.SourceLineNumber), equalTo("42"));
+        verify(event, times(1)).getCallerData();
+    }
+
+    @Test
+    public void shouldHandleMissingCallerData() {
+        when(event.getCallerData()).thenReturn(new StackTraceElement[0]);
+
+        assertThat(value(LogMessageField.NamedLogField.SourceSimpleClassName), nullValue());
+        assertThat(value(LogMessageField.NamedLogField.SourceLineNumber), nullValue());
+        verify(event, times(1)).getCallerData();
+    }
+
+    @Test
+    public void shouldNotResolveCallerDataForOtherFields() {
+        when(event.getThreadName()).thenReturn("main");
+
+        assertThat(value(LogMessageField.NamedLogField.ThreadName), equalTo("main"));
+        verify(event, times(0)).getCallerData();
+    }
+}
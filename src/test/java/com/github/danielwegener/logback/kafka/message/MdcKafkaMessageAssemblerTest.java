@@ -0,0 +1,112 @@
+package com.github.danielwegener.logback.kafka.message;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.google.gson.stream.JsonReader;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class MdcKafkaMessageAssemblerTest {
+
+    private final LoggerContext ctx = new LoggerContext();
+    private final MdcKafkaMessageAssembler unit = new MdcKafkaMessageAssembler();
+
+    @Before
+    public void before() {
+        unit.addField(new MdcMessageField("request", "requestId"));
+        unit.addField(new DynamicMdcMessageField("user\\..*"));
+    }
+
+    private KafkaLogMessage assemble(Map<String, String> mdc) {
+        final LoggingEvent event = new LoggingEvent("fqcn", ctx.getLogger("logger"), Level.INFO, "message", null, new Object[0]);
+        event.setMDCPropertyMap(mdc);
+        return unit.createGelfMessage(new LogbackLogEvent(event));
+    }
+
+    private static Map<String, String> mdc(String... entries) {
+        final Map<String, String> mdc = new HashMap<String, String>();
+        for (int i = 0; i < entries.length; i += 2) {
+            mdc.put(entries[i], entries[i + 1]);
+        }
+        return mdc;
+    }
+
+    @Test
+    public void shouldRenderConfiguredMdcFields() {
+        final KafkaLogMessage message = assemble(mdc("requestId", "r1", "user.id", "42", "other", "x"));
+
+        assertThat(message.getField("request"), equalTo("r1"));
+        assertThat(message.getField("user.id"), equalTo("42"));
+        assertThat(message.getField("other"), nullValue());
+        final String json = message.toJson("");
+        assertThat(json, containsString("\"request\":\"r1\""));
+        assertThat(json, containsString("\"user.id\":42"));
+        assertThat(json, containsString("\"full_message\":\"message\""));
+        assertThat(json, not(containsString("other")));
+    }
+
+    @Test
+    public void shouldReuseTheFragmentForTheSameMdcMap() {
+        final Map<String, String> mdc = mdc("requestId", "r1");
+
+        final MdcFragment first = assemble(mdc).getMdcFragment();
+        assertThat(assemble(mdc).getMdcFragment(), sameInstance(first));
+        assertThat(assemble(mdc("requestId", "r2")).getMdcFragment().getFields().get("request"), equalTo("r2"));
+    }
+
+    @Test
+    public void shouldRenderAgainWhenTheSettingsChange() {
+        final Map<String, String> mdc = mdc("requestId", "r1", "other", "x");
+
+        assertThat(assemble(mdc).toJson(""), not(containsString("other")));
+        unit.setIncludeFullMdc(true);
+        assertThat(assemble(mdc).toJson(""), containsString("\"other\":\"x\""));
+    }
+
+    @Test
+    public void shouldPrefixMdcFields() {
+        final String json = assemble(mdc("requestId", "r1")).toJson("_");
+
+        assertThat(json, containsString("\"_request\":\"r1\""));
+        assertThat(json, not(containsString("\"request\"")));
+    }
+
+    @Test
+    public void shouldReplaceStandardFieldsWithMdcFields() throws Exception {
+        unit.addField(new MdcMessageField("level", "level"));
+        final String json = assemble(mdc("requestId", "r1", "level", "custom")).toJson("");
+
+        assertThat(json, containsString("\"level\":\"custom\""));
+        final List<String> names = new ArrayList<String>();
+        final JsonReader reader = new JsonReader(new StringReader(json));
+        reader.beginObject();
+        while (reader.hasNext()) {
+            names.add(reader.nextName());
+            reader.skipValue();
+        }
+        assertThat(names.size(), equalTo(new HashSet<String>(names).size()));
+    }
+
+    @Test
+    public void shouldRenderEmptyMdc() {
+        final KafkaLogMessage message = assemble(mdc());
+
+        assertThat(message.getMdcFragment().getJson(), equalTo(""));
+        assertThat(message.toJson(""), containsString("\"full_message\":\"message\""));
+    }
+}
@@ -0,0 +1,122 @@
+package com.github.danielwegener.logback.kafka.message;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.google.gson.stream.JsonReader;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.nullValue;
+import static org.hamcrest.Matchers.sameInstance;
+import static org.junit.Assert.assertThat;
+
+public class StaticEnvelopeTest {
+
+    private static final String CONTAINER_ID = "3f4e8b1c2d5a6978e0f1a2b3c4d5e6f708192a3b4c5d6e7f8091a2b3c4d5e6f7";
+
+    private final LoggerContext ctx = new LoggerContext();
+    private final MdcKafkaMessageAssembler unit = new MdcKafkaMessageAssembler();
+
+    @Before
+    public void before() {
+        unit.setFacility("orders");
+        unit.addField(new StaticMessageField("environment", "production"));
+        unit.addField(new StaticMessageField("shard", "7"));
+        unit.setEnvironmentFields(Collections.singletonMap(StaticEnvelope.FIELD_HOST, "host1"));
+    }
+
+    private KafkaLogMessage assemble() {
+        final LoggingEvent event = new LoggingEvent("fqcn", ctx.getLogger("logger"), Level.INFO, "message", null, new Object[0]);
+        event.setMDCPropertyMap(Collections.<String, String>emptyMap());
+        return unit.createGelfMessage(new LogbackLogEvent(event));
+    }
+
+    @Test
+    public void shouldSpliceTheEnvelope() {
+        final KafkaLogMessage message = assemble();
+
+        assertThat(message.getStaticEnvelope().getJson(),
+                equalTo("\"facility\":\"orders\",\"host\":\"host1\",\"environment\":\"production\",\"shard\":7"));
+        assertThat(message.getField("environment"), equalTo("production"));
+        final String json = message.toJson("");
+        assertThat(json, containsString("\"full_message\":\"message\""));
+        assertThat(json, containsString(message.getStaticEnvelope().getJson()));
+        assertThat(assemble().getStaticEnvelope(), sameInstance(message.getStaticEnvelope()));
+    }
+
+    @Test
+    public void shouldLetOtherFieldsOverrideTheEnvelope() {
+        final KafkaLogMessage message = assemble();
+        message.addField("shard", "8");
+        message.setFacility("other");
+
+        final String json = message.toJson("");
+        assertThat(json, containsString("\"shard\":8"));
+        assertThat(json, not(containsString("\"shard\":7")));
+        assertThat(json, containsString("\"facility\":\"other\""));
+        assertThat(json, containsString("\"environment\":\"production\""));
+        assertThat(message.toJson("_"), containsString("\"_environment\":\"production\""));
+    }
+
+    @Test
+    public void shouldLetFieldsNamedFacilityReplaceTheFacility() throws Exception {
+        final KafkaLogMessage additional = assemble();
+        additional.addField(KafkaLogMessage.FIELD_FACILITY, "custom");
+        final KafkaLogMessage structured = assemble();
+        structured.addStructuredField(KafkaLogMessage.FIELD_FACILITY, Collections.singletonList("custom"));
+        unit.addField(new MdcMessageField(KafkaLogMessage.FIELD_FACILITY, "facility"));
+        final LoggingEvent event = new LoggingEvent("fqcn", ctx.getLogger("logger"), Level.INFO, "message", null, new Object[0]);
+        event.setMDCPropertyMap(Collections.singletonMap("facility", "custom"));
+        final KafkaLogMessage mdc = unit.createGelfMessage(new LogbackLogEvent(event));
+
+        for (KafkaLogMessage message : Arrays.asList(additional, structured, mdc)) {
+            final String json = message.toJson("");
+            assertThat(json, containsString("custom"));
+            assertThat(json, not(containsString("orders")));
+            assertUniqueNames(json);
+        }
+    }
+
+    private static void assertUniqueNames(String json) throws Exception {
+        final List<String> names = new ArrayList<String>();
+        final JsonReader reader = new JsonReader(new StringReader(json));
+        reader.beginObject();
+        while (reader.hasNext()) {
+            names.add(reader.nextName());
+            reader.skipValue();
+        }
+        assertThat(json, names.size(), equalTo(new HashSet<String>(names).size()));
+    }
+
+    @Test
+    public void shouldRenderAgainWhenTheConfigurationChanges() {
+        final StaticEnvelope envelope = assemble().getStaticEnvelope();
+        unit.setFacility("payments");
+
+        assertThat(assemble().getStaticEnvelope().getFacility(), equalTo("payments"));
+        assertThat(envelope.getFacility(), equalTo("orders"));
+    }
+
+    @Test
+    public void shouldParseContainerIds() {
+        assertThat(StaticEnvelope.parseContainerId(Arrays.asList(
+                "12:memory:/docker/" + CONTAINER_ID, "1:name=systemd:/docker/" + CONTAINER_ID)), equalTo(CONTAINER_ID));
+        assertThat(StaticEnvelope.parseContainerId(Arrays.asList(
+                "0::/system.slice/docker-" + CONTAINER_ID + ".scope")), equalTo(CONTAINER_ID));
+        assertThat(StaticEnvelope.parseContainerId(Arrays.asList(
+                "11:cpu:/kubepods/burstable/pod1234/" + CONTAINER_ID)), equalTo(CONTAINER_ID));
+        assertThat(StaticEnvelope.parseContainerId(Arrays.asList("0::/user.slice/user-1000.slice/session-2.scope")), nullValue());
+        assertThat(StaticEnvelope.parseContainerId(Collections.<String>emptyList()), nullValue());
+    }
+}
@@ -0,0 +1,66 @@
+package com.github.danielwegener.logback.kafka.metrics;
+
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+public class FlightRecorderEventsTest {
+
+    private final FlightRecorderEvents unit = FlightRecorderEvents.get();
+
+    @Test
+    public void shouldBeAvailableIfTheJvmSupportsJfr() {
+        assertThat(unit.isAvailable(), equalTo(isJfrSupported()));
+    }
+
+    @Test
+    public void shouldIgnoreEventsWithoutRecording() {
+        unit.slowAppend("appender", "logger", "INFO", 20000000L);
+        unit.bufferExhausted("appender", new IllegalStateException("full"));
+        unit.producerCreated("appender", "default", true, 1000L);
+        unit.deliveryTransition("appender", true);
+        unit.fallbackDispatch("appender", null);
+        FlightRecorderEvents.DISABLED.slowAppend("appender", "logger", "INFO", 20000000L);
+    }
+
+    @Test
+    public void shouldRecordEvents() throws Exception {
+        assumeTrue(unit.isAvailable());
+        // jdk.jfr is used reflectively so the test compiles on JDKs without JFR
+        final Class<?> recordingType = Class.forName("jdk.jfr.Recording");
+        final Object recording = recordingType.newInstance();
+        recordingType.getMethod("enable", String.class).invoke(recording, "com.github.danielwegener.logback.kafka.SlowAppend");
+        recordingType.getMethod("start").invoke(recording);
+        unit.refresh();
+        unit.slowAppend("appender", "com.example.Slow", "WARN", 20000000L);
+        recordingType.getMethod("stop").invoke(recording);
+        unit.refresh();
+        final File dump = File.createTempFile("kafka-appender", ".jfr");
+        try {
+            recordingType.getMethod("dump", Path.class).invoke(recording, dump.toPath());
+            final List<?> events = (List<?>) Class.forName("jdk.jfr.consumer.RecordingFile")
+                    .getMethod("readAllEvents", Path.class).invoke(null, dump.toPath());
+            assertThat(events.size(), equalTo(1));
+            assertThat(events.get(0).toString(), containsString("com.example.Slow"));
+        } finally {
+            recordingType.getMethod("close").invoke(recording);
+            dump.delete();
+        }
+    }
+
+    private static boolean isJfrSupported() {
+        try {
+            Class.forName("jdk.jfr.EventFactory");
+            return true;
+        } catch (ClassNotFoundException e) {
+            return false;
+        }
+    }
+}
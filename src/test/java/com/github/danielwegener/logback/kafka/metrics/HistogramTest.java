@@ -0,0 +1,48 @@
+package com.github.danielwegener.logback.kafka.metrics;
+
+import org.junit.Test;
+
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+public class HistogramTest {
+
+    private final Histogram unit = new Histogram();
+
+    @Test
+    public void shouldComputeQuantilesWithinRelativeError() {
+        for (long i = 1; i <= 1000; i++) {
+            unit.record(i);
+        }
+        final Histogram.Snapshot snapshot = unit.snapshotAndReset();
+        assertThat(snapshot.getCount(), equalTo(1000L));
+        assertThat(snapshot.getMin(), equalTo(1L));
+        assertThat(snapshot.getMax(), equalTo(1000L));
+        assertThat(snapshot.getMean(), equalTo(500.5d));
+        assertThat(snapshot.getValueAtQuantile(0.5), allOf(greaterThanOrEqualTo(500L), lessThanOrEqualTo(563L)));
+        assertThat(snapshot.getValueAtQuantile(0.99), allOf(greaterThanOrEqualTo(990L), lessThanOrEqualTo(1000L)));
+    }
+
+    @Test
+    public void shouldResetOnSnapshot() {
+        unit.record(5);
+        unit.snapshotAndReset();
+        final Histogram.Snapshot snapshot = unit.snapshotAndReset();
+        assertThat(snapshot.getCount(), equalTo(0L));
+        assertThat(snapshot.getValueAtQuantile(0.5), equalTo(0L));
+    }
+
+    @Test
+    public void shouldMapBucketBoundsConsistently() {
+        for (long value : new long[]{0, 15, 16, 17, 31, 32, 1000, 123456789L, Long.MAX_VALUE}) {
+            final int index = Histogram.bucketIndex(value);
+            assertThat(Histogram.bucketUpperBound(index), greaterThanOrEqualTo(value));
+            if (index > 0) {
+                assertThat(Histogram.bucketUpperBound(index - 1), lessThanOrEqualTo(value - 1));
+            }
+        }
+    }
+}
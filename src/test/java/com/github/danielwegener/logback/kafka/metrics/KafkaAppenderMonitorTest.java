@@ -0,0 +1,67 @@
+package com.github.danielwegener.logback.kafka.metrics;
+
+import com.github.danielwegener.logback.kafka.Backpressure;
+import org.apache.kafka.clients.producer.Callback;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.clients.producer.RecordMetadata;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class KafkaAppenderMonitorTest {
+
+    private final KafkaAppenderMonitor unit = new KafkaAppenderMonitor(new Backpressure());
+    @SuppressWarnings("unchecked")
+    private final Producer<byte[], byte[]> producer = mock(Producer.class);
+
+    @Test
+    public void shouldRecordAckLatencyFromAppendStart() {
+        final InstrumentedProducer<byte[], byte[]> instrumented = new InstrumentedProducer<byte[], byte[]>(producer, unit);
+        final ProducerRecord<byte[], byte[]> record = new ProducerRecord<byte[], byte[]>("topic", new byte[0]);
+        final Callback callback = mock(Callback.class);
+
+        unit.onSending(System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(5));
+        instrumented.send(record, callback);
+        final ArgumentCaptor<Callback> captor = ArgumentCaptor.forClass(Callback.class);
+        verify(producer).send(same(record), captor.capture());
+        captor.getValue().onCompletion(null, null);
+
+        verify(callback).onCompletion(null, null);
+        unit.sampleLatencies();
+        assertThat(unit.getAckedCount(), equalTo(1L));
+        assertThat(unit.getAckLatencyMicros().get("count"), equalTo(1L));
+        assertThat(unit.getAckLatencyMicros().get("max"), greaterThanOrEqualTo(5000L));
+    }
+
+    @Test
+    public void shouldCountFailedDeliveries() {
+        final InstrumentedProducer<byte[], byte[]> instrumented = new InstrumentedProducer<byte[], byte[]>(producer, unit);
+        instrumented.send(new ProducerRecord<byte[], byte[]>("topic", new byte[0]));
+        final ArgumentCaptor<Callback> captor = ArgumentCaptor.forClass(Callback.class);
+        verify(producer).send(any(ProducerRecord.class), captor.capture());
+        captor.getValue().onCompletion(null, new IllegalStateException("broker down"));
+
+        assertThat(unit.getFailedCount(), equalTo(1L));
+        assertThat(unit.getLastError(), equalTo("Delivery failed: java.lang.IllegalStateException: broker down"));
+    }
+
+    @Test
+    public void shouldPublishSendLatencyPerInterval() {
+        unit.onSent(TimeUnit.MILLISECONDS.toNanos(2));
+        unit.sampleLatencies();
+        assertThat(unit.getSendLatencyMicros().get("count"), equalTo(1L));
+        assertThat(unit.getSendLatencyMicros().get("min"), equalTo(2000L));
+        unit.sampleLatencies();
+        assertThat(unit.getSendLatencyMicros().get("count"), equalTo(0L));
+    }
+}
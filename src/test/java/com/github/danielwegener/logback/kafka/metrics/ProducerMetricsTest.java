@@ -0,0 +1,69 @@
+package com.github.danielwegener.logback.kafka.metrics;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.core.BasicStatusManager;
+import ch.qos.logback.core.status.Status;
+import com.github.danielwegener.logback.kafka.Backpressure;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ProducerMetricsTest {
+
+    @Test
+    public void shouldCollectCuratedProducerMetricsOnly() {
+        final Map<MetricName, Metric> metrics = new HashMap<MetricName, Metric>();
+        metrics.put(name("record-queue-time-avg", "producer-metrics"), metric(12.5));
+        metrics.put(name("batch-size-avg", "producer-metrics"), metric(1024));
+        metrics.put(name("record-queue-time-avg", "producer-node-metrics"), metric(1));
+        metrics.put(name("io-ratio", "producer-metrics"), metric(0.1));
+
+        final Map<String, Double> target = new TreeMap<String, Double>();
+        ProducerMetrics.collect("default", metrics, target);
+
+        assertThat(target.size(), equalTo(2));
+        assertThat(target.get("default.record-queue-time-avg"), equalTo(12.5));
+        assertThat(target.get("default.batch-size-avg"), equalTo(1024d));
+    }
+
+    @Test
+    public void shouldReportMetricsAsStatus() {
+        final LoggerContext ctx = new LoggerContext();
+        ctx.setStatusManager(new BasicStatusManager());
+        final StatusMetricsReporter reporter = new StatusMetricsReporter();
+        reporter.setContext(ctx);
+        final KafkaAppenderMonitor monitor = new KafkaAppenderMonitor(new Backpressure());
+        monitor.onAppended("logger", Level.INFO);
+        monitor.setProducerMetrics(Collections.singletonMap("default.batch-size-avg", 1024d));
+
+        reporter.report("kafka", monitor);
+
+        assertThat(ctx.getStatusManager().getCopyOfStatusList(), hasSize(1));
+        final Status status = ctx.getStatusManager().getCopyOfStatusList().get(0);
+        assertThat(status.getMessage(), containsString("appended=1"));
+        assertThat(status.getMessage(), containsString("default.batch-size-avg=1024.0"));
+    }
+
+    private static MetricName name(String name, String group) {
+        return new MetricName(name, group, "", Collections.<String, String>emptyMap());
+    }
+
+    private static Metric metric(double value) {
+        final Metric metric = mock(Metric.class);
+        when(metric.value()).thenReturn(value);
+        return metric;
+    }
+}
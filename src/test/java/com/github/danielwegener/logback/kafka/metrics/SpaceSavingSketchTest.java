@@ -0,0 +1,67 @@
+package com.github.danielwegener.logback.kafka.metrics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.hasItems;
+import static org.junit.Assert.assertThat;
+
+public class SpaceSavingSketchTest {
+
+    private final SpaceSavingSketch unit = new SpaceSavingSketch(16);
+
+    @Test
+    public void shouldFindHeavyHittersAmongManyKeys() {
+        for (int round = 0; round < 100; round++) {
+            for (int i = 0; i < 10; i++) {
+                unit.add("Sent {} bytes to {}").addWeight(20);
+            }
+            for (int i = 0; i < 5; i++) {
+                unit.add("Cache miss for {}").addWeight(100);
+            }
+            unit.add("Unique message " + round);
+        }
+        final Map<String, Long> byEvents = unit.top(2, false);
+        assertThat(new ArrayList<String>(byEvents.keySet()), hasItems("Sent {} bytes to {}", "Cache miss for {}"));
+        assertThat(byEvents.get("Sent {} bytes to {}"), greaterThanOrEqualTo(1000L));
+
+        final List<String> byBytes = new ArrayList<String>(unit.top(2, true).keySet());
+        assertThat(byBytes.get(0), equalTo("Cache miss for {}"));
+    }
+
+    @Test
+    public void shouldTrackWindowWeight() {
+        final SpaceSavingSketch.Counter counter = unit.add("template");
+        counter.addWeight(10);
+        unit.resetWindows();
+        counter.addWeight(5);
+        assertThat(counter.getWeight(), equalTo(15L));
+        assertThat(counter.getWindowWeight(), equalTo(5L));
+        assertThat(counter.getCount(), equalTo(1L));
+    }
+
+    @Test
+    public void shouldInheritTheCountOfTheEvictedKey() {
+        final SpaceSavingSketch single = new SpaceSavingSketch(4);
+        for (int i = 0; i < 4; i++) {
+            single.add("key" + i);
+            single.add("key" + i);
+        }
+        final SpaceSavingSketch.Counter counter = single.add("newcomer");
+        assertThat(counter.getCount(), equalTo(3L));
+        assertThat(counter.getError(), equalTo(2L));
+        assertThat(single.top(10, false).size(), equalTo(4));
+    }
+
+    @Test
+    public void shouldForgetOnReset() {
+        unit.add("a");
+        unit.reset();
+        assertThat(unit.top(10, false).size(), equalTo(0));
+    }
+}
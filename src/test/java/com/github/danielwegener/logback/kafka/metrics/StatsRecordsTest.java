@@ -0,0 +1,40 @@
+package com.github.danielwegener.logback.kafka.metrics;
+
+import ch.qos.logback.classic.Level;
+import com.github.danielwegener.logback.kafka.Backpressure;
+import com.github.danielwegener.logback.kafka.message.KafkaLogMessage;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class StatsRecordsTest {
+
+    private final KafkaAppenderMonitor monitor = new KafkaAppenderMonitor(new Backpressure());
+
+    @Test
+    public void shouldSnapshotTheMonitor() {
+        monitor.onAppended("logger", Level.INFO);
+        monitor.onAppended("logger", Level.INFO);
+        monitor.onEncoded(100);
+        monitor.onSent(2000000L);
+        monitor.onDropped(DropReason.BUFFER_EXHAUSTED);
+        monitor.setProducerMetrics(Collections.singletonMap("default.record-queue-time-avg", 3.5));
+        monitor.sampleLatencies();
+
+        final KafkaLogMessage stats = StatsRecords.create("kafkaAppender", "host1", monitor, 1234L);
+        assertThat(stats.getField(StatsRecords.FIELD_APPENDER), equalTo("kafkaAppender"));
+        assertThat(stats.getField(StatsRecords.FIELD_HOST), equalTo("host1"));
+        assertThat(stats.getField(StatsRecords.FIELD_APPENDED), equalTo("2"));
+        assertThat(stats.getField(StatsRecords.FIELD_BYTES), equalTo("100"));
+        assertThat(stats.getField(StatsRecords.FIELD_DROPPED), equalTo("1"));
+        assertThat(stats.getField(StatsRecords.FIELD_DROPPED + ".buffer_exhausted"), equalTo("1"));
+        assertThat(stats.getField(StatsRecords.FIELD_DROPPED + ".filtered"), equalTo("0"));
+        assertThat(stats.getField(StatsRecords.FIELD_SEND_LATENCY_P99), equalTo("2000"));
+        assertThat(stats.getField(StatsRecords.FIELD_QUEUE_TIME_AVG), equalTo("3.5"));
+        assertThat(stats.getField(StatsRecords.FIELD_QUEUE_TIME_MAX), nullValue());
+    }
+}
@@ -0,0 +1,44 @@
+package com.github.danielwegener.logback.kafka.metrics;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+public class TopKSketchTest {
+
+    private final TopKSketch unit = new TopKSketch(3, 4, 256);
+
+    @Test
+    public void shouldFindHeavyHittersAmongManyKeys() {
+        for (int round = 0; round < 100; round++) {
+            unit.add("com.example.Chatty", 10);
+            unit.add("com.example.Busy", 5);
+            unit.add("com.example.Verbose", 3);
+            for (int i = 0; i < 20; i++) {
+                unit.add("com.example.Quiet" + (round * 20 + i), 1);
+            }
+        }
+        final Map<String, Long> top = unit.top();
+        final List<String> names = new ArrayList<String>(top.keySet());
+        assertThat(names, contains("com.example.Chatty", "com.example.Busy", "com.example.Verbose"));
+        assertThat(top.get("com.example.Chatty"), greaterThanOrEqualTo(1000L));
+        // the overcount is bounded by the total weight spread over the row width
+        assertThat(top.get("com.example.Chatty"), lessThan(1000L + 2000L / 32));
+    }
+
+    @Test
+    public void shouldForgetOnReset() {
+        unit.add("a", 1);
+        unit.reset();
+        assertThat(unit.top().size(), equalTo(0));
+        assertThat(unit.estimate("a"), equalTo(0L));
+    }
+}
@@ -0,0 +1,113 @@
+package com.github.danielwegener.logback.kafka.pipeline;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.github.danielwegener.logback.kafka.message.KafkaLogMessage;
+import com.github.danielwegener.logback.kafka.metrics.DropReason;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.hamcrest.Matchers.closeTo;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class ConsistentSamplingStageTest {
+
+    private final ConsistentSamplingStage unit = new ConsistentSamplingStage();
+    private final LoggerContext ctx = new LoggerContext();
+    private final StageSink sink = mock(StageSink.class);
+
+    @Before
+    public void before() {
+        unit.setContext(ctx);
+        unit.setLevelRates("INFO=0.25, DEBUG=0");
+        unit.start();
+    }
+
+    @Test
+    public void shouldHashWithFnv1a() {
+        // reference values of the 64-bit FNV-1a test suite
+        assertThat(ConsistentSamplingStage.fnv1a64(""), equalTo(0xcbf29ce484222325L));
+        assertThat(ConsistentSamplingStage.fnv1a64("a"), equalTo(0xaf63dc4c8601ec8cL));
+        assertThat(ConsistentSamplingStage.fnv1a64("foobar"), equalTo(0x85944171f73967e8L));
+    }
+
+    @Test
+    public void shouldDecideConsistentlyPerKey() {
+        int kept = 0;
+        for (int i = 0; i < 10000; i++) {
+            final String traceId = "trace-" + i;
+            final boolean first = unit.process(event(Level.INFO, traceId), new AppendContext(sink));
+            final boolean second = unit.process(event(Level.INFO, traceId), new AppendContext(sink));
+            assertThat(second, equalTo(first));
+            if (first) kept++;
+        }
+        assertThat(kept / 10000d, closeTo(0.25d, 0.02d));
+    }
+
+    @Test
+    public void shouldAnnotateKeptEvents() {
+        String traceId = null;
+        for (int i = 0; traceId == null; i++) {
+            if (ConsistentSamplingStage.isSampled("trace-" + i, 0.25d)) traceId = "trace-" + i;
+        }
+        final AppendContext context = new AppendContext(sink);
+        assertTrue(unit.process(event(Level.INFO, traceId), context));
+        final KafkaLogMessage message = new KafkaLogMessage();
+        context.applyTo(message);
+        assertThat(message.getField(ConsistentSamplingStage.FIELD_SAMPLE_RATE), equalTo("0.25"));
+    }
+
+    @Test
+    public void shouldNotSampleUnconfiguredLevels() {
+        final AppendContext context = new AppendContext(sink);
+        assertTrue(unit.process(event(Level.WARN, "trace"), context));
+        assertFalse(unit.process(event(Level.DEBUG, "trace"), new AppendContext(sink)));
+        final KafkaLogMessage message = new KafkaLogMessage();
+        context.applyTo(message);
+        assertThat(message.getField(ConsistentSamplingStage.FIELD_SAMPLE_RATE), nullValue());
+    }
+
+    @Test
+    public void shouldIgnoreInvalidRates() {
+        final ConsistentSamplingStage invalid = new ConsistentSamplingStage();
+        invalid.setContext(ctx);
+        invalid.setLevelRates("INFO=often, DEBUG=0");
+        invalid.start();
+
+        assertTrue(invalid.isStarted());
+        assertTrue(invalid.process(event(Level.INFO, "trace"), new AppendContext(sink)));
+        assertFalse(invalid.process(event(Level.DEBUG, "trace"), new AppendContext(sink)));
+        assertThat(ctx.getStatusManager().getCount(), equalTo(1));
+    }
+
+    @Test
+    public void shouldReportDrops() {
+        final AppendContext sampledOut = new AppendContext(sink);
+        assertFalse(unit.process(event(Level.DEBUG, "trace"), sampledOut));
+        assertThat(sampledOut.getDropReason(), equalTo(DropReason.SAMPLED));
+
+        final LoggingEvent unkeyed = new LoggingEvent("fqcn", ctx.getLogger("logger"), Level.INFO, "msg", null, new Object[0]);
+        unkeyed.setMDCPropertyMap(Collections.<String, String>emptyMap());
+        final AppendContext kept = new AppendContext(sink);
+        assertTrue(unit.process(unkeyed, kept));
+        assertThat(kept.getDropReason(), nullValue());
+        unit.setKeepUnkeyed(false);
+        final AppendContext dropped = new AppendContext(sink);
+        assertFalse(unit.process(unkeyed, dropped));
+        assertThat(dropped.getDropReason(), equalTo(DropReason.SAMPLED));
+    }
+
+    private LoggingEvent event(Level level, String traceId) {
+        final LoggingEvent event = new LoggingEvent("fqcn", ctx.getLogger("logger"), level, "msg", null, new Object[0]);
+        event.setMDCPropertyMap(Collections.singletonMap("traceId", traceId));
+        return event;
+    }
+}
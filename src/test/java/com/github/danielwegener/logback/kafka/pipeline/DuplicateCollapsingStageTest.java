@@ -0,0 +1,114 @@
+package com.github.danielwegener.logback.kafka.pipeline;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.github.danielwegener.logback.kafka.message.KafkaLogMessage;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class DuplicateCollapsingStageTest {
+
+    private final DuplicateCollapsingStage unit = new DuplicateCollapsingStage();
+    private final LoggerContext ctx = new LoggerContext();
+    private final StageSink sink = mock(StageSink.class);
+
+    @Before
+    public void before() {
+        unit.setContext(ctx);
+        unit.setWindow(1000L);
+        unit.setMdcKeys("tenant");
+    }
+
+    @Test
+    public void shouldSuppressRepeatsAndEmitSummary() {
+        unit.start();
+        final LoggingEvent first = event("retrying {}", 1000L, "a");
+        assertTrue(unit.process(first, new AppendContext(sink)));
+        assertFalse(unit.process(event("retrying {}", 1200L, "a"), new AppendContext(sink)));
+        assertFalse(unit.process(event("retrying {}", 1900L, "a"), new AppendContext(sink)));
+
+        unit.stop();
+        unit.flush(sink);
+
+        // the summary is a record of its own, the first event has already been shipped
+        final ArgumentCaptor<KafkaLogMessage> captor = ArgumentCaptor.forClass(KafkaLogMessage.class);
+        verify(sink).emit(captor.capture(), isNull(ILoggingEvent.class));
+        verify(sink, never()).assemble(any(ILoggingEvent.class));
+        final KafkaLogMessage summary = captor.getValue();
+        assertThat(summary.getField(DuplicateCollapsingStage.FIELD_REPEAT_COUNT), equalTo("2"));
+        assertThat(summary.getField(DuplicateCollapsingStage.FIELD_FIRST_TIMESTAMP), equalTo("1000"));
+        assertThat(summary.getField(DuplicateCollapsingStage.FIELD_LAST_TIMESTAMP), equalTo("1900"));
+        assertThat(summary.getField(DuplicateCollapsingStage.FIELD_REPEAT_LOGGER), equalTo("logger"));
+        assertThat(summary.getField(DuplicateCollapsingStage.FIELD_REPEAT_LEVEL), equalTo("WARN"));
+        assertThat(summary.getField(DuplicateCollapsingStage.FIELD_REPEAT_TEMPLATE), equalTo("retrying {}"));
+        assertThat(summary.getField("tenant"), equalTo("a"));
+    }
+
+    @Test
+    public void shouldEmitAWaitingSummaryWhenTheSlotEndsAnotherRun() {
+        unit.start();
+        assertTrue(unit.process(event("retrying {}", 1000L, "a"), new AppendContext(sink)));
+        assertFalse(unit.process(event("retrying {}", 1100L, "a"), new AppendContext(sink)));
+        // outside the window, the run ends and waits for the next flush
+        assertTrue(unit.process(event("retrying {}", 5000L, "a"), new AppendContext(sink)));
+        assertFalse(unit.process(event("retrying {}", 5100L, "a"), new AppendContext(sink)));
+        verify(sink, never()).emit(any(KafkaLogMessage.class), any(ILoggingEvent.class));
+
+        assertTrue(unit.process(event("retrying {}", 9000L, "a"), new AppendContext(sink)));
+        verify(sink, times(1)).emit(any(KafkaLogMessage.class), isNull(ILoggingEvent.class));
+
+        unit.stop();
+        unit.flush(sink);
+        verify(sink, times(2)).emit(any(KafkaLogMessage.class), isNull(ILoggingEvent.class));
+    }
+
+    @Test
+    public void shouldPassEventsOutsideWindowOrWithDifferentKeys() {
+        unit.start();
+        assertTrue(unit.process(event("retrying {}", 1000L, "a"), new AppendContext(sink)));
+        assertTrue(unit.process(event("retrying {}", 1000L, "b"), new AppendContext(sink)));
+        assertTrue(unit.process(event("other", 1000L, "b"), new AppendContext(sink)));
+        assertTrue(unit.process(event("other", 5000L, "b"), new AppendContext(sink)));
+
+        unit.stop();
+        unit.flush(sink);
+        verify(sink, never()).emit(any(KafkaLogMessage.class), any(ILoggingEvent.class));
+    }
+
+    @Test
+    public void shouldRejectRepeatsOfEndedRuns() {
+        final DuplicateCollapsingStage.Run run = new DuplicateCollapsingStage.Run(0, event("retrying {}", 1000L, "a"),
+                new String[0], null);
+        assertTrue(run.repeat());
+        assertThat(run.end(), equalTo(1L));
+        // a repeat that raced with the end of the run must start a new run instead of being lost
+        assertFalse(run.repeat());
+        assertThat(run.end(), equalTo(-1L));
+    }
+
+    private LoggingEvent event(String template, long timestamp, String tenant) {
+        final LoggingEvent event = new LoggingEvent("fqcn", ctx.getLogger("logger"), Level.WARN, template, null, new Object[]{"x"});
+        final Map<String, String> mdc = new HashMap<String, String>();
+        mdc.put("tenant", tenant);
+        event.setMDCPropertyMap(mdc);
+        event.setTimeStamp(timestamp);
+        return event;
+    }
+}
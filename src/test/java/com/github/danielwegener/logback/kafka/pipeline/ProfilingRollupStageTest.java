@@ -0,0 +1,81 @@
+package com.github.danielwegener.logback.kafka.pipeline;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.github.danielwegener.logback.kafka.message.KafkaLogMessage;
+import com.github.danielwegener.logback.kafka.message.KafkaLogUtil;
+import com.github.danielwegener.logback.kafka.message.LogbackLogEvent;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.slf4j.MarkerFactory;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class ProfilingRollupStageTest {
+
+    private final ProfilingRollupStage unit = new ProfilingRollupStage();
+    private final LoggerContext ctx = new LoggerContext();
+    private final StageSink sink = mock(StageSink.class);
+
+    @Before
+    public void before() {
+        unit.setContext(ctx);
+        unit.setTopic("metrics");
+        unit.start();
+    }
+
+    @Test
+    public void shouldRecordDurationsOfRequestEndEventsPerEndpoint() {
+        assertTrue(unit.process(event("/orders", "1000", 1500L, true), new AppendContext(sink)));
+        unit.process(event("/orders", "1000", 1100L, true), new AppendContext(sink));
+        // events without the end marker are not recorded
+        unit.process(event("/orders", "1000", 9000L, false), new AppendContext(sink));
+        unit.stop();
+        unit.flush(sink);
+
+        final ArgumentCaptor<KafkaLogMessage> captor = ArgumentCaptor.forClass(KafkaLogMessage.class);
+        verify(sink).emit(captor.capture(), isNull(LoggingEvent.class), eq("metrics"));
+        final KafkaLogMessage summary = captor.getValue();
+        assertThat(summary.getField(ProfilingRollupStage.FIELD_ENDPOINT), equalTo("/orders"));
+        assertThat(summary.getField("duration_ms.count"), equalTo("2"));
+        assertThat(summary.getField("duration_ms.min"), equalTo("100"));
+        assertThat(summary.getField("duration_ms.max"), equalTo("500"));
+    }
+
+    @Test
+    public void shouldComputeMdcProfilingFromEventTimestamp() {
+        final KafkaLogMessage message = new KafkaLogMessage();
+        KafkaLogUtil.addMdcProfiling(new LogbackLogEvent(event("/orders", "1000", 1250L, false)), message);
+        assertThat(message.getField(KafkaLogUtil.MDC_REQUEST_DURATION_MILLIS), equalTo("250"));
+        assertThat(message.getField(KafkaLogUtil.MDC_REQUEST_END), equalTo("1250"));
+
+        final KafkaLogMessage invalid = new KafkaLogMessage();
+        KafkaLogUtil.addMdcProfiling(new LogbackLogEvent(event("/orders", "not-a-number", 1250L, false)), invalid);
+        assertThat(invalid.getField(KafkaLogUtil.MDC_REQUEST_DURATION_MILLIS), nullValue());
+    }
+
+    private LoggingEvent event(String endpoint, String requestStart, long timestamp, boolean end) {
+        final LoggingEvent event = new LoggingEvent("fqcn", ctx.getLogger("logger"), Level.INFO, "message", null, new Object[0]);
+        final Map<String, String> mdc = new HashMap<String, String>();
+        mdc.put("endpoint", endpoint);
+        mdc.put(KafkaLogUtil.MDC_REQUEST_START_MS, requestStart);
+        event.setMDCPropertyMap(mdc);
+        event.setTimeStamp(timestamp);
+        if (end) {
+            event.setMarker(MarkerFactory.getMarker("REQUEST_END"));
+        }
+        return event;
+    }
+}
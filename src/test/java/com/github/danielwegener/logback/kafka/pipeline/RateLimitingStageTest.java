@@ -0,0 +1,88 @@
+package com.github.danielwegener.logback.kafka.pipeline;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.github.danielwegener.logback.kafka.message.KafkaLogMessage;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class RateLimitingStageTest {
+
+    private final RateLimitingStage unit = new RateLimitingStage();
+    private final LoggerContext ctx = new LoggerContext();
+    private final StageSink sink = mock(StageSink.class);
+
+    @Before
+    public void before() {
+        unit.setContext(ctx);
+        unit.setEventsPerSecond(10);
+        unit.setBurst(2);
+    }
+
+    @Test
+    public void shouldAdmitBurstAndSuppressTheRest() {
+        unit.start();
+        assertTrue(unit.process(event("a", Level.INFO, 1000L), new AppendContext(sink)));
+        assertTrue(unit.process(event("a", Level.INFO, 1000L), new AppendContext(sink)));
+        assertFalse(unit.process(event("a", Level.INFO, 1000L), new AppendContext(sink)));
+        // other loggers and levels have their own buckets
+        assertTrue(unit.process(event("b", Level.INFO, 1000L), new AppendContext(sink)));
+        assertTrue(unit.process(event("a", Level.WARN, 1000L), new AppendContext(sink)));
+        // after 100ms one more token is available
+        assertTrue(unit.process(event("a", Level.INFO, 1100L), new AppendContext(sink)));
+    }
+
+    @Test
+    public void shouldLimitByEncodedBytes() {
+        unit.setEventsPerSecond(0);
+        unit.setBytesPerSecond(1000);
+        unit.setByteBurst(1000);
+        unit.start();
+        assertTrue(unit.process(event("a", Level.INFO, 1000L), new AppendContext(sink)));
+        unit.onEncoded(event("a", Level.INFO, 1000L), 5000);
+        assertFalse(unit.process(event("a", Level.INFO, 1000L), new AppendContext(sink)));
+        assertTrue(unit.process(event("a", Level.INFO, 5000L), new AppendContext(sink)));
+    }
+
+    @Test
+    public void shouldEmitSuppressionSummaryOnFinalFlush() {
+        unit.start();
+        for (int i = 0; i < 5; i++) {
+            unit.process(event("a", Level.INFO, 1000L), new AppendContext(sink));
+        }
+        unit.stop();
+        unit.flush(sink);
+
+        final ArgumentCaptor<KafkaLogMessage> captor = ArgumentCaptor.forClass(KafkaLogMessage.class);
+        verify(sink).emit(captor.capture(), isNull(LoggingEvent.class));
+        assertThat(captor.getValue().getField(RateLimitingStage.FIELD_SUPPRESSED_COUNT), equalTo("3"));
+        assertThat(captor.getValue().getField(RateLimitingStage.FIELD_SUPPRESSED_LOGGER), equalTo("a"));
+    }
+
+    @Test
+    public void shouldNotEmitSummaryWithoutSuppressions() {
+        unit.start();
+        unit.process(event("a", Level.INFO, 1000L), new AppendContext(sink));
+        unit.stop();
+        unit.flush(sink);
+        verify(sink, never()).emit(any(KafkaLogMessage.class), any(LoggingEvent.class));
+    }
+
+    private LoggingEvent event(String logger, Level level, long timestamp) {
+        final LoggingEvent event = new LoggingEvent("fqcn", ctx.getLogger(logger), level, "message", null, new Object[0]);
+        event.setTimeStamp(timestamp);
+        return event;
+    }
+}
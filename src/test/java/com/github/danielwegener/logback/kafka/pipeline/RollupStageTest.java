@@ -0,0 +1,83 @@
+package com.github.danielwegener.logback.kafka.pipeline;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.github.danielwegener.logback.kafka.message.KafkaLogMessage;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.Collections;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+public class RollupStageTest {
+
+    private final RollupStage unit = new RollupStage();
+    private final LoggerContext ctx = new LoggerContext();
+    private final StageSink sink = mock(StageSink.class);
+
+    @Before
+    public void before() {
+        unit.setContext(ctx);
+        unit.setLoggers("com.example.access");
+        unit.setTopic("metrics");
+        unit.setHistogramMdcKeys("durationMs");
+    }
+
+    @Test
+    public void shouldRollUpMatchingEventsOnly() {
+        unit.start();
+        assertFalse(unit.process(event("com.example.access.Log", Level.INFO, "10"), new AppendContext(sink)));
+        assertTrue(unit.process(event("com.example.access.Log", Level.WARN, "10"), new AppendContext(sink)));
+        assertTrue(unit.process(event("com.example.other", Level.INFO, "10"), new AppendContext(sink)));
+    }
+
+    @Test
+    public void shouldEmitSummaryWithHistogramToMetricsTopic() {
+        unit.start();
+        unit.process(event("com.example.access.Log", Level.INFO, "10"), new AppendContext(sink));
+        unit.process(event("com.example.access.Log", Level.INFO, "30.5"), new AppendContext(sink));
+        unit.process(event("com.example.access.Log", Level.INFO, "n/a"), new AppendContext(sink));
+        unit.stop();
+        unit.flush(sink);
+
+        final ArgumentCaptor<KafkaLogMessage> captor = ArgumentCaptor.forClass(KafkaLogMessage.class);
+        verify(sink).emit(captor.capture(), isNull(LoggingEvent.class), eq("metrics"));
+        final KafkaLogMessage summary = captor.getValue();
+        assertThat(summary.getField(RollupStage.FIELD_ROLLUP_LOGGER), equalTo("com.example.access.Log"));
+        assertThat(summary.getField(RollupStage.FIELD_ROLLUP_LEVEL), equalTo("INFO"));
+        assertThat(summary.getField(RollupStage.FIELD_ROLLUP_COUNT), equalTo("3"));
+        assertThat(summary.getField("durationMs.count"), equalTo("2"));
+        assertThat(summary.getField("durationMs.min"), equalTo("10"));
+        assertThat(summary.getField("durationMs.max"), equalTo("30"));
+    }
+
+    @Test
+    public void shouldEmitSummaryWithoutHistogramIfNoValueWasRecorded() {
+        unit.start();
+        unit.process(event("com.example.access.Log", Level.INFO, "n/a"), new AppendContext(sink));
+        unit.stop();
+        unit.flush(sink);
+
+        final ArgumentCaptor<KafkaLogMessage> captor = ArgumentCaptor.forClass(KafkaLogMessage.class);
+        verify(sink).emit(captor.capture(), isNull(LoggingEvent.class), eq("metrics"));
+        assertThat(captor.getValue().getField(RollupStage.FIELD_ROLLUP_COUNT), equalTo("1"));
+        assertThat(captor.getValue().getField("durationMs.count"), nullValue());
+    }
+
+    private LoggingEvent event(String logger, Level level, String duration) {
+        final LoggingEvent event = new LoggingEvent("fqcn", ctx.getLogger(logger), level, "message", null, new Object[0]);
+        event.setMDCPropertyMap(Collections.singletonMap("durationMs", duration));
+        return event;
+    }
+}
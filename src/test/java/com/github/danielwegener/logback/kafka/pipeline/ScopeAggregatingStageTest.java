@@ -0,0 +1,123 @@
+package com.github.danielwegener.logback.kafka.pipeline;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.github.danielwegener.logback.kafka.message.KafkaLogMessage;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+import org.slf4j.MarkerFactory;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasSize;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ScopeAggregatingStageTest {
+
+    private final ScopeAggregatingStage unit = new ScopeAggregatingStage();
+    private final LoggerContext ctx = new LoggerContext();
+    private final StageSink sink = mock(StageSink.class);
+
+    @Before
+    public void before() {
+        unit.setContext(ctx);
+        unit.start();
+        when(sink.assemble(any(ILoggingEvent.class))).thenAnswer(invocation -> new KafkaLogMessage());
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void shouldEmitOneRecordOnEndMarker() {
+        final LoggingEvent first = event(Level.INFO, "r1", "thread-1", "first");
+        assertFalse(unit.process(first, new AppendContext(sink)));
+        assertFalse(unit.process(event(Level.WARN, "r1", "thread-1", "second"), new AppendContext(sink)));
+        verify(sink, never()).emit(any(KafkaLogMessage.class), any(ILoggingEvent.class));
+
+        final LoggingEvent last = event(Level.INFO, "r1", "thread-1", "done");
+        last.setMarker(MarkerFactory.getMarker("SCOPE_END"));
+        assertFalse(unit.process(last, new AppendContext(sink)));
+
+        final ArgumentCaptor<KafkaLogMessage> captor = ArgumentCaptor.forClass(KafkaLogMessage.class);
+        verify(sink).emit(captor.capture(), same(first));
+        final KafkaLogMessage message = captor.getValue();
+        assertThat(message.getField(ScopeAggregatingStage.FIELD_ENTRY_COUNT), equalTo("3"));
+        assertThat(message.getField(ScopeAggregatingStage.FIELD_SCOPE_ID), equalTo("r1"));
+        assertThat(message.getLevel(), equalTo("4"));
+        final List<Map<String, Object>> entries = (List<Map<String, Object>>) message.getStructuredField(ScopeAggregatingStage.FIELD_ENTRIES);
+        assertThat(entries, hasSize(3));
+        assertThat(entries.get(1).get(ScopeAggregatingStage.ENTRY_MESSAGE), equalTo((Object) "second"));
+    }
+
+    @Test
+    public void shouldEndScopeWhenThreadLogsWithoutScopeKey() {
+        final LoggingEvent first = event(Level.INFO, "r1", "thread-1", "first");
+        assertFalse(unit.process(first, new AppendContext(sink)));
+        // other threads do not end the scope
+        assertTrue(unit.process(event(Level.INFO, null, "thread-2", "unscoped"), new AppendContext(sink)));
+        verify(sink, never()).emit(any(KafkaLogMessage.class), any(ILoggingEvent.class));
+
+        assertTrue(unit.process(event(Level.INFO, null, "thread-1", "unscoped"), new AppendContext(sink)));
+        verify(sink).emit(any(KafkaLogMessage.class), same(first));
+    }
+
+    @Test
+    public void shouldForgetThreadsOfTimedOutScopes() throws InterruptedException {
+        unit.setTimeout(0);
+        final LoggingEvent first = event(Level.INFO, "r1", "thread-1", "first");
+        assertFalse(unit.process(first, new AppendContext(sink)));
+        assertTrue(unit.process(event(Level.INFO, null, "thread-2", "unscoped"), new AppendContext(sink)));
+        assertThat(unit.getScopedThreads(), equalTo(1));
+
+        Thread.sleep(5);
+        unit.flush(sink);
+        verify(sink).emit(any(KafkaLogMessage.class), same(first));
+        assertThat(unit.getScopedThreads(), equalTo(0));
+        // the timed out scope is not ended again
+        assertTrue(unit.process(event(Level.INFO, null, "thread-1", "unscoped"), new AppendContext(sink)));
+        verify(sink).emit(any(KafkaLogMessage.class), any(ILoggingEvent.class));
+    }
+
+    @Test
+    public void shouldSplitLargeScopes() {
+        unit.setMaxEntries(2);
+        final LoggingEvent first = event(Level.INFO, "r1", "thread-1", "1");
+        final LoggingEvent third = event(Level.INFO, "r1", "thread-1", "3");
+        unit.process(first, new AppendContext(sink));
+        unit.process(event(Level.INFO, "r1", "thread-1", "2"), new AppendContext(sink));
+        unit.process(third, new AppendContext(sink));
+        verify(sink).emit(any(KafkaLogMessage.class), same(first));
+
+        unit.stop();
+        unit.flush(sink);
+        verify(sink).emit(any(KafkaLogMessage.class), same(third));
+    }
+
+    @Test
+    public void shouldSerializeEntriesAsJsonArray() {
+        final KafkaLogMessage message = new KafkaLogMessage();
+        message.setFullMessage("scope");
+        message.addStructuredField("entries", Collections.singletonList(Collections.singletonMap("level", "INFO")));
+        assertTrue(message.toJson("").contains("\"entries\":[{\"level\":\"INFO\"}]"));
+    }
+
+    private LoggingEvent event(Level level, String scopeId, String threadName, String message) {
+        final LoggingEvent event = new LoggingEvent("fqcn", ctx.getLogger("logger"), level, message, null, new Object[0]);
+        event.setMDCPropertyMap(scopeId != null ? Collections.singletonMap("requestId", scopeId) : Collections.<String, String>emptyMap());
+        event.setThreadName(threadName);
+        return event;
+    }
+}
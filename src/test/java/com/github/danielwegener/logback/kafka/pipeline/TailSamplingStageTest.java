@@ -0,0 +1,149 @@
+package com.github.danielwegener.logback.kafka.pipeline;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.classic.spi.LoggingEvent;
+import com.github.danielwegener.logback.kafka.message.KafkaLogMessage;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import java.util.Collections;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.same;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+
+public class TailSamplingStageTest {
+
+    private final TailSamplingStage unit = new TailSamplingStage();
+    private final LoggerContext ctx = new LoggerContext();
+    private final StageSink sink = mock(StageSink.class);
+
+    @Before
+    public void before() {
+        unit.setContext(ctx);
+        unit.setMaxEventsPerTrace(2);
+        unit.start();
+    }
+
+    @Test
+    public void shouldReleaseHeldEventsOnError() {
+        final LoggingEvent debug1 = event(Level.DEBUG, "t1");
+        final LoggingEvent debug2 = event(Level.DEBUG, "t1");
+        final LoggingEvent debug3 = event(Level.DEBUG, "t1");
+        assertFalse(unit.process(debug1, new AppendContext(sink)));
+        assertFalse(unit.process(debug2, new AppendContext(sink)));
+        assertFalse(unit.process(debug3, new AppendContext(sink)));
+        assertTrue(unit.process(event(Level.INFO, "t1"), new AppendContext(sink)));
+        assertThat(unit.getBufferedEvents(), equalTo(2));
+
+        assertTrue(unit.process(event(Level.ERROR, "t1"), new AppendContext(sink)));
+
+        final InOrder inOrder = inOrder(sink);
+        inOrder.verify(sink).emit(any(KafkaLogMessage.class), same(debug2));
+        inOrder.verify(sink).emit(any(KafkaLogMessage.class), same(debug3));
+        verify(sink, never()).emit(any(KafkaLogMessage.class), same(debug1));
+        assertThat(unit.getBufferedEvents(), equalTo(0));
+        // the trace has been triggered, later events pass through
+        assertTrue(unit.process(event(Level.DEBUG, "t1"), new AppendContext(sink)));
+    }
+
+    @Test
+    public void shouldDiscardHeldEventsOfSuccessfulTraces() {
+        assertFalse(unit.process(event(Level.DEBUG, "t1"), new AppendContext(sink)));
+        assertTrue(unit.process(event(Level.ERROR, "t2"), new AppendContext(sink)));
+        unit.stop();
+        unit.flush(sink);
+        verify(sink, never()).emit(any(KafkaLogMessage.class), any(ILoggingEvent.class));
+        assertThat(unit.getDiscardedEvents(), equalTo(1L));
+    }
+
+    @Test
+    public void shouldPassUntracedEvents() {
+        final LoggingEvent debug = new LoggingEvent("fqcn", ctx.getLogger("logger"), Level.DEBUG, "msg", null, new Object[0]);
+        debug.setMDCPropertyMap(Collections.<String, String>emptyMap());
+        assertTrue(unit.process(debug, new AppendContext(sink)));
+    }
+
+    @Test
+    public void shouldCapBufferedEvents() {
+        unit.setMaxBufferedEvents(1);
+        assertFalse(unit.process(event(Level.DEBUG, "t1"), new AppendContext(sink)));
+        assertFalse(unit.process(event(Level.DEBUG, "t2"), new AppendContext(sink)));
+        assertThat(unit.getBufferedEvents(), equalTo(1));
+        assertThat(unit.getDiscardedEvents(), equalTo(1L));
+    }
+
+    @Test
+    public void shouldPassTriggersBeyondTheTraceCap() {
+        unit.setMaxTraces(1);
+        assertFalse(unit.process(event(Level.DEBUG, "t1"), new AppendContext(sink)));
+        assertTrue(unit.process(event(Level.ERROR, "t2"), new AppendContext(sink)));
+        // no buffer was created for t2, so later events of t2 are beyond the cap as well
+        assertFalse(unit.process(event(Level.DEBUG, "t2"), new AppendContext(sink)));
+        assertThat(unit.getBufferedEvents(), equalTo(1));
+        verify(sink, never()).emit(any(KafkaLogMessage.class), any(ILoggingEvent.class));
+    }
+
+    @Test
+    public void shouldKeepActiveTriggeredTraces() {
+        unit.setTimeout(1000);
+        final LoggingEvent error = event(Level.ERROR, "t1");
+        error.setTimeStamp(System.currentTimeMillis() - 5000);
+        assertTrue(unit.process(error, new AppendContext(sink)));
+        assertTrue(unit.process(event(Level.DEBUG, "t1"), new AppendContext(sink)));
+
+        unit.flush(sink);
+        assertTrue(unit.process(event(Level.DEBUG, "t1"), new AppendContext(sink)));
+    }
+
+    @Test
+    public void shouldNotLoseEventsHeldWhileTheTraceIsEvicted() throws InterruptedException {
+        unit.setTimeout(0);
+        final int events = 20000;
+        final AtomicBoolean adding = new AtomicBoolean(true);
+        final Thread evicting = new Thread(() -> {
+            while (adding.get()) {
+                unit.flush(sink);
+            }
+        });
+        evicting.start();
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        for (int i = 0; i < events; i++) {
+            final String traceId = "t" + (i % 4);
+            executor.execute(() -> {
+                final LoggingEvent debug = event(Level.DEBUG, traceId);
+                debug.setTimeStamp(System.currentTimeMillis() - 1000);
+                assertFalse(unit.process(debug, new AppendContext(sink)));
+            });
+        }
+        executor.shutdown();
+        executor.awaitTermination(10, TimeUnit.SECONDS);
+        adding.set(false);
+        evicting.join();
+
+        unit.stop();
+        unit.flush(sink);
+        assertThat(unit.getBufferedEvents(), equalTo(0));
+        assertThat(unit.getDiscardedEvents(), equalTo((long) events));
+    }
+
+    private LoggingEvent event(Level level, String traceId) {
+        final LoggingEvent event = new LoggingEvent("fqcn", ctx.getLogger("logger"), level, "msg", null, new Object[0]);
+        event.setMDCPropertyMap(Collections.singletonMap("traceId", traceId));
+        return event;
+    }
+}